@@ -2,6 +2,8 @@ package mmt.app;
 
 import static pt.tecnico.po.ui.Dialog.IO;
 
+import java.io.IOException;
+
 import mmt.TicketOffice;
 import mmt.exceptions.ImportFileException;
 
@@ -18,6 +20,16 @@ public class App {
   public static void main(String[] args) {
     TicketOffice office = new TicketOffice();
 
+    String timetable = System.getProperty("timetable"); //$NON-NLS-1$
+    if (timetable != null) {
+      try {
+        office.openTimetable(timetable);
+      } catch (IOException e) {
+        // no behavior described: just present the problem
+        e.printStackTrace();
+      }
+    }
+
     String datafile = System.getProperty("import"); //$NON-NLS-1$
     if (datafile != null) {
       try {
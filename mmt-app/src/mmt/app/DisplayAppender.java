@@ -0,0 +1,67 @@
+package mmt.app;
+
+import pt.tecnico.po.ui.Display;
+
+/**
+ * Output of a listing that shows the text written to it on a display in
+ * chunks of whole lines, as it is written, so that a long listing is never
+ * kept whole in memory. Once the listing is written, close shows what is left.
+ */
+public class DisplayAppender implements Appendable {
+
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final Display _display;
+  private final StringBuilder _text = new StringBuilder();
+
+  /**
+   * @param display
+   *        display onde o texto e mostrado.
+   */
+  public DisplayAppender(Display display) {
+    _display = display;
+  }
+
+  @Override
+  public DisplayAppender append(CharSequence text) {
+    _text.append(text);
+    showLines();
+    return this;
+  }
+
+  @Override
+  public DisplayAppender append(CharSequence text, int start, int end) {
+    _text.append(text, start, end);
+    showLines();
+    return this;
+  }
+
+  @Override
+  public DisplayAppender append(char c) {
+    _text.append(c);
+    showLines();
+    return this;
+  }
+
+  /* the display ends what it shows with a line break, so a chunk is shown without its own */
+  private void showLines() {
+    if(_text.length() < CHUNK_SIZE)
+      return;
+    int end = _text.lastIndexOf("\n");
+    if(end < 0)
+      return;
+    _display.add(_text.substring(0, end));
+    _display.display();
+    _text.delete(0, end + 1);
+  }
+
+  /**
+   * Mostra o resto do texto escrito.
+   */
+  public void close() {
+    _display.add(_text.toString());
+    _display.display();
+    _text.setLength(0);
+  }
+
+}
@@ -2,9 +2,11 @@ package mmt.app.itineraries;
 
 //import mmt.DefaultSelector;
 //import mmt.DefaultVisitor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 import mmt.TicketOffice;
-import mmt.Passenger;
-import mmt.Itinerary;
+import mmt.app.DisplayAppender;
 import pt.tecnico.po.ui.Command;
 
 
@@ -25,10 +27,15 @@ public class DoShowAllItineraries extends Command<TicketOffice> {
   /** @see pt.tecnico.po.ui.Command#execute() */
   @Override
   public final void execute() {
-    for(Passenger p: _receiver.getPassengers())
-      if(p.getItineraries().size() > 0)
-        _display.add(p.itinerariesToString());
-    _display.display();
+    /* shown as it is written, in chunks */
+    DisplayAppender out = new DisplayAppender(_display);
+    try {
+      _receiver.writeItineraries(out);
+    } catch(IOException e) {
+      /* the display does not fail */
+      throw new UncheckedIOException(e);
+    }
+    out.close();
   }
 
 }
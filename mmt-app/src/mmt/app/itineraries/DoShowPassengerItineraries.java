@@ -2,7 +2,7 @@ package mmt.app.itineraries;
 
 import mmt.TicketOffice;
 import mmt.Passenger;
-import mmt.Itinerary;
+import mmt.ReportWriter;
 import mmt.exceptions.NoSuchPassengerIdException;
 import mmt.app.exceptions.NoSuchPassengerException;
 import pt.tecnico.po.ui.Command;
@@ -29,8 +29,11 @@ public class DoShowPassengerItineraries extends Command<TicketOffice> {
   public final void execute() throws DialogException, NoSuchPassengerException {
     try {
       _form.parse();
-      if(_receiver.getPassenger(_id.value()).getItineraries().size() > 0) {
-        _display.add(_receiver.getPassenger(_id.value()).itinerariesToString());
+      Passenger passenger = _receiver.getPassenger(_id.value());
+      if(passenger.getItineraries().size() > 0) {
+        StringBuilder text = new StringBuilder();
+        new ReportWriter(text).writeItineraries(passenger);
+        _display.add(text.toString());
       }
       else {
         _display.add(Message.noItineraries(_id.value()));
@@ -2,10 +2,11 @@ package mmt.app.passenger;
 
 //import mmt.DefaultSelector;
 //import mmt.DefaultVisitor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 import mmt.TicketOffice;
-import mmt.Passenger;
-import java.util.TreeMap;
-import java.lang.Iterable;
+import mmt.app.DisplayAppender;
 import pt.tecnico.po.ui.Command;
 
 //FIXME import other classes if necessary
@@ -25,9 +26,15 @@ public class DoShowAllPassengers extends Command<TicketOffice> {
   /** @see pt.tecnico.po.ui.Command#execute() */
   @Override
   public final void execute() {
-    for(Passenger p: _receiver.getPassengers())
-      _display.addLine(p.toString());
-    _display.display();
+    /* shown as it is written, in chunks */
+    DisplayAppender out = new DisplayAppender(_display);
+    try {
+      _receiver.writePassengers(out);
+    } catch(IOException e) {
+      /* the display does not fail */
+      throw new UncheckedIOException(e);
+    }
+    out.close();
   }
 
 }
@@ -2,6 +2,7 @@ package mmt.app.service;
 
 import mmt.TicketOffice;
 import mmt.Service;
+import mmt.ReportWriter;
 import pt.tecnico.po.ui.Command;
 
 //FIXME import other classes if necessary
@@ -21,8 +22,14 @@ public class DoShowAllServices extends Command<TicketOffice> {
   /** @see pt.tecnico.po.ui.Command#execute() */
   @Override
   public final void execute() {
-    for(Service s: _receiver.getServices())
-      _display.add(s.toString());
+    /* one writer and buffer for every service */
+    StringBuilder text = new StringBuilder();
+    ReportWriter writer = new ReportWriter(text);
+    for(Service s: _receiver.getServices()) {
+      text.setLength(0);
+      writer.writeService(s);
+      _display.add(text.toString());
+    }
     _display.display();
   }
 
@@ -0,0 +1,80 @@
+package mmt.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import mmt.DatasetGenerator;
+import mmt.TicketOffice;
+
+/**
+ * Data shared by the benchmarks, made by the dataset generator. The data
+ * depends only on its sizes and a fixed seed, so that every run, and every
+ * version of the core, is measured against the same data.
+ */
+final class Fixtures {
+
+  static final long SEED = 20171201L;
+
+  /* one station for every ten services, and a hub for every fifty stations */
+  private static final int SERVICES_PER_STATION = 10;
+  private static final int STATIONS_PER_HUB = 50;
+  private static final int SERVICES_PER_LINE = 10;
+
+  private Fixtures() {
+  }
+
+  /**
+   * @param services
+   *        numero aproximado de servicos.
+   * @param passengers
+   *        numero de passageiros.
+   * @param itineraries
+   *        numero medio de itinerarios de cada passageiro.
+   * @return o gerador dos dados com os tamanhos dados.
+   */
+  static DatasetGenerator generator(int services, int passengers, int itineraries) {
+    DatasetGenerator generator = new DatasetGenerator();
+    int stations = Math.max(services / SERVICES_PER_STATION, 20);
+    generator.setSeed(SEED);
+    generator.setStations(stations);
+    generator.setHubs(Math.max(stations / STATIONS_PER_HUB, 2));
+    generator.setServicesPerLine(SERVICES_PER_LINE);
+    generator.setLines(Math.max(services / (2 * SERVICES_PER_LINE), 1));
+    generator.setPassengers(passengers);
+    generator.setItinerariesPerPassenger(itineraries);
+    return generator;
+  }
+
+  /**
+   * @return um ficheiro de importacao com os tamanhos dados, apagado no fim da
+   *         execucao.
+   */
+  static String importFile(int services, int passengers, int itineraries) throws IOException {
+    Path file = Files.createTempFile("mmt-bench-", ".import");
+    file.toFile().deleteOnExit();
+    generator(services, passengers, itineraries).writeImportFile(file.toString());
+    return file.toString();
+  }
+
+  /**
+   * @return um instantaneo com os mesmos dados que importFile, apagado no fim
+   *         da execucao.
+   */
+  static String snapshot(int services, int passengers, int itineraries) throws IOException {
+    Path file = Files.createTempFile("mmt-bench-", ".dat");
+    file.toFile().deleteOnExit();
+    generator(services, passengers, itineraries).writeSnapshot(file.toString());
+    return file.toString();
+  }
+
+  /**
+   * @return um balcao com os dados de um ficheiro gerado com os tamanhos dados.
+   */
+  static TicketOffice office(int services, int passengers, int itineraries) throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(importFile(services, passengers, itineraries));
+    return office;
+  }
+
+}
@@ -0,0 +1,59 @@
+package mmt.bench;
+
+import mmt.DatasetGenerator;
+
+/**
+ * Command line front end of the dataset generator. Settings are given as
+ * name=value pairs, for example:
+ *
+ *   seed=1 stations=2000 hubs=20 lines=400 stops=4-16 frequency=16
+ *   passengers=100000 itineraries=10 import=data.import snapshot=data.dat
+ *
+ * Settings left out keep the generator's defaults; at least one of import
+ * and snapshot names a file to write.
+ */
+public class Generate {
+
+  public static void main(String[] args) throws Exception {
+    DatasetGenerator generator = new DatasetGenerator();
+    String importFile = null;
+    String snapshot = null;
+    for(String arg: args) {
+      int equals = arg.indexOf('=');
+      if(equals < 0)
+        usage(arg);
+      String name = arg.substring(0, equals);
+      String value = arg.substring(equals + 1);
+      switch(name) {
+        case "seed": generator.setSeed(Long.parseLong(value)); break;
+        case "stations": generator.setStations(Integer.parseInt(value)); break;
+        case "hubs": generator.setHubs(Integer.parseInt(value)); break;
+        case "lines": generator.setLines(Integer.parseInt(value)); break;
+        case "stops":
+          String[] range = value.split("-");
+          generator.setStopsPerLine(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+          break;
+        case "frequency": generator.setServicesPerLine(Integer.parseInt(value)); break;
+        case "passengers": generator.setPassengers(Integer.parseInt(value)); break;
+        case "itineraries": generator.setItinerariesPerPassenger(Integer.parseInt(value)); break;
+        case "import": importFile = value; break;
+        case "snapshot": snapshot = value; break;
+        default: usage(arg);
+      }
+    }
+    if(importFile == null && snapshot == null)
+      usage("no output file");
+    if(importFile != null)
+      generator.writeImportFile(importFile);
+    if(snapshot != null)
+      generator.writeSnapshot(snapshot);
+  }
+
+  private static void usage(String problem) {
+    System.err.println("bad argument: " + problem);
+    System.err.println("usage: Generate [seed=N] [stations=N] [hubs=N] [lines=N] [stops=MIN-MAX] [frequency=N]");
+    System.err.println("                [passengers=N] [itineraries=N] [import=FILE] [snapshot=FILE]");
+    System.exit(2);
+  }
+
+}
@@ -0,0 +1,47 @@
+package mmt.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mmt.ImportStatistics;
+import mmt.TicketOffice;
+
+/**
+ * Import of a whole file into an empty ticket office. There is one passenger
+ * for every ten services, with ten itineraries each on average.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImportBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int services;
+
+  private String _file;
+
+  @Setup
+  public void setUp() throws Exception {
+    _file = Fixtures.importFile(services, services / 10, 10);
+  }
+
+  @Benchmark
+  public ImportStatistics importFile() throws Exception {
+    return new TicketOffice().importFile(_file);
+  }
+
+}
@@ -0,0 +1,59 @@
+package mmt.bench;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mmt.Itinerary;
+import mmt.Passenger;
+import mmt.TicketOffice;
+
+/**
+ * The itineraries of one passenger, sorted by date and rendered as the
+ * application shows them. The passenger is the one, among a hundred, whose
+ * number of itineraries is closest to the parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItineraryBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int itineraries;
+
+  private Passenger _passenger;
+
+  @Setup
+  public void setUp() throws Exception {
+    TicketOffice office = Fixtures.office(1000, 100, itineraries);
+    for(Passenger p: office.getPassengers())
+      if(_passenger == null ||
+         Math.abs(p.getTotalIt() - itineraries) < Math.abs(_passenger.getTotalIt() - itineraries))
+        _passenger = p;
+  }
+
+  @Benchmark
+  public Collection<Itinerary> getItineraries() {
+    return _passenger.getItineraries();
+  }
+
+  @Benchmark
+  public String itinerariesToString() {
+    return _passenger.itinerariesToString();
+  }
+
+}
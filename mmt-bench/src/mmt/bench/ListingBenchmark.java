@@ -0,0 +1,78 @@
+package mmt.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mmt.Service;
+import mmt.TicketOffice;
+
+/**
+ * Service listings, as shown by the application: the services leaving the
+ * busiest station and the whole timetable, with and without rendering them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListingBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int services;
+
+  private TicketOffice _office;
+  private String _hub;
+
+  @Setup
+  public void setUp() throws Exception {
+    _office = Fixtures.office(services, 0, 0);
+    Map<String, Integer> departures = new HashMap<String, Integer>();
+    for(Service s: _office.getServices())
+      departures.merge(s.getFirstStation().getName(), 1, Integer::sum);
+    _hub = departures.keySet().iterator().next();
+    for(Map.Entry<String, Integer> e: departures.entrySet())
+      if(e.getValue() > departures.get(_hub))
+        _hub = e.getKey();
+  }
+
+  @Benchmark
+  public void departing(Blackhole blackhole) throws Exception {
+    for(Service s: _office.getServicesDepartingFromStation(_hub))
+      blackhole.consume(s);
+  }
+
+  @Benchmark
+  public void arriving(Blackhole blackhole) throws Exception {
+    for(Service s: _office.getServicesArrivingAtStation(_hub))
+      blackhole.consume(s);
+  }
+
+  @Benchmark
+  public void renderDeparting(Blackhole blackhole) throws Exception {
+    for(Service s: _office.getServicesDepartingFromStation(_hub))
+      blackhole.consume(s.toString());
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void renderAll(Blackhole blackhole) {
+    for(Service s: _office.getServices())
+      blackhole.consume(s.toString());
+  }
+
+}
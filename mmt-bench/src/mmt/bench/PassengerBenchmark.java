@@ -0,0 +1,57 @@
+package mmt.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mmt.Passenger;
+import mmt.TicketOffice;
+
+/**
+ * Registration of new passengers in a registry that already holds many, and
+ * the passenger listing. New names never repeat, so the registry grows by one
+ * passenger per operation during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PassengerBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int passengers;
+
+  private TicketOffice _office;
+  private long _registered;
+
+  @Setup
+  public void setUp() throws Exception {
+    _office = Fixtures.office(10, passengers, 0);
+  }
+
+  @Benchmark
+  public void registerPassenger() throws Exception {
+    _office.registerPassenger("New" + _registered++);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void renderPassengers(Blackhole blackhole) {
+    for(Passenger p: _office.getPassengers())
+      blackhole.consume(p.toString());
+  }
+
+}
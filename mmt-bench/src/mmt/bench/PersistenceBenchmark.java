@@ -0,0 +1,78 @@
+package mmt.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mmt.TicketOffice;
+
+/**
+ * Full saves and loads of a company with one passenger for every ten services
+ * and ten itineraries per passenger, on average. Saves alternate between two
+ * files, so that each one writes a whole snapshot rather than a journal. The
+ * snapshot loaded is the generator's, which holds the same data as the import
+ * file of ImportBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int services;
+
+  private TicketOffice _office;
+  private File _directory;
+  private String[] _files = new String[2];
+  private String _snapshot;
+  private int _saves;
+
+  @Setup
+  public void setUp() throws Exception {
+    _office = Fixtures.office(services, services / 10, 10);
+    _directory = Files.createTempDirectory("mmt-bench-").toFile();
+    _files[0] = new File(_directory, "a.dat").getPath();
+    _files[1] = new File(_directory, "b.dat").getPath();
+    _office.save(_files[1]);
+    _snapshot = Fixtures.snapshot(services, services / 10, 10);
+  }
+
+  @TearDown
+  public void tearDown() {
+    for(File f: _directory.listFiles())
+      f.delete();
+    _directory.delete();
+  }
+
+  @Benchmark
+  public void save() throws Exception {
+    /* a change, so that there is something to save */
+    _office.changePassengerName(0, _saves % 2 == 0 ? "P0'" : "P0");
+    _office.save(_files[_saves++ % 2]);
+  }
+
+  @Benchmark
+  public TicketOffice load() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.load(_snapshot);
+    return office;
+  }
+
+}
@@ -0,0 +1,67 @@
+package mmt.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mmt.Itinerary;
+import mmt.Service;
+import mmt.TicketOffice;
+
+/**
+ * Itinerary searches between the ends of randomly chosen services, which
+ * always have at least one answer. The trips are chosen once, with a fixed
+ * seed, and searched in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+  private static final int TRIPS = 64;
+
+  @Param({"1000", "10000", "100000"})
+  public int services;
+
+  private TicketOffice _office;
+  private List<String[]> _trips = new ArrayList<String[]>();
+  private int _next;
+
+  @Setup
+  public void setUp() throws Exception {
+    _office = Fixtures.office(services, 1, 0);
+    List<Service> all = new ArrayList<Service>(_office.getServices());
+    Random random = new Random(Fixtures.SEED);
+    for(int i = 0; i < TRIPS; i++) {
+      Service s = all.get(random.nextInt(all.size()));
+      _trips.add(new String[] { s.getFirstStation().getName(), s.getLastStation().getName(),
+                                s.getFirstStation().getDeparture().minusMinutes(30).toString() });
+    }
+    /* the router is built by the first search, not measured here */
+    search();
+  }
+
+  @Benchmark
+  public Collection<Itinerary> search() throws Exception {
+    String[] trip = _trips.get(_next++ % TRIPS);
+    return _office.search(0, trip[0], trip[1], "2017-12-01", trip[2]);
+  }
+
+}
@@ -1,23 +1,61 @@
 package mmt;
 
 import java.io.Serializable;
-import java.text.DecimalFormat;
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
 
-public abstract class Category implements Serializable {
+/**
+ * Category of a passenger, which sets the discount given on new itineraries.
+ * The category depends on the amount spent on the last ten itineraries and
+ * changes in place, as that amount crosses the limits of each tier.
+ */
+public class Category implements Serializable {
+
+  /** Serial number for serialization, as the abstract category always had. */
+  private static final long serialVersionUID = 981324064234031481L;
+
+  /** The tiers of the category, with the name shown for each one. */
+  public enum Tier {
+    NORMAL("NORMAL"),
+    FREQUENT("FREQUENTE"),
+    SPECIAL("ESPECIAL");
+
+    private final String _label;
+
+    Tier(String label) {
+      _label = label;
+    }
+
+    public String getLabel() {
+      return _label;
+    }
+  }
+
+  private static final double FREQUENT_SPENT = 250;
+  private static final double SPECIAL_SPENT = 2500;
+  private static final double FREQUENT_DISCOUNT = 0.15;
+  private static final double SPECIAL_DISCOUNT = 0.5;
+
+  private Tier _tier;
   private double _totalSpent;
   private long _acumulatedMinutes;
   private double _discount;
   private Passenger _passenger;
 
-  public Category(double spent, long time, double discount, Passenger passenger) {
+  public Category(Passenger passenger) {
+    this(Tier.NORMAL, 0.0, 0, 0, passenger);
+  }
+
+  public Category(Tier tier, double spent, long time, double discount, Passenger passenger) {
+    _tier = tier;
     _totalSpent = spent;
     _acumulatedMinutes = time;
     _discount = discount;
     _passenger = passenger;
   }
 
+  public Tier getTier() {
+    return _tier;
+  }
+
   public double getSpent() {
     return _totalSpent;
   }
@@ -46,6 +84,61 @@ public abstract class Category implements Serializable {
     _acumulatedMinutes += minutes;
   }
 
-  public abstract void updateCategory(double spent);
+  /* the category read back from a class of older versions, of the given tier */
+  Category resolve(Tier tier) {
+    return new Category(tier, _totalSpent, _acumulatedMinutes, _discount, _passenger);
+  }
+
+  /* restores a category read back from a snapshot */
+  void restore(Tier tier, double spent, long time, double discount) {
+    _tier = tier;
+    _totalSpent = spent;
+    _acumulatedMinutes = time;
+    _discount = discount;
+  }
+
+  /**
+   * Atualiza o valor gasto nos ultimos itinerarios e, caso este passe um dos
+   * limites, o escalao e o desconto da categoria.
+   *
+   * @param spent
+   *        valor gasto nos ultimos dez itinerarios.
+   */
+  public void updateCategory(double spent) {
+    _totalSpent = spent;
+    switch(_tier) {
+      case NORMAL:
+        if(spent > SPECIAL_SPENT)
+          change(Tier.SPECIAL, SPECIAL_DISCOUNT);
+        else if(spent > FREQUENT_SPENT)
+          change(Tier.FREQUENT, FREQUENT_DISCOUNT);
+        break;
+      case FREQUENT:
+        if(spent <= FREQUENT_SPENT)
+          change(Tier.NORMAL, 0);
+        else if(spent > SPECIAL_SPENT)
+          change(Tier.SPECIAL, SPECIAL_DISCOUNT);
+        break;
+      case SPECIAL:
+        /* a special passenger who stops spending keeps the name, but not the discount */
+        if(spent <= FREQUENT_SPENT)
+          change(Tier.SPECIAL, 0);
+        else if(spent <= SPECIAL_SPENT)
+          change(Tier.FREQUENT, FREQUENT_DISCOUNT);
+        break;
+    }
+  }
+
+  private void change(Tier tier, double discount) {
+    _tier = tier;
+    _discount = discount;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writeCategory(this);
+    return text.toString();
+  }
 
 }
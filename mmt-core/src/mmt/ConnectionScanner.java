@@ -0,0 +1,285 @@
+package mmt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Journey planner based on the Connection Scan Algorithm. Every pair of
+ * consecutive stations of every service is flattened into a connection and the
+ * connections are kept sorted by departure time, so that an earliest arrival
+ * query is answered with a single linear scan and no recursion; the same scan
+ * gives the earliest arrival at every station, and scans of the departures of
+ * a time range, latest first, give the profile of a station. Changing trains
+ * takes at least the minimum transfer time of the station. Times are the
+ * minutes of each service from the start of the day it leaves on, so journeys
+ * may go on past midnight on the services they use, but never wait for a
+ * service of the next day.
+ */
+public class ConnectionScanner {
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+  /* the largest minute that fits the 16 bits of the sort keys, some 45 days */
+  private static final int LAST_MINUTE = 0xFFFF;
+
+  private ServiceColumns _services;
+  private int _tripCount;
+  private int _stationCount;
+
+  /* connections, sorted by departure time */
+  private int _size;
+  private int[] _departureStations;
+  private int[] _arrivalStations;
+  private int[] _departureTimes;
+  private int[] _arrivalTimes;
+  private int[] _trips;
+  private int[] _positions;
+
+  /* for each station, the connections departing from it in time order */
+  private int[][] _stationDepartures;
+
+  /* minimum minutes to change trains at each station */
+  private int[] _transferMinutes;
+
+  public ConnectionScanner(Collection<Service> services, StationDictionary stationDictionary) {
+    this(services, stationDictionary, TransferTimes.NONE);
+  }
+
+  public ConnectionScanner(Collection<Service> services, StationDictionary stationDictionary,
+                           TransferTimes transferTimes) {
+    this(ServiceColumns.of(new ArrayList<Service>(services)), stationDictionary.size(), transferTimes);
+  }
+
+  ConnectionScanner(ServiceColumns services, int stationCount, TransferTimes transferTimes) {
+    _services = services;
+    _stationCount = stationCount;
+    _transferMinutes = transferTimes.toArray(_stationCount);
+
+    int tripCount = services.getNumberOfServices();
+    _tripCount = tripCount;
+    int[][] stops = new int[tripCount][];
+    int[][] times = new int[tripCount][];
+    for(int trip = 0; trip < tripCount; trip++) {
+      stops[trip] = services.getStationIds(trip);
+      times[trip] = services.getMinutes(trip);
+      _size += Math.max(stops[trip].length - 1, 0);
+    }
+
+    /* sort keys: departure (16 bits), arrival (16 bits), build order (31 bits) */
+    long[] keys = new long[_size];
+    int[] departureStations = new int[_size];
+    int[] arrivalStations = new int[_size];
+    int[] trips = new int[_size];
+    int[] positions = new int[_size];
+    int c = 0;
+    for(int trip = 0; trip < tripCount; trip++) {
+      int[] minutes = times[trip];
+      if(minutes.length > 0 && minutes[minutes.length - 1] > LAST_MINUTE)
+        throw new IllegalArgumentException("service " + services.getService(trip).getId() + " runs past minute " +
+                                           LAST_MINUTE);
+      for(int position = 1; position < minutes.length; position++) {
+        keys[c] = ((long)minutes[position - 1] << 47) | ((long)minutes[position] << 31) | c;
+        departureStations[c] = stops[trip][position - 1];
+        arrivalStations[c] = stops[trip][position];
+        trips[c] = trip;
+        positions[c] = position - 1;
+        c++;
+      }
+    }
+    Arrays.sort(keys);
+
+    _departureStations = new int[_size];
+    _arrivalStations = new int[_size];
+    _departureTimes = new int[_size];
+    _arrivalTimes = new int[_size];
+    _trips = new int[_size];
+    _positions = new int[_size];
+    int[] departuresPerStation = new int[_stationCount];
+    for(int i = 0; i < _size; i++) {
+      int original = (int)(keys[i] & 0x7FFFFFFFL);
+      _departureTimes[i] = (int)(keys[i] >>> 47);
+      _arrivalTimes[i] = (int)((keys[i] >>> 31) & 0xFFFFL);
+      _departureStations[i] = departureStations[original];
+      _arrivalStations[i] = arrivalStations[original];
+      _trips[i] = trips[original];
+      _positions[i] = positions[original];
+      departuresPerStation[_departureStations[i]]++;
+    }
+
+    _stationDepartures = new int[_stationCount][];
+    for(int st = 0; st < _stationDepartures.length; st++)
+      _stationDepartures[st] = new int[departuresPerStation[st]];
+    Arrays.fill(departuresPerStation, 0);
+    for(int i = 0; i < _size; i++) {
+      int st = _departureStations[i];
+      _stationDepartures[st][departuresPerStation[st]++] = i;
+    }
+  }
+
+  public int getNumberOfConnections() {
+    return _size;
+  }
+
+  /* first connection departing at or after the given minute */
+  private int firstConnection(int time) {
+    int low = 0;
+    int high = _size;
+    while(low < high) {
+      int middle = (low + high) >>> 1;
+      if(_departureTimes[middle] < time)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Procura a viagem que chega mais cedo ao destino, partindo da origem a
+   * partir da hora dada.
+   *
+   * @return a lista de troncos da viagem, vazia caso o destino nao seja
+   *         alcancavel.
+   */
+  List<Leg> earliestArrival(int origin, int destination, int time) {
+    if(origin >= _stationCount || destination >= _stationCount)
+      return Collections.emptyList();
+    Scan scan = new Scan(origin);
+    scan._arrival[origin] = time;
+    scan.run(time, INFINITY, destination);
+    return scan.legs(destination);
+  }
+
+  /**
+   * Procura, numa so passagem pelas ligacoes, a viagem que chega mais cedo a
+   * cada estacao, partindo da origem a partir da hora dada.
+   *
+   * @return a viagem para cada estacao, pelo id da estacao, vazia para a
+   *         origem e para as estacoes que nao sao alcancaveis.
+   */
+  List<List<Leg>> earliestArrivals(int origin, int time) {
+    List<List<Leg>> journeys = new ArrayList<List<Leg>>(_stationCount);
+    if(origin >= _stationCount)
+      return journeys;
+    Scan scan = new Scan(origin);
+    scan._arrival[origin] = time;
+    scan.run(time, INFINITY, -1);
+    for(int st = 0; st < _stationCount; st++)
+      journeys.add(scan.legs(st));
+    return journeys;
+  }
+
+  /**
+   * Procura, para cada estacao, todas as viagens Pareto-otimas quanto a hora
+   * de partida da origem e hora de chegada, partindo entre os dois minutos
+   * dados. As partidas da origem sao percorridas da ultima para a primeira e
+   * cada uma aproveita as chegadas das seguintes, pelo que uma viagem so e
+   * guardada quando chega mais cedo do que todas as que partem depois dela.
+   *
+   * @param origin
+   *        id da estacao de partida.
+   * @param from
+   *        primeiro minuto de partida.
+   * @param until
+   *        ultimo minuto de partida, que pode passar do fim do dia.
+   * @return as viagens para cada estacao, pelo id da estacao, por ordem de
+   *         partida.
+   */
+  List<List<List<Leg>>> profile(int origin, int from, int until) {
+    List<List<List<Leg>>> profiles = new ArrayList<List<List<Leg>>>(_stationCount);
+    for(int st = 0; st < _stationCount; st++)
+      profiles.add(new ArrayList<List<Leg>>());
+    if(origin >= _stationCount)
+      return profiles;
+    Scan scan = new Scan(origin);
+    int[] departures = _stationDepartures[origin];
+    for(int j = departures.length - 1; j >= 0; j--) {
+      int time = _departureTimes[departures[j]];
+      if(time > until || time < from || j + 1 < departures.length && _departureTimes[departures[j + 1]] == time)
+        continue;
+      scan._arrival[origin] = time;
+      scan.run(time, time, -1);
+      for(int st: scan._improved)
+        profiles.get(st).add(scan.legs(st));
+    }
+    for(List<List<Leg>> journeys: profiles)
+      Collections.reverse(journeys);
+    return profiles;
+  }
+
+  /* the labels of scans from one origin: the earliest arrival found at each
+     station and the leg reaching it; a scan starts from the labels of the one
+     before it, which must have left the origin no earlier */
+  private class Scan {
+    private final int _origin;
+    private final int[] _arrival = new int[_stationCount];
+    private final int[] _legEnter = new int[_stationCount];
+    private final int[] _legExit = new int[_stationCount];
+    private final int[] _legCount = new int[_stationCount];
+    private final int[] _tripEnter = new int[_tripCount];
+    private final int[] _tripLegs = new int[_tripCount];
+    /* stations whose arrival improved in the last scan */
+    private final List<Integer> _improved = new ArrayList<Integer>();
+    private final int[] _improvedIn = new int[_stationCount];
+    private int _runs;
+
+    Scan(int origin) {
+      _origin = origin;
+      Arrays.fill(_arrival, INFINITY);
+    }
+
+    /* scans the connections from the given time on; new journeys leave the
+       origin no later than lastDeparture; the scan ends once the destination,
+       unless it is negative, can no longer be reached earlier */
+    void run(int time, int lastDeparture, int destination) {
+      Arrays.fill(_tripEnter, -1);
+      _improved.clear();
+      _runs++;
+      for(int i = firstConnection(time); i < _size; i++) {
+        int departure = _departureTimes[i];
+        if(destination >= 0 && departure >= _arrival[destination])
+          break;
+        int trip = _trips[i];
+        int from = _departureStations[i];
+        int transfer = from == _origin ? 0 : _transferMinutes[from];
+        if(_arrival[from] <= departure - transfer &&
+                (from != _origin || departure <= lastDeparture) &&
+                (_tripEnter[trip] < 0 || _legCount[from] + 1 <= _tripLegs[trip])) {
+          /* boarding as late as possible shortens the ride without adding transfers */
+          _tripEnter[trip] = i;
+          _tripLegs[trip] = _legCount[from] + 1;
+        }
+        if(_tripEnter[trip] >= 0) {
+          int to = _arrivalStations[i];
+          if(to != _origin && _arrivalTimes[i] < _arrival[to]) {
+            if(_improvedIn[to] != _runs) {
+              _improvedIn[to] = _runs;
+              _improved.add(to);
+            }
+            _arrival[to] = _arrivalTimes[i];
+            _legEnter[to] = _tripEnter[trip];
+            _legExit[to] = i;
+            _legCount[to] = _tripLegs[trip];
+          }
+        }
+      }
+    }
+
+    /* the legs of the journey to the station, empty if it was not reached */
+    List<Leg> legs(int station) {
+      if(station == _origin || _arrival[station] == INFINITY)
+        return Collections.emptyList();
+      List<Leg> legs = new ArrayList<Leg>();
+      for(int st = station; st != _origin; st = _departureStations[_legEnter[st]]) {
+        int enter = _legEnter[st];
+        int exit = _legExit[st];
+        legs.add(new Leg(_services.getService(_trips[enter]), _positions[enter], _positions[exit] + 1));
+      }
+      Collections.reverse(legs);
+      return legs;
+    }
+  }
+
+}
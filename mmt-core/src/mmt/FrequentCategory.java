@@ -1,39 +1,24 @@
 package mmt;
 
-import java.io.Serializable;
-import java.time.Duration;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+/**
+ * The frequent category as older versions serialized it, when each tier had a
+ * class of its own. It is only ever read back, and is then replaced by a
+ * Category of the frequent tier.
+ *
+ * @deprecated a category is a Category with a Tier.
+ */
+@Deprecated
+public class FrequentCategory extends Category {
 
-public class FrequentCategory extends Category implements Serializable {
+  /** Serial number for serialization, as the class always had. */
+  private static final long serialVersionUID = -7754567432388628486L;
 
-  public FrequentCategory(double spent, long time, double discount, Passenger passenger) {
-    super(spent, time, discount, passenger);
-  }
-  /*FIXME este metodo vai atualizar os atributos e verificar se o passageiro
-  muda de categoria*/
-  @SuppressWarnings("nls")
-  @Override
-  public void updateCategory(double spent) {
-    setTotalSpent(spent);
-    if(getSpent() <= 250)
-      getPassenger().updateCategory(new NormalCategory(getSpent(), getTime(), 0, getPassenger()));
-    else if(getSpent() > 2500)
-      getPassenger().updateCategory(new SpecialCategory(getSpent(), getTime(), 0.5, getPassenger()));
+  private FrequentCategory() {
+    super(null);
   }
 
-  @SuppressWarnings("nls")
-  @Override
-  public String toString() {
-    DecimalFormatSymbols s = new DecimalFormatSymbols();
-    s.setDecimalSeparator('.');
-    DecimalFormat df = new DecimalFormat("0.00", s);
-    DecimalFormat dfi = new DecimalFormat("00");
-    int hours = (int)Math.floor(getTime()/60);
-    int totalMinutes = (int)getTime();
-    long minutes = totalMinutes - hours*60;
-    return "FREQUENTE|" + getPassenger().getTotalIt() + "|" + df.format(getSpent()) + "|" + dfi.format(hours) + ":" + dfi.format(minutes);
+  private Object readResolve() {
+    return resolve(Tier.FREQUENT);
   }
 
-
 }
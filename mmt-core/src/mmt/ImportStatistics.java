@@ -0,0 +1,52 @@
+package mmt;
+
+import java.io.Serializable;
+
+/**
+ * Figures about one import of a text file: how many lines and bytes were read,
+ * how many of them were records, and how long it took.
+ */
+public class ImportStatistics implements Serializable {
+
+  /** Serial number for serialization. */
+  private static final long serialVersionUID = 201711221815L;
+
+  private long _lines;
+  private long _records;
+  private long _bytes;
+  private long _nanoseconds;
+
+  public ImportStatistics(long lines, long records, long bytes, long nanoseconds) {
+    _lines = lines;
+    _records = records;
+    _bytes = bytes;
+    _nanoseconds = nanoseconds;
+  }
+
+  public long getLines() {
+    return _lines;
+  }
+
+  public long getRecords() {
+    return _records;
+  }
+
+  public long getBytes() {
+    return _bytes;
+  }
+
+  public long getMilliseconds() {
+    return _nanoseconds / 1000000;
+  }
+
+  public double getLinesPerSecond() {
+    return _nanoseconds == 0 ? 0 : _lines * 1e9 / _nanoseconds;
+  }
+
+  @SuppressWarnings("nls")
+  @Override
+  public String toString() {
+    return _lines + " linhas em " + getMilliseconds() + " ms (" + Math.round(getLinesPerSecond()) + " linhas/s)";
+  }
+
+}
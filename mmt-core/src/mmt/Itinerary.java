@@ -5,34 +5,66 @@ import java.util.ArrayList;
 import java.util.TreeMap;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.time.temporal.ChronoUnit;
 
 public class Itinerary implements Serializable {
+
+  /** Serial number for serialization, as the class always had. */
+  private static final long serialVersionUID = -467277883535754465L;
+
+  /* minutes of an itinerary without stations, as they have always been counted */
+  private static final long NO_MINUTES = LocalTime.MAX.until(LocalTime.MIN, ChronoUnit.MINUTES);
+
   private int _id;
   private double _price = 0;
   private double _discountWhenBought;
   private LocalDate _date;
-  private TreeMap<Integer, Segment> _segments = new TreeMap<Integer, Segment>();
+  /* by service id, then departure, so that a service left and boarded again
+     keeps both of its segments */
+  private TreeMap<Long, Segment> _segments = new TreeMap<Long, Segment>();
   private Passenger _passenger;
 
+  /* kept up to date as segments are added, for sorting and category minutes */
+  private LocalTime _departure = LocalTime.MAX;
+  private LocalTime _arrival = LocalTime.MIN;
+  private int _departureMinute = Integer.MAX_VALUE;
+  private int _arrivalMinute = Integer.MIN_VALUE;
+  private long _minutes = NO_MINUTES;
+  private int _departureServiceId;
+
   public Itinerary(LocalDate date, Passenger p) {
     _date = date;
     _passenger = p;
     _discountWhenBought = p.getCategory().getDiscount();
   }
 
+  /* an itinerary bought earlier, whose price and discount are already known */
+  Itinerary(LocalDate date, Passenger p, double price, double discountWhenBought) {
+    _date = date;
+    _passenger = p;
+    _price = price;
+    _discountWhenBought = discountWhenBought;
+  }
+
   public LocalDate getDate() {
     return _date;
   }
 
+  public int getId() {
+    return _id;
+  }
+
   public void setId(int id) {
     _id = id;
   }
 
+  double getDiscountWhenBought() {
+    return _discountWhenBought;
+  }
+
   /*returns the real cost of the itinerary considering the discount*/
   public double getRealPrice() {
     return _price - _discountWhenBought * _price;
@@ -42,68 +74,133 @@ public class Itinerary implements Serializable {
     return _price;
   }
 
+  /* the key of a segment: its service id, then its departure minute */
+  private static long key(Segment segment) {
+    return ((long) segment.getServiceId() << 32) + segment.getDepartureMinute() + (1L << 31);
+  }
+
+  /* the id of the last service, in id order, as the segments are kept */
   public int getDepartureServiceId() {
-    int s = 0;
-    for(Segment seg: getSegments()) {
-      s = seg.getServiceId();
-    }
-    return s;
+    return _departureServiceId;
   }
 
   public int getNumberOfServices() {
-    int s = 0;
-    for(Segment seg: getSegments())
-      s++;
-    return s;
+    return _segments.size();
   }
 
   public LocalTime getItineraryDeparture() {
-    LocalTime departure = LocalTime.MAX;
-    for(Segment s: getSegments())
-      for(Station st: s.getStations())
-        if(st.getDeparture().isBefore(departure))
-          departure = st.getDeparture();
-    return departure;
+    return _departure;
   }
 
   public LocalTime getItineraryArrival() {
-    LocalTime departure = LocalTime.MIN;
-    for(Segment s: getSegments())
-      for(Station st: s.getStations())
-        if(st.getDeparture().isAfter(departure))
-          departure = st.getDeparture();
-    return departure;
+    return _arrival;
+  }
+
+  /**
+   * @return os minutos da partida desde o inicio da data do itinerario,
+   *         negativos caso a viagem comece num servico da vespera.
+   */
+  public int getDepartureMinute() {
+    return _departureMinute;
+  }
+
+  /**
+   * @return os minutos da chegada desde o inicio da data do itinerario, que
+   *         passam de um dia caso a viagem acabe nos dias seguintes.
+   */
+  public int getArrivalMinute() {
+    return _arrivalMinute;
+  }
+
+  /**
+   * Metodo utilizado para saber em que dia, a partir da data do itinerario,
+   * se apanha o servico do segmento dado depois de chegar ao fim do
+   * itinerario.
+   *
+   * @return o primeiro dia, nao antes da data do itinerario, em que o
+   *         segmento parte depois da chegada.
+   */
+  int connectingDay(Segment segment) {
+    if(_segments.isEmpty())
+      return 0;
+    int departure = segment.getDepartureMinute() - segment.getDay() * Service.MINUTES_PER_DAY;
+    return Math.max(0, -Math.floorDiv(departure - _arrivalMinute, Service.MINUTES_PER_DAY));
   }
 
   public Collection<Segment> getSegments() {
     return Collections.unmodifiableCollection(_segments.values());
   }
 
+  /* the first segment of the service, if the itinerary has more than one */
   public Segment getSegment(int serviceId) {
-    return _segments.get(serviceId);
+    Map.Entry<Long, Segment> entry = _segments.ceilingEntry((long) serviceId << 32);
+    return entry == null || entry.getValue().getServiceId() != serviceId ? null : entry.getValue();
   }
 
   /* adds a new segment and calcs it's price*/
   public void addSegment(Segment segment) {
-    _segments.put(segment.getServiceId(), segment);
+    putSegment(segment);
     _price += segment.getPrice();
   }
 
+  /* adds a segment whose price is already accounted for in the itinerary */
+  void putSegment(Segment segment) {
+    if(_segments.put(key(segment), segment) == null)
+      include(segment);
+    else {
+      /* the same segment was given twice, and the times of the first may no longer count */
+      _departure = LocalTime.MAX;
+      _arrival = LocalTime.MIN;
+      _departureMinute = Integer.MAX_VALUE;
+      _arrivalMinute = Integer.MIN_VALUE;
+      for(Segment s: _segments.values())
+        include(s);
+    }
+    _departureServiceId = _segments.lastEntry().getValue().getServiceId();
+    _minutes = _departureMinute > _arrivalMinute ? NO_MINUTES : _arrivalMinute - _departureMinute;
+  }
+
+  /* the times of a service only grow along it, so its ends are enough */
+  private void include(Segment segment) {
+    if(segment.getLastIndex() < segment.getFirstIndex())
+      return;
+    if(segment.getDepartureMinute() < _departureMinute) {
+      _departureMinute = segment.getDepartureMinute();
+      _departure = segment.getService().getDeparture(segment.getFirstIndex());
+    }
+    if(segment.getArrivalMinute() > _arrivalMinute) {
+      _arrivalMinute = segment.getArrivalMinute();
+      _arrival = segment.getService().getDeparture(segment.getLastIndex());
+    }
+  }
+
+  /**
+   * Metodo utilizado para acabar de ler um itinerario, cujos segmentos sao
+   * indexados de novo e cujas horas sao calculadas a partir deles, como as
+   * versoes anteriores nao as guardavam.
+   */
+  void restore() {
+    Collection<Segment> segments = new ArrayList<Segment>(_segments.values());
+    _segments = new TreeMap<Long, Segment>();
+    _departure = LocalTime.MAX;
+    _arrival = LocalTime.MIN;
+    _departureMinute = Integer.MAX_VALUE;
+    _arrivalMinute = Integer.MIN_VALUE;
+    _minutes = NO_MINUTES;
+    for(Segment s: segments)
+      putSegment(s);
+  }
+
   public long getItineraryMinutes() {
-    return getItineraryDeparture().until(getItineraryArrival(), ChronoUnit.MINUTES);
+    return _minutes;
   }
 
   @SuppressWarnings("nls")
   @Override
   public String toString() {
-    DecimalFormatSymbols s = new DecimalFormatSymbols();
-    s.setDecimalSeparator('.');
-    DecimalFormat df = new DecimalFormat("0.00", s);
-    String a = "";
-    for(Segment seg: getSegments()) {
-      a = a + seg.toString();
-    }
-    return "\nItinerário " + _id + " para " + _date + " @ " + df.format(_price) + "\n" + a;
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writeItinerary(this);
+    return text.toString();
   }
 
 }
@@ -0,0 +1,265 @@
+package mmt;
+
+import mmt.exceptions.NoSuchPassengerIdException;
+import mmt.exceptions.NoSuchServiceIdException;
+import mmt.exceptions.NonUniquePassengerNameException;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes made to a company after its last full
+ * snapshot. It lives next to the snapshot, in a file with the same name and
+ * the ".journal" suffix, and starts with the generation of the snapshot it
+ * extends, so that a journal left behind by an older snapshot is never
+ * replayed. Each record carries its length and a checksum; a record cut short
+ * by a crash ends the journal.
+ */
+class Journal {
+
+  /** "MMTJ" */
+  static final int MAGIC = 0x4D4D544A;
+  static final int VERSION = 1;
+
+  static final byte REGISTER_PASSENGER = 1;
+  static final byte CHANGE_PASSENGER_NAME = 2;
+  static final byte COMMIT_ITINERARY = 3;
+
+  private static final int HEADER_SIZE = 16;
+
+  private FileChannel _channel;
+  private long _size;
+
+  private Journal(FileChannel channel, long size) {
+    _channel = channel;
+    _size = size;
+  }
+
+  static Path path(String snapshotFilename) {
+    return Paths.get(snapshotFilename + ".journal").toAbsolutePath();
+  }
+
+  /**
+   * Cria um journal vazio para o instantaneo dado, substituindo o que
+   * existisse.
+   *
+   * @param snapshotFilename
+   *        ficheiro do instantaneo.
+   * @param generation
+   *        geracao do instantaneo.
+   * @return o journal, pronto a receber registos.
+   * @throws IOException
+   */
+  static Journal create(String snapshotFilename, long generation) throws IOException {
+    Path target = path(snapshotFilename);
+    Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+      try {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        while(header.hasRemaining())
+          channel.write(header);
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return new Journal(FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND), HEADER_SIZE);
+  }
+
+  /**
+   * Aplica a companhia os registos do journal do instantaneo dado, caso exista
+   * e seja da mesma geracao. Um registo incompleto no fim do ficheiro e
+   * descartado.
+   *
+   * @param snapshotFilename
+   *        ficheiro do instantaneo.
+   * @param generation
+   *        geracao do instantaneo lido.
+   * @param company
+   *        companhia lida do instantaneo.
+   * @return o journal, pronto a receber mais registos, ou null caso nao
+   *         exista um journal para esta geracao.
+   * @throws IOException
+   *         caso um registo nao possa ser aplicado.
+   */
+  static Journal replay(String snapshotFilename, long generation, TrainCompany company) throws IOException {
+    Path path = path(snapshotFilename);
+    if(!Files.exists(path))
+      return null;
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      ByteBuffer data = ByteBuffer.allocate((int)channel.size());
+      while(data.hasRemaining() && channel.read(data) >= 0);
+      data.flip();
+      if(data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getInt() != VERSION ||
+         data.getLong() != generation) {
+        channel.close();
+        return null;
+      }
+      CRC32 crc = new CRC32();
+      while(data.remaining() >= 4) {
+        int start = data.position();
+        int length = data.getInt();
+        if(length < 1 || data.remaining() < length + 8) {
+          data.position(start);
+          break;
+        }
+        crc.reset();
+        crc.update(data.array(), data.position(), length);
+        ByteBuffer record = ByteBuffer.wrap(data.array(), data.position(), length).slice();
+        data.position(data.position() + length);
+        if(data.getLong() != crc.getValue()) {
+          data.position(start);
+          break;
+        }
+        apply(record, company);
+      }
+      /* drop whatever follows the last whole record */
+      long end = data.position();
+      channel.truncate(end);
+      channel.position(end);
+      return new Journal(channel, end);
+    } catch(IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static void apply(ByteBuffer record, TrainCompany company) throws IOException {
+    byte type = record.get();
+    try {
+      switch(type) {
+        case REGISTER_PASSENGER:
+          company.registerPassenger(getString(record));
+          break;
+        case CHANGE_PASSENGER_NAME:
+          company.changePassengerName(record.getInt(), getString(record));
+          break;
+        case COMMIT_ITINERARY:
+          int passengerId = record.getInt();
+          LocalDate date = LocalDate.ofEpochDay(record.getLong());
+          double price = record.getDouble();
+          double discount = record.getDouble();
+          int segments = record.getInt();
+          int[] serviceIds = new int[segments];
+          int[] firstIndexes = new int[segments];
+          int[] lastIndexes = new int[segments];
+          double[] prices = new double[segments];
+          int[] days = new int[segments];
+          for(int i = 0; i < segments; i++) {
+            serviceIds[i] = record.getInt();
+            firstIndexes[i] = record.getInt();
+            lastIndexes[i] = record.getInt();
+            prices[i] = record.getDouble();
+            days[i] = record.getInt();
+          }
+          company.replayItinerary(passengerId, date, price, discount, serviceIds, firstIndexes, lastIndexes, prices,
+                                  days);
+          break;
+        default:
+          throw new StreamCorruptedException("unknown journal record " + type);
+      }
+    } catch(NonUniquePassengerNameException | NoSuchPassengerIdException | NoSuchServiceIdException e) {
+      throw new StreamCorruptedException("journal does not match snapshot: " + e);
+    }
+  }
+
+  /**
+   * Acrescenta os registos dados ao journal e espera que cheguem ao disco.
+   *
+   * @param records
+   *        registos, tal como produzidos pelos metodos record.
+   * @throws IOException
+   */
+  void append(List<byte[]> records) throws IOException {
+    if(records.isEmpty())
+      return;
+    int length = 0;
+    for(byte[] record: records)
+      length += record.length;
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for(byte[] record: records)
+      buffer.put(record);
+    buffer.flip();
+    while(buffer.hasRemaining())
+      _channel.write(buffer);
+    _channel.force(false);
+    _size += length;
+  }
+
+  long size() {
+    return _size;
+  }
+
+  void close() throws IOException {
+    _channel.close();
+  }
+
+  static byte[] recordRegisterPassenger(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = startRecord(REGISTER_PASSENGER, 4 + bytes.length);
+    record.putInt(bytes.length).put(bytes);
+    return endRecord(record);
+  }
+
+  static byte[] recordChangePassengerName(int passengerId, String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = startRecord(CHANGE_PASSENGER_NAME, 8 + bytes.length);
+    record.putInt(passengerId).putInt(bytes.length).put(bytes);
+    return endRecord(record);
+  }
+
+  static byte[] recordCommitItinerary(int passengerId, Itinerary itinerary) {
+    ByteBuffer record = startRecord(COMMIT_ITINERARY, 32 + 24 * itinerary.getSegments().size());
+    record.putInt(passengerId);
+    record.putLong(itinerary.getDate().toEpochDay());
+    record.putDouble(itinerary.getPrice());
+    record.putDouble(itinerary.getDiscountWhenBought());
+    record.putInt(itinerary.getSegments().size());
+    for(Segment seg: itinerary.getSegments()) {
+      record.putInt(seg.getServiceId());
+      record.putInt(seg.getFirstIndex());
+      record.putInt(seg.getLastIndex());
+      record.putDouble(seg.getPrice());
+      record.putInt(seg.getDay());
+    }
+    return endRecord(record);
+  }
+
+  /* length, type and payload, followed by the checksum of type and payload */
+  private static ByteBuffer startRecord(byte type, int payload) {
+    ByteBuffer record = ByteBuffer.allocate(4 + 1 + payload + 8);
+    record.putInt(1 + payload).put(type);
+    return record;
+  }
+
+  private static byte[] endRecord(ByteBuffer record) {
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 4, record.position() - 4);
+    record.putLong(crc.getValue());
+    return record.array();
+  }
+
+  private static String getString(ByteBuffer record) {
+    byte[] bytes = new byte[record.getInt()];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
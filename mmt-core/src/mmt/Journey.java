@@ -0,0 +1,71 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A journey found by a one-to-all or profile query: the segments travelled from
+ * the station asked about, at their full price. It has no passenger nor date,
+ * since every service runs every day; its departure and arrival are minutes
+ * from the start of the day of the query, past Service.MINUTES_PER_DAY when the
+ * journey ends after midnight.
+ */
+public final class Journey {
+
+  private final List<Segment> _segments;
+
+  /* the list is kept, not copied */
+  Journey(List<Segment> segments) {
+    _segments = Collections.unmodifiableList(segments);
+  }
+
+  public List<Segment> getSegments() {
+    return _segments;
+  }
+
+  /**
+   * @return os servicos da viagem, pela ordem em que sao usados.
+   */
+  public List<Service> getServices() {
+    List<Service> services = new ArrayList<Service>(_segments.size());
+    for(Segment segment: _segments)
+      services.add(segment.getService());
+    return services;
+  }
+
+  public int getDepartureMinute() {
+    return _segments.get(0).getDepartureMinute();
+  }
+
+  public int getArrivalMinute() {
+    return _segments.get(_segments.size() - 1).getArrivalMinute();
+  }
+
+  public LocalTime getDeparture() {
+    Segment first = _segments.get(0);
+    return first.getService().getDeparture(first.getFirstIndex());
+  }
+
+  public LocalTime getArrival() {
+    Segment last = _segments.get(_segments.size() - 1);
+    return last.getService().getDeparture(last.getLastIndex());
+  }
+
+  public double getPrice() {
+    double price = 0;
+    for(Segment segment: _segments)
+      price += segment.getPrice();
+    return price;
+  }
+
+  @SuppressWarnings("nls")
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writeJourney(this);
+    return text.toString();
+  }
+
+}
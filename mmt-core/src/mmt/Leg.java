@@ -0,0 +1,41 @@
+package mmt;
+
+/**
+ * A part of a journey travelled on a single service, between two positions of
+ * its list of stations, on the day the service leaves counted from the date of
+ * the journey.
+ */
+class Leg {
+  private Service _service;
+  private int _departureIndex;
+  private int _arrivalIndex;
+  private int _day;
+
+  Leg(Service service, int departureIndex, int arrivalIndex) {
+    this(service, departureIndex, arrivalIndex, 0);
+  }
+
+  Leg(Service service, int departureIndex, int arrivalIndex, int day) {
+    _service = service;
+    _departureIndex = departureIndex;
+    _arrivalIndex = arrivalIndex;
+    _day = day;
+  }
+
+  Service getService() {
+    return _service;
+  }
+
+  int getDepartureIndex() {
+    return _departureIndex;
+  }
+
+  int getArrivalIndex() {
+    return _arrivalIndex;
+  }
+
+  int getDay() {
+    return _day;
+  }
+
+}
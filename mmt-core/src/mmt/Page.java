@@ -0,0 +1,77 @@
+package mmt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a listing ordered by id. The cursor of a page is the id of its
+ * last element; asking for the elements after it gives the next page, even if
+ * elements were added or removed in the meantime. The first page is the one
+ * after START.
+ */
+public final class Page<T> {
+
+  /** Cursor before every id, for the first page. */
+  public static final int START = Integer.MIN_VALUE;
+
+  private final List<T> _items;
+  private final boolean _hasNext;
+  private final int _cursor;
+
+  private Page(List<T> items, boolean hasNext, int cursor) {
+    _items = Collections.unmodifiableList(items);
+    _hasNext = hasNext;
+    _cursor = cursor;
+  }
+
+  public List<T> getItems() {
+    return _items;
+  }
+
+  /**
+   * @return se ha mais elementos depois desta pagina.
+   */
+  public boolean hasNext() {
+    return _hasNext;
+  }
+
+  /**
+   * @return o id do ultimo elemento da pagina, para pedir a pagina seguinte,
+   *         ou o cursor com que a pagina foi pedida caso esteja vazia.
+   */
+  public int getCursor() {
+    return _cursor;
+  }
+
+  /* collects a page, looking one element further to know whether there are more */
+  static final class Builder<T> {
+    private final int _size;
+    private final List<T> _items = new ArrayList<T>();
+    private boolean _hasNext;
+    private int _cursor;
+
+    Builder(int after, int size) {
+      if(size <= 0)
+        throw new IllegalArgumentException("page size " + size);
+      _size = size;
+      _cursor = after;
+    }
+
+    /* false once the page is full, when no more elements are needed */
+    boolean add(T item, int id) {
+      if(_items.size() == _size) {
+        _hasNext = true;
+        return false;
+      }
+      _items.add(item);
+      _cursor = id;
+      return true;
+    }
+
+    Page<T> build() {
+      return new Page<T>(_items, _hasNext, _cursor);
+    }
+  }
+
+}
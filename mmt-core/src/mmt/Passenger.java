@@ -1,5 +1,7 @@
 package mmt;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -10,15 +12,30 @@ import java.util.Comparator;
 import java.time.Duration;
 
 public class Passenger implements Serializable {
+
+  /** Serial number for serialization, as the class always had. */
+  private static final long serialVersionUID = -8573478360179989740L;
+
   private int _id;
   private String _name;
   private Category _category;
+  /* in the order they were bought, and by date, numbered by their position */
   private ArrayList<Itinerary> _itineraries = new ArrayList<Itinerary>();
+  private ArrayList<Itinerary> _itinerariesByDate = new ArrayList<Itinerary>();
   private Comparator<Itinerary> _itineraryComparator = new DateComparator();
   private Itinerary _lastAdded;
 
+  /* real prices of the last itineraries bought, oldest at _windowStart, and their sum */
+  private static final int CATEGORY_WINDOW = 10;
+  private double[] _window;
+  private int _windowStart;
+  private int _windowSize;
+  private double _windowSum;
+
   private class DateComparator implements Comparator<Itinerary>, Serializable {
 
+    private static final long serialVersionUID = -5481978369114823846L;
+
   		@Override
   		public int compare(Itinerary itinerary1, Itinerary itinerary2) {
   			return itinerary1.getDate().compareTo(itinerary2.getDate());
@@ -29,7 +46,7 @@ public class Passenger implements Serializable {
   public Passenger(int id, String name){
     _id = id;
     _name = name;
-    _category = new NormalCategory(this);
+    _category = new Category(this);
   }
 
   public int getId() {
@@ -41,70 +58,142 @@ public class Passenger implements Serializable {
     _id = id;
   }
 
-  public String getName() {
+  public synchronized String getName() {
     return _name;
   }
 
-  public void setName(String name) {
+  public synchronized void setName(String name) {
     _name = name;
   }
 
-  public Category getCategory() {
+  public synchronized Category getCategory() {
     return _category;
   }
 
-  public int getTotalIt() {
+  public synchronized int getTotalIt() {
     return _itineraries.size();
   }
 
-  public Collection<Itinerary> getItineraries() {
-    ArrayList<Itinerary> itineraries = _itineraries;
-    itineraries.sort(_itineraryComparator);
-    for(Itinerary i: itineraries)
-      i.setId(itineraries.indexOf(i) + 1);
-    //Collections.sort(itineraries, _itineraryComparator);
-    return Collections.unmodifiableCollection(itineraries);
+  /**
+   * @return os itinerarios do passageiro, por ordem de data; itinerarios com
+   *         a mesma data ficam pela ordem em que foram comprados.
+   */
+  public synchronized Collection<Itinerary> getItineraries() {
+    return Collections.unmodifiableList(new ArrayList<Itinerary>(_itinerariesByDate));
+  }
+
+  /**
+   * @param after
+   *        cursor da pagina anterior, ou Page.START.
+   * @param pageSize
+   *        numero maximo de itinerarios da pagina.
+   * @return os itinerarios seguintes, por ordem de data.
+   */
+  public synchronized Page<Itinerary> getItineraries(int after, int pageSize) {
+    Page.Builder<Itinerary> page = new Page.Builder<Itinerary>(after, pageSize);
+    /* itinerary n is at position n - 1 */
+    int start = Math.min(Math.max(after, 0), _itinerariesByDate.size());
+    for(Itinerary i: _itinerariesByDate.subList(start, _itinerariesByDate.size()))
+      if(!page.add(i, i.getId()))
+        break;
+    return page.build();
+  }
+
+  /* itineraries by date, without a copy; only while holding the passenger */
+  List<Itinerary> itinerariesByDate() {
+    return _itinerariesByDate;
+  }
+
+  /* itineraries in the order they were added, without sorting them */
+  synchronized List<Itinerary> getItineraryList() {
+    return Collections.unmodifiableList(new ArrayList<Itinerary>(_itineraries));
   }
 
   /* este método vai ser chamado sempre que o passageiro efetuar mais um
     itinerario */
-  public void addItinerary(Itinerary i) {
+  public synchronized void addItinerary(Itinerary i) {
     _itineraries.add(i);
-    i.setId(_itineraries.size());
+    /* after every itinerary of the same date or earlier */
+    int low = 0;
+    int high = _itinerariesByDate.size();
+    while(low < high) {
+      int middle = (low + high) >>> 1;
+      if(_itineraryComparator.compare(_itinerariesByDate.get(middle), i) <= 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    _itinerariesByDate.add(low, i);
+    for(int n = low; n < _itinerariesByDate.size(); n++)
+      _itinerariesByDate.get(n).setId(n + 1);
   }
 
-  public Itinerary getLastAddedIt() {
+  public synchronized Itinerary getLastAddedIt() {
     return _itineraries.get(_itineraries.size()-1);
   }
 
-  public void checkCategoryChanges() {
-    List<Itinerary> lastTenItineraries = _itineraries.subList(
-      Math.max(_itineraries.size() - 10, 0), _itineraries.size());
-    double spent = 0;
-    for(Itinerary i: lastTenItineraries)
-      spent += i.getRealPrice();
-    _category.updateCategory(spent);
+  /**
+   * Metodo chamado depois de cada itinerario comprado, que atualiza o valor
+   * gasto nos ultimos dez itinerarios e, com ele, a categoria do passageiro.
+   */
+  public synchronized void checkCategoryChanges() {
+    if(_window == null) {
+      /* first purchase seen since the passenger was created or read back */
+      _window = new double[CATEGORY_WINDOW];
+      for(Itinerary i: _itineraries.subList(
+            Math.max(_itineraries.size() - CATEGORY_WINDOW, 0), _itineraries.size()))
+        addToWindow(i.getRealPrice());
+    } else
+      addToWindow(getLastAddedIt().getRealPrice());
+    _category.updateCategory(_windowSum);
+  }
+
+  private void addToWindow(double price) {
+    if(_windowSize < CATEGORY_WINDOW) {
+      _window[(_windowStart + _windowSize++) % CATEGORY_WINDOW] = price;
+      _windowSum += price;
+      return;
+    }
+    _windowSum += price - _window[_windowStart];
+    _window[_windowStart] = price;
+    _windowStart = (_windowStart + 1) % CATEGORY_WINDOW;
+    /* once per turn of the window, add it up again so rounding errors do not pile up */
+    if(_windowStart == 0) {
+      _windowSum = 0;
+      for(double p: _window)
+        _windowSum += p;
+    }
   }
 
-  /*este metodo vai ser usado por uma classe externa (Category) por isso
-  usa-se a visibilidade de package*/
-  void updateCategory(Category category) {
-    _category = category;
+  /* older versions kept neither the itineraries by date nor the window, and
+     those kept are rebuilt anyway, so that they always match the itineraries read */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if(_itineraryComparator == null)
+      _itineraryComparator = new DateComparator();
+    _itinerariesByDate = new ArrayList<Itinerary>(_itineraries);
+    _itinerariesByDate.sort(_itineraryComparator);
+    for(int n = 0; n < _itinerariesByDate.size(); n++)
+      _itinerariesByDate.get(n).setId(n + 1);
+    /* filled again from the itineraries at the next purchase */
+    _window = null;
+    _windowStart = 0;
+    _windowSize = 0;
+    _windowSum = 0;
   }
 
   @SuppressWarnings("nls")
   @Override
-  public String toString() {
-    return _id + "|" + _name + "|" + _category.toString();
+  public synchronized String toString() {
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writePassenger(this);
+    return text.toString();
   }
 
-  public String itinerariesToString() {
-    String a = "";
-    for(int i = 0; i < getItineraries().size() - 1; i++) {
-      a += _itineraries.get(i).toString();
-    }
-    a += _itineraries.get(getItineraries().size()-1).toString();
-    return "== Passageiro " + getId() + ": " + getName() + " ==\n" + a;
+  public synchronized String itinerariesToString() {
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writeItineraries(this);
+    return text.toString();
   }
 
 }
@@ -0,0 +1,57 @@
+package mmt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of one itinerary search: the itineraries offered to a passenger, in
+ * the order they were presented. A quote belongs to the session that asked for
+ * it and to the company that produced it, so that concurrent searches never see
+ * each other's choices; an itinerary is bought by handing the quote back with
+ * the number of the chosen itinerary.
+ */
+public final class Quote {
+
+  private final TrainCompany _company;
+  private final int _passengerId;
+  private final List<Itinerary> _itineraries;
+
+  Quote(TrainCompany company, int passengerId, List<Itinerary> itineraries) {
+    _company = company;
+    _passengerId = passengerId;
+    _itineraries = Collections.unmodifiableList(new ArrayList<Itinerary>(itineraries));
+  }
+
+  TrainCompany getCompany() {
+    return _company;
+  }
+
+  public int getPassengerId() {
+    return _passengerId;
+  }
+
+  /**
+   * @return os itinerarios propostos; o itinerario de numero n e o elemento
+   *         n - 1.
+   */
+  public List<Itinerary> getItineraries() {
+    return _itineraries;
+  }
+
+  public int size() {
+    return _itineraries.size();
+  }
+
+  /**
+   * @param itineraryNumber
+   *        numero de ordem do itinerario, a partir de 1.
+   * @return o itinerario com o numero dado, ou null caso nao exista.
+   */
+  public Itinerary getItinerary(int itineraryNumber) {
+    if(itineraryNumber < 1 || itineraryNumber > _itineraries.size())
+      return null;
+    return _itineraries.get(itineraryNumber - 1);
+  }
+
+}
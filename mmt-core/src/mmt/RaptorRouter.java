@@ -0,0 +1,485 @@
+package mmt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Round based multi-criteria router (McRAPTOR). Every service is treated as a
+ * route with a single trip; round k finds the journeys that use k services. For
+ * each station a Pareto set of labels is kept over departure time from the
+ * origin, arrival time, number of transfers and price, so that no journey that
+ * is worse in every criterion than another one is ever returned. Changing
+ * trains at a station takes at least its minimum transfer time.
+ *
+ * Times are minutes from the start of the day of the search. Every service
+ * runs every day, so a journey may leave on a service that set off the day
+ * before and crosses midnight, and may change to a service of the next day
+ * when there is none left on the same one, as long as the whole journey takes
+ * less than a day. A journey arriving after the day of the search is only
+ * given when no journey leaving as late arrives on that day, whatever their
+ * prices, so that waiting for the next day is not offered just to save money.
+ */
+public class RaptorRouter {
+
+  /** Default maximum number of transfers explored by a search. */
+  public static final int DEFAULT_MAX_TRANSFERS = 4;
+
+  private static final double EPSILON = 1e-9;
+  private static final int DAY = Service.MINUTES_PER_DAY;
+
+  /* bags are kept sorted by arrival, the order journeys are given in */
+  private static final Comparator<Label> BY_ARRIVAL = new Comparator<Label>() {
+    @Override
+    public int compare(Label label1, Label label2) {
+      return Integer.compare(label1._arrival, label2._arrival);
+    }
+  };
+
+  /* journeys are given by arrival, then latest departure and lowest price, whatever order they were found in */
+  private static final Comparator<Label> BY_JOURNEY = new Comparator<Label>() {
+    @Override
+    public int compare(Label label1, Label label2) {
+      int c = Integer.compare(label1._arrival, label2._arrival);
+      if(c == 0)
+        c = Integer.compare(label2._departure, label1._departure);
+      return c != 0 ? c : Double.compare(label1._price, label2._price);
+    }
+  };
+
+  private ServiceColumns _services;
+  private int _stationCount;
+  private int _maxTransfers;
+
+  /* per trip: station ids and minutes of each stop from the start of the day it leaves on, and price */
+  private int[][] _stops;
+  private int[][] _times;
+  private double[] _prices;
+
+  /* per station, by departure time: trips passing through it, the position of
+     the station in each and the minute they leave it */
+  private int[][] _stationTrips;
+  private int[][] _stationPositions;
+  private int[][] _stationTimes;
+
+  /* minimum minutes to change trains at each station */
+  private int[] _transferMinutes;
+
+  /* a journey ending at some station, or the origin itself when there is no parent */
+  private static class Label {
+    private int _departure;
+    private int _arrival;
+    private double _price;
+    private int _round;
+    private Label _parent;
+    private int _trip;
+    private int _boardPosition;
+    private int _alightPosition;
+    private int _day;
+
+    Label(int departure, int arrival, double price, int round, Label parent,
+          int trip, int boardPosition, int alightPosition, int day) {
+      _departure = departure;
+      _arrival = arrival;
+      _price = price;
+      _round = round;
+      _parent = parent;
+      _trip = trip;
+      _boardPosition = boardPosition;
+      _alightPosition = alightPosition;
+      _day = day;
+    }
+
+    /* later departure, earlier arrival and lower price are better */
+    boolean dominates(int departure, int arrival, double price) {
+      return _departure >= departure && _arrival <= arrival && _price <= price + EPSILON;
+    }
+
+    boolean dominates(Label other) {
+      return dominates(other._departure, other._arrival, other._price);
+    }
+  }
+
+  /* a label being carried along the trip leaving on some day, boarded at some position */
+  private static class RouteLabel {
+    private Label _from;
+    private int _departure;
+    private int _boardPosition;
+    private double _normalizedPrice;
+    private int _day;
+
+    RouteLabel(Label from, int departure, int boardPosition, double normalizedPrice, int day) {
+      _from = from;
+      _departure = departure;
+      _boardPosition = boardPosition;
+      _normalizedPrice = normalizedPrice;
+      _day = day;
+    }
+
+    /* the trip of an earlier day arrives earlier everywhere */
+    boolean dominates(RouteLabel other) {
+      return _day <= other._day && _departure >= other._departure &&
+        _normalizedPrice <= other._normalizedPrice + EPSILON;
+    }
+  }
+
+  public RaptorRouter(Collection<Service> services, StationDictionary stationDictionary) {
+    this(services, stationDictionary, DEFAULT_MAX_TRANSFERS);
+  }
+
+  public RaptorRouter(Collection<Service> services, StationDictionary stationDictionary, int maxTransfers) {
+    this(services, stationDictionary, TransferTimes.NONE, maxTransfers);
+  }
+
+  public RaptorRouter(Collection<Service> services, StationDictionary stationDictionary,
+                      TransferTimes transferTimes, int maxTransfers) {
+    this(ServiceColumns.of(new ArrayList<Service>(services)), stationDictionary.size(), transferTimes, maxTransfers);
+  }
+
+  RaptorRouter(ServiceColumns services, int stationCount, TransferTimes transferTimes, int maxTransfers) {
+    _services = services;
+    _stationCount = stationCount;
+    _maxTransfers = maxTransfers;
+    _transferMinutes = transferTimes.toArray(_stationCount);
+    int tripCount = services.getNumberOfServices();
+    _stops = new int[tripCount][];
+    _times = new int[tripCount][];
+    _prices = new double[tripCount];
+
+    for(int trip = 0; trip < tripCount; trip++) {
+      _stops[trip] = services.getStationIds(trip);
+      _times[trip] = services.getMinutes(trip);
+      _prices[trip] = services.getPrice(trip);
+    }
+
+    int[] tripsPerStation = new int[_stationCount];
+    for(int[] stops: _stops)
+      for(int st: stops)
+        tripsPerStation[st]++;
+    _stationTrips = new int[_stationCount][];
+    _stationPositions = new int[_stationCount][];
+    for(int st = 0; st < tripsPerStation.length; st++) {
+      _stationTrips[st] = new int[tripsPerStation[st]];
+      _stationPositions[st] = new int[tripsPerStation[st]];
+    }
+    Arrays.fill(tripsPerStation, 0);
+    for(int trip = 0; trip < _stops.length; trip++)
+      for(int position = 0; position < _stops[trip].length; position++) {
+        int st = _stops[trip][position];
+        _stationTrips[st][tripsPerStation[st]] = trip;
+        _stationPositions[st][tripsPerStation[st]++] = position;
+      }
+
+    /* departures sorted by minute, trips of the same minute kept in trip order */
+    _stationTimes = new int[_stationCount][];
+    for(int st = 0; st < _stationCount; st++) {
+      int[] trips = _stationTrips[st];
+      int[] positions = _stationPositions[st];
+      long[] departures = new long[trips.length];
+      for(int j = 0; j < trips.length; j++)
+        departures[j] = (long) _times[trips[j]][positions[j]] << 32 | j;
+      Arrays.sort(departures);
+      _stationTrips[st] = new int[trips.length];
+      _stationPositions[st] = new int[trips.length];
+      _stationTimes[st] = new int[trips.length];
+      for(int j = 0; j < trips.length; j++) {
+        int k = (int) departures[j];
+        _stationTrips[st][j] = trips[k];
+        _stationPositions[st][j] = positions[k];
+        _stationTimes[st][j] = (int)(departures[j] >>> 32);
+      }
+    }
+  }
+
+  public int getMaxTransfers() {
+    return _maxTransfers;
+  }
+
+  /* minutes needed before boarding at the station after the journey of the label */
+  private int transfer(int station, Label label) {
+    return label._parent == null ? 0 : _transferMinutes[station];
+  }
+
+  /* first departure from the station at or after the given minute of the day the trip leaves on */
+  private int firstDeparture(int station, int minute) {
+    int[] times = _stationTimes[station];
+    int low = 0;
+    int high = times.length;
+    while(low < high) {
+      int middle = (low + high) >>> 1;
+      if(times[middle] < minute)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /* adds the trips leaving the station between the two minutes, on whatever day, to those of the round */
+  private void collect(int station, int from, int until, List<Integer> trips, int[] tripStart) {
+    int[] times = _stationTimes[station];
+    if(until - from >= DAY) {
+      collectRange(station, 0, times.length, trips, tripStart);
+      return;
+    }
+    /* the same window of the day, over each day the stops of the station fall on */
+    for(int start = Math.floorMod(from, DAY) - DAY; times.length > 0 && start <= times[times.length - 1];
+        start += DAY)
+      collectRange(station, firstDeparture(station, start), firstDeparture(station, start + until - from), trips,
+                   tripStart);
+  }
+
+  /* adds the trips of the station's departures in [first, last) */
+  private void collectRange(int station, int first, int last, List<Integer> trips, int[] tripStart) {
+    for(int j = first; j < last; j++) {
+      int trip = _stationTrips[station][j];
+      int position = _stationPositions[station][j];
+      if(tripStart[trip] == Integer.MAX_VALUE)
+        trips.add(trip);
+      tripStart[trip] = Math.min(tripStart[trip], position);
+    }
+  }
+
+  /* fare of travelling on a trip between two of its positions, as in Segment.calcPrice */
+  private double fare(int trip, int from, int to) {
+    int[] times = _times[trip];
+    int duration = times[times.length - 1] - times[0];
+    if(duration == 0)
+      return 0;
+    return _prices[trip] * (times[to] - times[from]) / duration;
+  }
+
+  /* an array of bags, all missing */
+  @SuppressWarnings("unchecked")
+  private static List<Label>[] bags(int length) {
+    return (List<Label>[]) new List<?>[length];
+  }
+
+  /* adds the label to the bag unless it is dominated, removing the labels it dominates */
+  private static boolean merge(List<Label> bag, Label label) {
+    if(dominated(bag, label._departure, label._arrival, label._price))
+      return false;
+    int kept = 0;
+    for(int i = 0; i < bag.size(); i++) {
+      Label l = bag.get(i);
+      if(!label.dominates(l))
+        bag.set(kept++, l);
+    }
+    bag.subList(kept, bag.size()).clear();
+    bag.add(label);
+    return true;
+  }
+
+  private static boolean dominated(List<Label> bag, int departure, int arrival, double price) {
+    if(bag != null)
+      for(int i = 0; i < bag.size(); i++)
+        if(bag.get(i).dominates(departure, arrival, price))
+          return true;
+    return false;
+  }
+
+  /* whether some journey of the bag leaving no earlier arrives on the day of the search */
+  private static boolean overtaken(List<Label> bag, int departure) {
+    for(int i = 0; i < bag.size(); i++)
+      if(bag.get(i)._arrival < DAY && bag.get(i)._departure >= departure)
+        return true;
+    return false;
+  }
+
+  /* whether the journeys of every destination overtake a journey leaving at the given minute */
+  private static boolean overtaken(List<Label>[] bags, int departure) {
+    for(List<Label> bag: bags)
+      if(!overtaken(bag, departure))
+        return false;
+    return true;
+  }
+
+  /* whether no destination can be given a better journey from this one, as it is
+     dominated or overtaken by the journeys found for each of them */
+  private static boolean pruned(List<Label>[] bags, int departure, int arrival, double price) {
+    for(List<Label> bag: bags)
+      if(!(arrival >= DAY && overtaken(bag, departure)) && !dominated(bag, departure, arrival, price))
+        return false;
+    return true;
+  }
+
+  /**
+   * Procura todos os itinerarios Pareto-otimos entre duas estacoes, partindo a
+   * partir da hora dada e com no maximo o numero de transbordos configurado.
+   *
+   * @return uma lista de viagens, cada uma uma lista de troncos.
+   */
+  List<List<Leg>> search(int origin, int destination, int time) {
+    return search(origin, new int[] { destination }, time).get(0);
+  }
+
+  /**
+   * Procura os itinerarios Pareto-otimos de uma estacao para varias, numa so
+   * passagem pelo horario. Uma viagem so deixa de ser explorada quando nao
+   * pode melhorar as de nenhum dos destinos, pelo que as viagens de cada
+   * destino sao as mesmas que as de uma procura so para ele.
+   *
+   * @param origin
+   *        id da estacao de partida.
+   * @param destinations
+   *        ids das estacoes de chegada, que se podem repetir.
+   * @param time
+   *        minuto minimo para a partida.
+   * @return as viagens para cada destino, pela ordem dos destinos.
+   */
+  List<List<List<Leg>>> search(int origin, int[] destinations, int time) {
+    int stations = _stationCount;
+    /* the bag of each destination, shared when it is repeated */
+    int[] targets = new int[destinations.length];
+    int[] targetOf = new int[origin < stations ? stations : 0];
+    Arrays.fill(targetOf, -1);
+    int targetCount = 0;
+    for(int i = 0; i < destinations.length; i++) {
+      int destination = destinations[i];
+      targets[i] = -1;
+      if(origin == destination || origin >= stations || destination < 0 || destination >= stations)
+        continue;
+      if(targetOf[destination] < 0)
+        targetOf[destination] = targetCount++;
+      targets[i] = targetOf[destination];
+    }
+    List<Label>[] targetBags = bags(targetCount);
+    for(int i = 0; i < targetCount; i++)
+      targetBags[i] = new ArrayList<Label>();
+    if(targetCount > 0)
+      route(origin, time, targetOf, targetBags);
+
+    List<List<List<Leg>>> results = new ArrayList<List<List<Leg>>>(destinations.length);
+    for(int i = 0; i < destinations.length; i++)
+      results.add(targets[i] < 0 ? new ArrayList<List<Leg>>() : journeys(targetBags[targets[i]]));
+    return results;
+  }
+
+  /* fills the bag of each destination station with the journeys ending there */
+  private void route(int origin, int time, int[] targetOf, List<Label>[] targetBags) {
+    int stations = _stationCount;
+    List<Label>[] previous = bags(stations);
+    List<Label>[] best = bags(stations);
+    previous[origin] = new ArrayList<Label>();
+    previous[origin].add(new Label(-1, time, 0, 0, null, -1, -1, -1, 0));
+    List<Integer> marked = new ArrayList<Integer>();
+    marked.add(origin);
+
+    int[] tripStart = new int[_stops.length];
+    Arrays.fill(tripStart, Integer.MAX_VALUE);
+
+    for(int round = 1; round <= _maxTransfers + 1 && !marked.isEmpty(); round++) {
+      /* collect the trips serving a marked station, from the earliest such position */
+      List<Integer> trips = new ArrayList<Integer>();
+      for(int st: marked) {
+        /* the origin is left on the day of the search; later on, the journey must end within a day */
+        int from = Integer.MAX_VALUE;
+        int until = round == 1 ? DAY : Integer.MIN_VALUE;
+        for(Label label: previous[st]) {
+          from = Math.min(from, label._arrival + transfer(st, label));
+          if(round > 1)
+            until = Math.max(until, label._departure + DAY);
+        }
+        collect(st, from, until, trips, tripStart);
+      }
+
+      List<Label>[] current = bags(stations);
+      List<Integer> nextMarked = new ArrayList<Integer>();
+      boolean[] isMarked = new boolean[stations];
+      for(int trip: trips) {
+        int[] stops = _stops[trip];
+        int[] times = _times[trip];
+        List<RouteLabel> routeBag = new ArrayList<RouteLabel>();
+        for(int position = tripStart[trip]; position < stops.length; position++) {
+          int st = stops[position];
+
+          /* alight */
+          if(st != origin)
+            for(RouteLabel rl: routeBag) {
+              int arrival = times[position] + rl._day * DAY;
+              if(arrival - rl._departure >= DAY || arrival >= DAY && overtaken(targetBags, rl._departure))
+                continue;
+              double price = rl._from._price + fare(trip, rl._boardPosition, position);
+              if(pruned(targetBags, rl._departure, arrival, price) ||
+                 dominated(best[st], rl._departure, arrival, price))
+                continue;
+              Label label = new Label(rl._departure, arrival, price,
+                                      round, rl._from, trip, rl._boardPosition, position, rl._day);
+              if(current[st] == null)
+                current[st] = new ArrayList<Label>();
+              if(merge(current[st], label) && !isMarked[st]) {
+                isMarked[st] = true;
+                nextMarked.add(st);
+              }
+            }
+
+          /* board */
+          if(previous[st] != null)
+            for(Label from: previous[st]) {
+              /* the first day the trip leaves this position once the label is ready for it */
+              int day = -Math.floorDiv(times[position] - from._arrival - transfer(st, from), DAY);
+              int departure = times[position] + day * DAY;
+              if(from._parent == null) {
+                if(departure >= DAY)
+                  continue;
+              }
+              else {
+                /* the same tests as when alighting, for every stop further on */
+                if(departure - from._departure >= DAY ||
+                   departure >= DAY && overtaken(targetBags, from._departure))
+                  continue;
+                departure = from._departure;
+              }
+              RouteLabel rl = new RouteLabel(from, departure, position,
+                                             from._price - fare(trip, 0, position), day);
+              boolean add = true;
+              for(int i = 0; i < routeBag.size() && add; i++)
+                add = !routeBag.get(i).dominates(rl);
+              if(add) {
+                int kept = 0;
+                for(int i = 0; i < routeBag.size(); i++)
+                  if(!rl.dominates(routeBag.get(i)))
+                    routeBag.set(kept++, routeBag.get(i));
+                routeBag.subList(kept, routeBag.size()).clear();
+                routeBag.add(rl);
+              }
+            }
+        }
+        tripStart[trip] = Integer.MAX_VALUE;
+      }
+
+      for(int st: nextMarked) {
+        current[st].sort(BY_ARRIVAL);
+        if(best[st] == null)
+          best[st] = new ArrayList<Label>();
+        for(Label label: current[st])
+          merge(best[st], label);
+        if(targetOf[st] >= 0)
+          targetBags[targetOf[st]].addAll(current[st]);
+      }
+      previous = current;
+      marked = nextMarked;
+    }
+  }
+
+  /* the journeys of a destination's bag that are given */
+  private List<List<Leg>> journeys(List<Label> targetBag) {
+    List<List<Leg>> journeys = new ArrayList<List<Leg>>();
+    List<Label> labels = new ArrayList<Label>(targetBag);
+    labels.sort(BY_JOURNEY);
+    for(Label label: labels) {
+      if(label._arrival >= DAY && overtaken(targetBag, label._departure))
+        continue;
+      List<Leg> legs = new ArrayList<Leg>();
+      for(Label l = label; l._parent != null; l = l._parent)
+        legs.add(new Leg(_services.getService(l._trip), l._boardPosition, l._alightPosition, l._day));
+      Collections.reverse(legs);
+      journeys.add(legs);
+    }
+    return journeys;
+  }
+
+}
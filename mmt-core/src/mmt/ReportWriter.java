@@ -0,0 +1,226 @@
+package mmt;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+import java.time.LocalTime;
+
+/**
+ * Writes the listings of services, passengers and itineraries straight to an
+ * output, in the same text as their toString methods. One writer reuses its
+ * number formats and buffers for everything it writes, so listing a large
+ * company costs no more memory than the output it is written to keeps.
+ *
+ * As with java.io.PrintWriter, the methods do not throw; the first error of
+ * the output stops the writing and is kept, to be checked with ioException.
+ */
+public final class ReportWriter {
+
+  private final Appendable _out;
+  private IOException _ioException;
+
+  private final DecimalFormat _priceFormat;
+  private final DecimalFormat _twoDigitFormat = new DecimalFormat("00");
+  private final StringBuffer _number = new StringBuffer();
+  private final FieldPosition _position = new FieldPosition(0);
+  private final char[] _digits = new char[11];
+
+  /**
+   * @param out
+   *        destino do texto escrito.
+   */
+  public ReportWriter(Appendable out) {
+    _out = out;
+    DecimalFormatSymbols s = new DecimalFormatSymbols();
+    s.setDecimalSeparator('.');
+    _priceFormat = new DecimalFormat("0.00", s);
+  }
+
+  /**
+   * @return o primeiro erro do destino, ou null caso nao tenha havido nenhum.
+   */
+  public IOException ioException() {
+    return _ioException;
+  }
+
+  /**
+   * Escreve o servico como Service.toString.
+   */
+  public void writeService(Service service) {
+    writeService(service.getId(), service.getPrice(), service, 0, service.getNumberOfStations() - 1);
+  }
+
+  /**
+   * Escreve o troco como Segment.toString.
+   */
+  public void writeSegment(Segment segment) {
+    writeService(segment.getServiceId(), segment.getPrice(), segment.getService(), segment.getFirstIndex(),
+                 segment.getLastIndex());
+  }
+
+  /* the stops are read from the service, without building its stations */
+  private void writeService(int id, double price, Service service, int firstIndex, int lastIndex) {
+    append("Serviço #");
+    appendInt(id);
+    append(" @ ");
+    appendPrice(price);
+    append('\n');
+    for(int i = firstIndex; i <= lastIndex; i++) {
+      appendTime(service.getSecondOfDay(i), service.getNano(i));
+      append(' ');
+      append(service.getStationName(i));
+      append('\n');
+    }
+  }
+
+  /**
+   * Escreve a paragem como Station.toString.
+   */
+  public void writeStation(Station station) {
+    appendTime(station.getDeparture().toSecondOfDay(), station.getDeparture().getNano());
+    append(' ');
+    append(station.getName());
+  }
+
+  /**
+   * Escreve o itinerario como Itinerary.toString.
+   */
+  public void writeItinerary(Itinerary itinerary) {
+    append("\nItinerário ");
+    appendInt(itinerary.getId());
+    append(" para ");
+    append(itinerary.getDate().toString());
+    append(" @ ");
+    appendPrice(itinerary.getPrice());
+    append('\n');
+    for(Segment seg: itinerary.getSegments())
+      writeSegment(seg);
+  }
+
+  /**
+   * Escreve a viagem como Journey.toString.
+   */
+  public void writeJourney(Journey journey) {
+    for(Segment seg: journey.getSegments())
+      writeSegment(seg);
+  }
+
+  /**
+   * Escreve o passageiro como Passenger.toString.
+   */
+  public void writePassenger(Passenger passenger) {
+    synchronized(passenger) {
+      appendInt(passenger.getId());
+      append('|');
+      append(passenger.getName());
+      append('|');
+      writeCategory(passenger.getCategory());
+    }
+  }
+
+  /**
+   * Escreve a categoria como Category.toString.
+   */
+  public void writeCategory(Category category) {
+    long time = category.getTime();
+    int hours = (int)Math.floor(time/60);
+    long minutes = (int)time - hours*60;
+    append(category.getTier().getLabel());
+    append('|');
+    appendInt(category.getPassenger().getTotalIt());
+    append('|');
+    appendPrice(category.getSpent());
+    append('|');
+    appendNumber(_twoDigitFormat, hours);
+    append(':');
+    appendNumber(_twoDigitFormat, minutes);
+  }
+
+  /**
+   * Escreve os itinerarios do passageiro, por ordem de data, como
+   * Passenger.itinerariesToString.
+   */
+  public void writeItineraries(Passenger passenger) {
+    synchronized(passenger) {
+      append("== Passageiro ");
+      appendInt(passenger.getId());
+      append(": ");
+      append(passenger.getName());
+      append(" ==\n");
+      for(Itinerary i: passenger.itinerariesByDate())
+        writeItinerary(i);
+    }
+  }
+
+  private void appendPrice(double price) {
+    _number.setLength(0);
+    _priceFormat.format(price, _number, _position);
+    append(_number);
+  }
+
+  private void appendNumber(DecimalFormat format, long value) {
+    _number.setLength(0);
+    format.format(value, _number, _position);
+    append(_number);
+  }
+
+  /* as LocalTime.toString, which only shows seconds when there are some */
+  private void appendTime(int secondOfDay, int nano) {
+    if(secondOfDay % 60 != 0 || nano != 0) {
+      append(LocalTime.ofSecondOfDay(secondOfDay).withNano(nano).toString());
+      return;
+    }
+    int hour = secondOfDay / 3600;
+    int minute = secondOfDay / 60 % 60;
+    _digits[0] = (char)('0' + hour / 10);
+    _digits[1] = (char)('0' + hour % 10);
+    _digits[2] = ':';
+    _digits[3] = (char)('0' + minute / 10);
+    _digits[4] = (char)('0' + minute % 10);
+    append(_digits, 5);
+  }
+
+  private void appendInt(int value) {
+    if(value < 0) {
+      append(Integer.toString(value));
+      return;
+    }
+    int start = _digits.length;
+    do {
+      _digits[--start] = (char)('0' + value % 10);
+      value /= 10;
+    } while(value > 0);
+    append(_digits, start, _digits.length);
+  }
+
+  private void append(char[] chars, int length) {
+    append(chars, 0, length);
+  }
+
+  private void append(char[] chars, int start, int end) {
+    for(int i = start; i < end; i++)
+      append(chars[i]);
+  }
+
+  private void append(CharSequence text) {
+    if(_ioException != null)
+      return;
+    try {
+      _out.append(text);
+    } catch(IOException e) {
+      _ioException = e;
+    }
+  }
+
+  private void append(char c) {
+    if(_ioException != null)
+      return;
+    try {
+      _out.append(c);
+    } catch(IOException e) {
+      _ioException = e;
+    }
+  }
+
+}
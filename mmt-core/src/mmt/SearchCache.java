@@ -0,0 +1,158 @@
+package mmt;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of search results, shared by every passenger of a company.
+ * An entry holds the journeys found between two stations from a departure
+ * minute, in the order they are offered, for one version of the timetable;
+ * the itineraries, with the discount of whoever asked, are built from them on
+ * every search. The least recently used entry is evicted when the cache is
+ * full, and entries of older timetables are dropped as soon as a newer one is
+ * searched, since they can no longer be asked for.
+ */
+public final class SearchCache {
+
+  /** Number of entries kept unless set otherwise. */
+  public static final int DEFAULT_SIZE = 1024;
+
+  private static final class Key {
+    private final long _version;
+    private final int _origin;
+    private final int _destination;
+    private final int _minute;
+
+    Key(long version, int origin, int destination, int minute) {
+      _version = version;
+      _origin = origin;
+      _destination = destination;
+      _minute = minute;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return _version == k._version && _origin == k._origin && _destination == k._destination
+        && _minute == k._minute;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = (int)(_version ^ (_version >>> 32));
+      h = 31 * h + _origin;
+      h = 31 * h + _destination;
+      return 31 * h + _minute;
+    }
+  }
+
+  private final LinkedHashMap<Key, List<List<Leg>>> _entries =
+    new LinkedHashMap<Key, List<List<Leg>>>(16, 0.75f, true);
+  private int _maximumSize;
+  private long _version;
+  private long _hits;
+  private long _misses;
+  private long _evictions;
+
+  SearchCache(int maximumSize) {
+    setMaximumSize(maximumSize);
+  }
+
+  /**
+   * @return as viagens guardadas para a procura dada, ou null caso nao
+   *         estejam na cache.
+   */
+  synchronized List<List<Leg>> get(long version, int origin, int destination, int minute) {
+    List<List<Leg>> journeys = _entries.get(new Key(version, origin, destination, minute));
+    if(journeys == null)
+      _misses++;
+    else
+      _hits++;
+    return journeys;
+  }
+
+  /* keeps the journeys, in the order they are offered */
+  synchronized void put(long version, int origin, int destination, int minute, List<List<Leg>> journeys) {
+    if(_maximumSize == 0 || version < _version)
+      return;
+    if(version > _version) {
+      _version = version;
+      _entries.clear();
+    }
+    _entries.put(new Key(version, origin, destination, minute), Collections.unmodifiableList(journeys));
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Key, List<List<Leg>>>> eldest = _entries.entrySet().iterator();
+    while(_entries.size() > _maximumSize) {
+      eldest.next();
+      eldest.remove();
+      _evictions++;
+    }
+  }
+
+  /**
+   * Altera o numero maximo de entradas; com 0 a cache deixa de guardar
+   * resultados.
+   *
+   * @param maximumSize
+   *        numero maximo de entradas.
+   */
+  public synchronized void setMaximumSize(int maximumSize) {
+    if(maximumSize < 0)
+      throw new IllegalArgumentException("cache size " + maximumSize);
+    _maximumSize = maximumSize;
+    evict();
+  }
+
+  public synchronized int getMaximumSize() {
+    return _maximumSize;
+  }
+
+  public synchronized int size() {
+    return _entries.size();
+  }
+
+  public synchronized long getHits() {
+    return _hits;
+  }
+
+  public synchronized long getMisses() {
+    return _misses;
+  }
+
+  /**
+   * @return o numero de entradas retiradas por a cache estar cheia.
+   */
+  public synchronized long getEvictions() {
+    return _evictions;
+  }
+
+  /**
+   * @return a fracao das procuras respondidas pela cache, ou 0 caso ainda
+   *         nao tenha havido nenhuma.
+   */
+  public synchronized double getHitRate() {
+    long requests = _hits + _misses;
+    return requests == 0 ? 0 : (double) _hits / requests;
+  }
+
+  /** Esquece todas as entradas, mantendo as contagens. */
+  public synchronized void clear() {
+    _entries.clear();
+  }
+
+  @SuppressWarnings("nls")
+  @Override
+  public synchronized String toString() {
+    return "cache " + _entries.size() + "/" + _maximumSize + " hits " + _hits + " misses " + _misses
+      + " evictions " + _evictions;
+  }
+
+}
@@ -0,0 +1,34 @@
+package mmt;
+
+/**
+ * Receiver of the answers of a batch of searches, as they are found. The
+ * answers come in no particular order, each with the position of its query in
+ * the batch, and are all given on the thread that asked for the batch.
+ */
+public interface SearchListener {
+
+  /**
+   * Metodo chamado com a cotacao de uma procura do lote.
+   *
+   * @param index
+   *        posicao da procura no lote.
+   * @param query
+   *        procura respondida.
+   * @param quote
+   *        cotacao com os itinerarios encontrados, ordenados.
+   */
+  void quoted(int index, SearchQuery query, Quote quote);
+
+  /**
+   * Metodo chamado quando uma procura do lote nao pode ser feita.
+   *
+   * @param index
+   *        posicao da procura no lote.
+   * @param query
+   *        procura falhada.
+   * @param exception
+   *        motivo da falha, por exemplo NoSuchStationNameException.
+   */
+  void failed(int index, SearchQuery query, Exception exception);
+
+}
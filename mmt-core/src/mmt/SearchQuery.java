@@ -0,0 +1,46 @@
+package mmt;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * One itinerary search of a batch: the names of the stations to travel between,
+ * the date of the journey and the earliest time to leave.
+ */
+public final class SearchQuery {
+
+  private final String _departureStation;
+  private final String _arrivalStation;
+  private final LocalDate _date;
+  private final LocalTime _time;
+
+  public SearchQuery(String departureStation, String arrivalStation, LocalDate date, LocalTime time) {
+    _departureStation = departureStation;
+    _arrivalStation = arrivalStation;
+    _date = date;
+    _time = time;
+  }
+
+  public String getDepartureStation() {
+    return _departureStation;
+  }
+
+  public String getArrivalStation() {
+    return _arrivalStation;
+  }
+
+  public LocalDate getDate() {
+    return _date;
+  }
+
+  public LocalTime getTime() {
+    return _time;
+  }
+
+  @SuppressWarnings("nls")
+  @Override
+  public String toString() {
+    return _departureStation + " -> " + _arrivalStation + " " + _date + " " + _time;
+  }
+
+}
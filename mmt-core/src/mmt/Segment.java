@@ -1,71 +1,171 @@
 package mmt;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.TreeMap;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 public class Segment implements Serializable {
+
+  /** Serial number for serialization, as the class always had. */
+  private static final long serialVersionUID = 1462958930107133627L;
+
   private double _price;
   private Service _service;
-  private ArrayList<Station> _stations = new ArrayList<Station>();
+  private int _firstIndex = 0;
+  private int _lastIndex = -1;
+  /* day the service leaves on, counted from the date of the itinerary */
+  private int _day;
+  /* the stations of a segment read back from an older version, until restored */
+  private transient List<?> _legacyStations;
 
   public Segment(Service service, double price) {
     _service = service;
     _price = price;
   }
 
+  /* a segment whose price and positions are already known, as when read back */
+  Segment(Service service, double price, int firstIndex, int lastIndex, int day) {
+    _service = service;
+    _price = price;
+    _firstIndex = firstIndex;
+    _lastIndex = lastIndex;
+    _day = day;
+  }
+
   public int getServiceId() {
     return _service.getId();
   }
 
+  Service getService() {
+    return _service;
+  }
+
+  int getFirstIndex() {
+    return _firstIndex;
+  }
+
+  int getLastIndex() {
+    return _lastIndex;
+  }
+
+  /**
+   * @return o dia em que parte o servico do segmento, contado a partir da
+   *         data do itinerario: 0 no proprio dia, 1 no dia seguinte e -1 na
+   *         vespera, quando o segmento comeca depois da meia-noite.
+   */
+  public int getDay() {
+    return _day;
+  }
+
+  void setDay(int day) {
+    _day = day;
+  }
+
+  /* minutes from the start of the date of the itinerary */
+  int getDepartureMinute() {
+    return _day * Service.MINUTES_PER_DAY + _service.getMinute(_firstIndex);
+  }
+
+  int getArrivalMinute() {
+    return _day * Service.MINUTES_PER_DAY + _service.getMinute(_lastIndex);
+  }
+
   public double getPrice() {
     return _price;
   }
 
   public Collection<Station> getStations() {
-    return Collections.unmodifiableCollection(_stations);
+    if(_lastIndex < _firstIndex)
+      return Collections.emptyList();
+    return _service.getStations(_firstIndex, _lastIndex);
   }
 
   public Station getFirstStation() {
-    return _stations.get(0);
+    return _service.getStationByIndex(_firstIndex);
   }
 
   public Station getLastStation() {
-    return _stations.get(_stations.size()-1);
+    return _service.getStationByIndex(_lastIndex);
   }
 
+  public void addStations(int firstStationId, int lastStationId) {
+    addStationsByIndex(_service.indexOf(firstStationId), _service.indexOf(lastStationId));
+  }
+
+  /**
+   * @deprecated stations are known by id; use addStations(int, int).
+   */
+  @Deprecated
   public void addStations(String firstStation, String lastStation) {
-    int firstIndex = _service.getStationNames().indexOf(firstStation);
-    int lastIndex = _service.getStationNames().indexOf(lastStation);
-    for(int i = firstIndex; i <= lastIndex; i++)
-      _stations.add(_service.getStationByIndex(i));
+    addStationsByIndex(_service.indexOf(firstStation), _service.indexOf(lastStation));
+  }
+
+  /* the segment covers the stations of the service between the two positions */
+  public void addStationsByIndex(int firstIndex, int lastIndex) {
+    _firstIndex = firstIndex;
+    _lastIndex = lastIndex;
     calcPrice();
   }
 
   public void calcPrice() {
     double servicePrice = _service.getPrice();
     int serviceDuration = (int)_service.getDuration();
-    int segmentDuration = (int)getFirstStation().getDeparture().until(getLastStation().getDeparture(), ChronoUnit.MINUTES);
+    int segmentDuration = (int)_service.getMinutes(_firstIndex, _lastIndex);
     _price = servicePrice * segmentDuration / serviceDuration;
   }
 
 
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    _price = fields.get("_price", 0.0);
+    _service = (Service) fields.get("_service", null);
+    _firstIndex = fields.get("_firstIndex", 0);
+    _lastIndex = fields.get("_lastIndex", -1);
+    _day = fields.get("_day", 0);
+    /* older versions kept the stations, from the first to the last */
+    if(fields.defaulted("_firstIndex"))
+      _legacyStations = (List<?>) fields.get("_stations", null);
+  }
+
+  /**
+   * Metodo utilizado para acabar de ler um segmento guardado por uma versao
+   * anterior, cujas estacoes passam a ser as posicoes das paragens do servico
+   * com o mesmo nome e a mesma hora. Nao faz nada nos restantes segmentos.
+   *
+   * @param dictionary
+   *        dicionario da companhia.
+   */
+  void restore(StationDictionary dictionary) {
+    if(_legacyStations == null)
+      return;
+    _service.restore(dictionary);
+    if(!_legacyStations.isEmpty()) {
+      _firstIndex = position((Station) _legacyStations.get(0), 0, dictionary);
+      _lastIndex = position((Station) _legacyStations.get(_legacyStations.size() - 1), _firstIndex, dictionary);
+    }
+    _legacyStations = null;
+  }
+
+  /* the first stop of the service, from the given one on, at the station at its time */
+  private int position(Station station, int from, StationDictionary dictionary) {
+    int id = dictionary.getId(station.getName());
+    for(int i = from; i < _service.getNumberOfStations(); i++)
+      if(_service.getStationId(i) == id && _service.getDeparture(i).equals(station.getDeparture()))
+        return i;
+    return _service.indexOf(id);
+  }
+
   @SuppressWarnings("nls")
   @Override
   public String toString() {
-    String a = "";
-    for(Station s: _stations) {
-      a = a + s.toString() + "\n";
-    }
-    DecimalFormatSymbols s = new DecimalFormatSymbols();
-    s.setDecimalSeparator('.');
-    DecimalFormat df = new DecimalFormat("0.00", s);
-    return "Serviço #" + getServiceId() + " @ " + df.format(_price) + "\n" + a;
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writeSegment(this);
+    return text.toString();
   }
 }
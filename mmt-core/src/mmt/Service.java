@@ -1,27 +1,166 @@
 package mmt;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
 import java.util.Comparator;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.time.LocalTime;
 
+/**
+ * A train service: its id, its price and its stops. The stops are kept in
+ * columns of primitive values, the id of the station and the seconds since the
+ * start of the day the service leaves on; the Station objects handed out are
+ * built from them when asked for and are not kept.
+ */
 public class Service implements Serializable {
+
+  /** Serial number for serialization, as the class always had. */
+  private static final long serialVersionUID = 243816450480632594L;
+
+  /** Minutes in a day, as the minutes of the stops are counted. */
+  public static final int MINUTES_PER_DAY = 24 * 60;
+
+  private static final int SECONDS_PER_DAY = MINUTES_PER_DAY * 60;
+
   private int _id;
   private double _price;
-  private ArrayList<Station> _stations = new ArrayList<Station>();
+  private StationDictionary _dictionary;
+
+  /* the stops, by position: station ids, seconds since the start of the day
+     the service leaves on (a stop earlier in the day than the one before it
+     is on the next day) and, only when some stop has them, nanoseconds */
+  private int _size;
+  private int[] _stops = new int[4];
+  private int[] _seconds = new int[4];
+  private int[] _nanos;
+
+  /* open addressing index from station id (stored plus one) to its first
+     position; short services are searched in their column of stations instead */
+  private static final int INDEX_THRESHOLD = 16;
+  private int[] _indexKeys;
+  private int[] _indexPositions;
+  private int _indexSize;
+
+  /* the stations of a service read back from an older version, until restored */
+  private transient List<?> _legacyStations;
 
   public Service(int id, double price) {
     _id = id;
     _price = price;
   }
 
+  /* a service whose stops are added with addStop, from stations of the given dictionary */
+  Service(int id, double price, StationDictionary dictionary) {
+    this(id, price);
+    _dictionary = dictionary;
+  }
+
   public void addStation(Station station) {
-    _stations.add(station);
+    if(_dictionary == null)
+      _dictionary = station.getDictionary();
+    /* a station of another dictionary, as one built from its name alone, is known here by name */
+    int stationId = station.getDictionary() == _dictionary ? station.getId() : _dictionary.intern(station.getName());
+    LocalTime time = station.getDeparture();
+    addStop(stationId, time.toSecondOfDay(), time.getNano());
+  }
+
+  /* adds a stop of a station of the dictionary of the service */
+  void addStop(int stationId, int secondOfDay, int nano) {
+    if(_size == _stops.length) {
+      int length = Math.max(_size * 2, 4);
+      _stops = Arrays.copyOf(_stops, length);
+      _seconds = Arrays.copyOf(_seconds, length);
+      if(_nanos != null)
+        _nanos = Arrays.copyOf(_nanos, length);
+    }
+    int seconds = secondOfDay;
+    if(_size > 0)
+      while(seconds < _seconds[_size - 1])
+        seconds += SECONDS_PER_DAY;
+    _stops[_size] = stationId;
+    _seconds[_size] = seconds;
+    if(nano != 0 && _nanos == null)
+      _nanos = new int[_stops.length];
+    if(_nanos != null)
+      _nanos[_size] = nano;
+    _size++;
+
+    if(_indexKeys == null) {
+      if(_size <= INDEX_THRESHOLD)
+        return;
+      _indexKeys = new int[Integer.highestOneBit(_size) * 4];
+      _indexPositions = new int[_indexKeys.length];
+      for(int i = 0; i < _size; i++)
+        index(_stops[i], i);
+      return;
+    }
+    if((_indexSize + 1) * 2 > _indexKeys.length) {
+      int[] keys = _indexKeys;
+      int[] positions = _indexPositions;
+      _indexKeys = new int[keys.length * 2];
+      _indexPositions = new int[keys.length * 2];
+      _indexSize = 0;
+      for(int i = 0; i < keys.length; i++)
+        if(keys[i] != 0)
+          index(keys[i] - 1, positions[i]);
+    }
+    index(stationId, _size - 1);
+  }
+
+  /* drops the room kept for more stops, once the service is complete */
+  void trimToSize() {
+    _stops = Arrays.copyOf(_stops, _size);
+    _seconds = Arrays.copyOf(_seconds, _size);
+    if(_nanos != null)
+      _nanos = Arrays.copyOf(_nanos, _size);
+  }
+
+  /**
+   * Metodo utilizado para criar um servico com as mesmas paragens que este.
+   *
+   * @param id
+   *        id do novo servico.
+   * @param price
+   *        preco do novo servico.
+   * @return a copia do servico, que pode receber mais paragens sem alterar
+   *         este.
+   */
+  Service copy(int id, double price) {
+    Service copy = new Service(id, price, _dictionary);
+    copy._size = _size;
+    copy._stops = Arrays.copyOf(_stops, Math.max(_size, 1) * 2);
+    copy._seconds = Arrays.copyOf(_seconds, copy._stops.length);
+    if(_nanos != null)
+      copy._nanos = Arrays.copyOf(_nanos, copy._stops.length);
+    if(_indexKeys != null) {
+      copy._indexKeys = _indexKeys.clone();
+      copy._indexPositions = _indexPositions.clone();
+      copy._indexSize = _indexSize;
+    }
+    return copy;
+  }
+
+  private int slot(int stationId) {
+    return (stationId * 0x9E3779B9) >>> 1 & (_indexKeys.length - 1);
+  }
+
+  private void index(int stationId, int position) {
+    int slot = slot(stationId);
+    while(_indexKeys[slot] != 0) {
+      if(_indexKeys[slot] == stationId + 1)
+        return;
+      slot = (slot + 1) & (_indexKeys.length - 1);
+    }
+    _indexKeys[slot] = stationId + 1;
+    _indexPositions[slot] = position;
+    _indexSize++;
   }
 
   public int getId() {
@@ -33,50 +172,214 @@ public class Service implements Serializable {
   }
 
   public long getDuration() {
-    return getFirstStation().getDeparture().until(getLastStation().getDeparture(), ChronoUnit.MINUTES);
+    return getMinutes(0, _size - 1);
   }
 
   public Station getFirstStation() {
-    return _stations.get(0);
+    return getStationByIndex(0);
   }
 
   public Station getLastStation() {
-    return _stations.get(_stations.size()-1);
+    return getStationByIndex(_size - 1);
+  }
+
+  public Collection<Station> getStations() {
+    return getStations(0, _size - 1);
+  }
+
+  /* stations between two positions, both included, built as they are read */
+  public List<Station> getStations(final int firstIndex, final int lastIndex) {
+    if(firstIndex < 0 || lastIndex >= _size || lastIndex < firstIndex - 1)
+      throw new IndexOutOfBoundsException("stops " + firstIndex + " to " + lastIndex + " of " + _size);
+    return new StationList(firstIndex, lastIndex + 1 - firstIndex);
+  }
+
+  private class StationList extends AbstractList<Station> implements RandomAccess {
+    private final int _first;
+    private final int _length;
+
+    StationList(int first, int length) {
+      _first = first;
+      _length = length;
+    }
+
+    @Override
+    public Station get(int index) {
+      if(index < 0 || index >= _length)
+        throw new IndexOutOfBoundsException("station " + index + " of " + _length);
+      return getStationByIndex(_first + index);
+    }
+
+    @Override
+    public int size() {
+      return _length;
+    }
+  }
+
+  public int getNumberOfStations() {
+    return _size;
+  }
+
+  /* position of the first stop at the given station, or -1 */
+  public int indexOf(int stationId) {
+    if(stationId < 0)
+      return -1;
+    if(_indexKeys == null) {
+      for(int i = 0; i < _size; i++)
+        if(_stops[i] == stationId)
+          return i;
+      return -1;
+    }
+    int slot = slot(stationId);
+    while(_indexKeys[slot] != 0) {
+      if(_indexKeys[slot] == stationId + 1)
+        return _indexPositions[slot];
+      slot = (slot + 1) & (_indexKeys.length - 1);
+    }
+    return -1;
   }
 
+  /* position of the first stop at the station with the given name, or -1 */
+  int indexOf(String stationName) {
+    return _dictionary == null ? -1 : indexOf(_dictionary.getId(stationName));
+  }
+
+  public LocalTime getDeparture(int index) {
+    LocalTime time = LocalTime.ofSecondOfDay(getSecondOfDay(index));
+    return _nanos == null ? time : time.withNano(_nanos[index]);
+  }
+
+  /**
+   * @param index
+   *        posicao da paragem no servico.
+   * @return o id da estacao da paragem.
+   */
+  public int getStationId(int index) {
+    checkIndex(index);
+    return _stops[index];
+  }
+
+  public String getStationName(int index) {
+    return _dictionary.getName(getStationId(index));
+  }
+
+  /**
+   * @deprecated the names are in the dictionary of the company; use
+   *             getStationName for each stop.
+   */
+  @Deprecated
   public ArrayList<String> getStationNames() {
-    ArrayList<String> stationNames = new ArrayList<String>();
-    for(Station s: _stations)
-      stationNames.add(s.getName());
-    return stationNames;
+    ArrayList<String> names = new ArrayList<String>(_size);
+    for(int i = 0; i < _size; i++)
+      names.add(getStationName(i));
+    return names;
   }
 
-  public Collection<Station> getStations() {
-    return Collections.unmodifiableCollection(_stations);
+  /**
+   * @param index
+   *        posicao da paragem no servico.
+   * @return os segundos da hora de partida da paragem, desde a meia-noite.
+   */
+  public int getSecondOfDay(int index) {
+    checkIndex(index);
+    return _seconds[index] % SECONDS_PER_DAY;
   }
 
+  public int getNano(int index) {
+    checkIndex(index);
+    return _nanos == null ? 0 : _nanos[index];
+  }
+
+  /**
+   * @param index
+   *        posicao da paragem no servico.
+   * @return os minutos da paragem desde o inicio do dia em que o servico
+   *         parte, podendo passar de um dia quando o servico atravessa a
+   *         meia-noite.
+   */
+  public int getMinute(int index) {
+    checkIndex(index);
+    return _seconds[index] / 60;
+  }
+
+  /* minutes travelled between two positions, across midnight if need be */
+  public long getMinutes(int firstIndex, int lastIndex) {
+    checkIndex(firstIndex);
+    checkIndex(lastIndex);
+    return (_seconds[lastIndex] - _seconds[firstIndex]) / 60;
+  }
+
+  private void checkIndex(int index) {
+    if(index < 0 || index >= _size)
+      throw new IndexOutOfBoundsException("stop " + index + " of " + _size);
+  }
+
+  public Station getStation(int stationId) {
+    int index = indexOf(stationId);
+    return index < 0 ? null : getStationByIndex(index);
+  }
+
+  /**
+   * @deprecated stations are known by id; use getStation(int).
+   */
+  @Deprecated
   public Station getStation(String stationName) {
-    for(Station s: _stations)
-      if(s.equals(stationName))
-        return s;
-    return null;
+    int index = indexOf(stationName);
+    return index < 0 ? null : getStationByIndex(index);
   }
 
   public Station getStationByIndex(int index) {
-    return _stations.get(index);
+    return new Station(getStationId(index), getDeparture(index), _dictionary);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    _id = fields.get("_id", 0);
+    _price = fields.get("_price", 0.0);
+    if(fields.defaulted("_stops")) {
+      /* older versions kept a list of stations, added as stops by restore */
+      _stops = new int[4];
+      _seconds = new int[4];
+      _legacyStations = (List<?>) fields.get("_stations", null);
+      return;
+    }
+    _dictionary = (StationDictionary) fields.get("_dictionary", null);
+    _size = fields.get("_size", 0);
+    _stops = (int[]) fields.get("_stops", null);
+    _seconds = (int[]) fields.get("_seconds", null);
+    _nanos = (int[]) fields.get("_nanos", null);
+    _indexKeys = (int[]) fields.get("_indexKeys", null);
+    _indexPositions = (int[]) fields.get("_indexPositions", null);
+    _indexSize = fields.get("_indexSize", 0);
+  }
+
+  /**
+   * Metodo utilizado para acabar de ler um servico guardado por uma versao
+   * anterior, cujas estacoes passam a ser paragens com os ids do dicionario
+   * dado. Nao faz nada nos restantes servicos.
+   *
+   * @param dictionary
+   *        dicionario da companhia.
+   */
+  void restore(StationDictionary dictionary) {
+    if(_legacyStations == null)
+      return;
+    _dictionary = dictionary;
+    for(Object o: _legacyStations) {
+      Station station = (Station) o;
+      LocalTime time = station.getDeparture();
+      addStop(dictionary.intern(station.getName()), time.toSecondOfDay(), time.getNano());
+    }
+    trimToSize();
+    _legacyStations = null;
   }
 
   @SuppressWarnings("nls")
   @Override
   public String toString() {
-    String a = "";
-    for(Station s: _stations) {
-      a = a + s.toString() + "\n";
-    }
-    DecimalFormatSymbols s = new DecimalFormatSymbols();
-    s.setDecimalSeparator('.');
-    DecimalFormat df = new DecimalFormat("0.00", s);
-    return "Serviço #" + _id + " @ " + df.format(_price) + "\n" + a;
+    StringBuilder text = new StringBuilder();
+    new ReportWriter(text).writeService(this);
+    return text.toString();
   }
 
 }
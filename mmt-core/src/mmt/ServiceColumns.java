@@ -0,0 +1,71 @@
+package mmt;
+
+import java.util.List;
+
+/**
+ * The stops of a fixed list of services, read by the position of each service
+ * in the list, as the search engines need them. The engines copy station ids
+ * and minutes into arrays of their own and only ask for a service itself for
+ * the legs of the journeys they return, so that the services of a mapped
+ * timetable are not all built by its first search.
+ */
+interface ServiceColumns {
+
+  int getNumberOfServices();
+
+  /**
+   * @return os ids das estacoes das paragens do servico, por ordem.
+   */
+  int[] getStationIds(int position);
+
+  /**
+   * @return os minutos de cada paragem do servico desde o inicio do dia em
+   *         que parte, como em Service.getMinute.
+   */
+  int[] getMinutes(int position);
+
+  double getPrice(int position);
+
+  Service getService(int position);
+
+  /**
+   * @return as colunas de uma lista de servicos ja construidos.
+   */
+  static ServiceColumns of(final List<Service> services) {
+    return new ServiceColumns() {
+      @Override
+      public int getNumberOfServices() {
+        return services.size();
+      }
+
+      @Override
+      public int[] getStationIds(int position) {
+        Service service = services.get(position);
+        int[] stations = new int[service.getNumberOfStations()];
+        for(int i = 0; i < stations.length; i++)
+          stations[i] = service.getStationId(i);
+        return stations;
+      }
+
+      @Override
+      public int[] getMinutes(int position) {
+        Service service = services.get(position);
+        int[] minutes = new int[service.getNumberOfStations()];
+        for(int i = 0; i < minutes.length; i++)
+          minutes[i] = service.getMinute(i);
+        return minutes;
+      }
+
+      @Override
+      public double getPrice(int position) {
+        return services.get(position).getPrice();
+      }
+
+      @Override
+      public Service getService(int position) {
+        return services.get(position);
+      }
+    };
+  }
+
+}
@@ -0,0 +1,252 @@
+package mmt;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of services ordered by id, kept as a balanced binary tree.
+ * Adding or removing a service gives a new tree that shares every node but
+ * those on the path to the service with the old one, so that the registry of
+ * a company can be published after each change without being copied.
+ */
+final class ServiceTree {
+
+  static final ServiceTree EMPTY = new ServiceTree(null);
+
+  private static final class Node {
+    private final Service _service;
+    private final Node _left;
+    private final Node _right;
+    private final int _height;
+    private final int _size;
+
+    private Node(Service service, Node left, Node right) {
+      _service = service;
+      _left = left;
+      _right = right;
+      _height = Math.max(height(left), height(right)) + 1;
+      _size = size(left) + size(right) + 1;
+    }
+
+    private int id() {
+      return _service.getId();
+    }
+  }
+
+  private final Node _root;
+
+  private ServiceTree(Node root) {
+    _root = root;
+  }
+
+  /**
+   * @param services
+   *        servicos por ordem de id, sem ids repetidos.
+   * @return a arvore com os servicos dados.
+   */
+  static ServiceTree of(Collection<Service> services) {
+    return new ServiceTree(build(services.iterator(), services.size()));
+  }
+
+  /* the next count services of the iterator, in a tree as balanced as it can be */
+  private static Node build(Iterator<Service> services, int count) {
+    if(count == 0)
+      return null;
+    Node left = build(services, count / 2);
+    Service service = services.next();
+    return new Node(service, left, build(services, count - count / 2 - 1));
+  }
+
+  private static int height(Node node) {
+    return node == null ? 0 : node._height;
+  }
+
+  private static int size(Node node) {
+    return node == null ? 0 : node._size;
+  }
+
+  int size() {
+    return size(_root);
+  }
+
+  /**
+   * @return o servico com o id dado, ou null caso nao exista.
+   */
+  Service get(int id) {
+    Node node = _root;
+    while(node != null) {
+      if(id < node.id())
+        node = node._left;
+      else if(id > node.id())
+        node = node._right;
+      else
+        return node._service;
+    }
+    return null;
+  }
+
+  /**
+   * @return uma arvore com o servico dado no lugar do que tinha o mesmo id.
+   */
+  ServiceTree put(Service service) {
+    return new ServiceTree(put(_root, service));
+  }
+
+  /**
+   * @return uma arvore sem o servico com o id dado.
+   */
+  ServiceTree remove(int id) {
+    return get(id) == null ? this : new ServiceTree(remove(_root, id));
+  }
+
+  private static Node put(Node node, Service service) {
+    if(node == null)
+      return new Node(service, null, null);
+    if(service.getId() < node.id())
+      return balance(node._service, put(node._left, service), node._right);
+    if(service.getId() > node.id())
+      return balance(node._service, node._left, put(node._right, service));
+    return new Node(service, node._left, node._right);
+  }
+
+  private static Node remove(Node node, int id) {
+    if(id < node.id())
+      return balance(node._service, remove(node._left, id), node._right);
+    if(id > node.id())
+      return balance(node._service, node._left, remove(node._right, id));
+    if(node._left == null)
+      return node._right;
+    if(node._right == null)
+      return node._left;
+    Node first = node._right;
+    while(first._left != null)
+      first = first._left;
+    return balance(first._service, node._left, removeFirst(node._right));
+  }
+
+  private static Node removeFirst(Node node) {
+    if(node._left == null)
+      return node._right;
+    return balance(node._service, removeFirst(node._left), node._right);
+  }
+
+  /* a node over two subtrees whose heights differ by at most two after a single change */
+  private static Node balance(Service service, Node left, Node right) {
+    if(height(left) > height(right) + 1) {
+      if(height(left._left) >= height(left._right))
+        return new Node(left._service, left._left, new Node(service, left._right, right));
+      return new Node(left._right._service, new Node(left._service, left._left, left._right._left),
+                      new Node(service, left._right._right, right));
+    }
+    if(height(right) > height(left) + 1) {
+      if(height(right._right) >= height(right._left))
+        return new Node(right._service, new Node(service, left, right._left), right._right);
+      return new Node(right._left._service, new Node(service, left, right._left._left),
+                      new Node(right._service, right._left._right, right._right));
+    }
+    return new Node(service, left, right);
+  }
+
+  /**
+   * @return a posicao, por ordem de id, do primeiro servico com um id maior
+   *         do que o dado.
+   */
+  int positionAfter(int id) {
+    int position = 0;
+    Node node = _root;
+    while(node != null) {
+      if(node.id() <= id) {
+        position += size(node._left) + 1;
+        node = node._right;
+      } else
+        node = node._left;
+    }
+    return position;
+  }
+
+  private Service getAt(int position) {
+    if(position < 0 || position >= size())
+      throw new IndexOutOfBoundsException("position " + position + " of " + size());
+    Node node = _root;
+    while(position != size(node._left)) {
+      if(position < size(node._left))
+        node = node._left;
+      else {
+        position -= size(node._left) + 1;
+        node = node._right;
+      }
+    }
+    return node._service;
+  }
+
+  /* the services from the given position on, in id order */
+  private Iterator<Service> iterator(final int from) {
+    final ArrayDeque<Node> path = new ArrayDeque<Node>();
+    int position = from;
+    Node node = _root;
+    while(node != null) {
+      if(position <= size(node._left)) {
+        path.push(node);
+        node = node._left;
+      } else {
+        position -= size(node._left) + 1;
+        node = node._right;
+      }
+    }
+    return new Iterator<Service>() {
+      @Override
+      public boolean hasNext() {
+        return !path.isEmpty();
+      }
+
+      @Override
+      public Service next() {
+        if(path.isEmpty())
+          throw new NoSuchElementException();
+        Node next = path.pop();
+        for(Node n = next._right; n != null; n = n._left)
+          path.push(n);
+        return next._service;
+      }
+    };
+  }
+
+  /**
+   * @return os servicos por ordem de id, numa lista que nao pode ser
+   *         alterada.
+   */
+  List<Service> asList() {
+    return asList(0);
+  }
+
+  private List<Service> asList(final int from) {
+    return new AbstractList<Service>() {
+      @Override
+      public Service get(int index) {
+        return getAt(from + index);
+      }
+
+      @Override
+      public int size() {
+        return ServiceTree.this.size() - from;
+      }
+
+      @Override
+      public Iterator<Service> iterator() {
+        return ServiceTree.this.iterator(from);
+      }
+
+      @Override
+      public List<Service> subList(int fromIndex, int toIndex) {
+        if(fromIndex >= 0 && fromIndex <= toIndex && toIndex == size())
+          return asList(from + fromIndex);
+        return super.subList(fromIndex, toIndex);
+      }
+    };
+  }
+
+}
@@ -0,0 +1,266 @@
+package mmt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.TreeMap;
+
+/**
+ * Reader of the binary snapshot written by SnapshotWriter. The services are
+ * rebuilt from their columns and the itineraries are attached to the very same
+ * service objects, as they were when the snapshot was taken.
+ */
+class SnapshotReader {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private String _filename;
+  private FileChannel _channel;
+  private ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private StationDictionary _stationDictionary = new StationDictionary();
+  private Service[] _services;
+  private long _generation;
+
+  SnapshotReader(String filename) {
+    _filename = filename;
+  }
+
+  /**
+   * Verifica se o ficheiro comeca pelo numero magico de um instantaneo binario.
+   *
+   * @param filename
+   *        ficheiro de input.
+   * @return true caso o ficheiro seja um instantaneo binario.
+   * @throws IOException
+   */
+  static boolean isSnapshot(String filename) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(4);
+      while(header.hasRemaining() && channel.read(header) >= 0);
+      return !header.hasRemaining() && header.getInt(0) == SnapshotWriter.MAGIC;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Le o instantaneo e constroi a companhia correspondente.
+   *
+   * @return a companhia lida.
+   * @throws IOException
+   *         caso o ficheiro nao contenha um instantaneo valido.
+   */
+  TrainCompany read() throws IOException {
+    _channel = FileChannel.open(Paths.get(_filename), StandardOpenOption.READ);
+    _buffer.flip();
+    try {
+      if(getInt() != SnapshotWriter.MAGIC)
+        throw new StreamCorruptedException("bad magic number");
+      int version = getInt();
+      if(version != SnapshotWriter.VERSION)
+        throw new StreamCorruptedException("unsupported snapshot version " + version);
+      _generation = getLong();
+      boolean hasChanged = getBoolean();
+      int passengerCounter = getInt();
+      readStations();
+      TransferTimes transferTimes = readTransferTimes();
+      TreeMap<Integer, Service> services = readServices();
+      TreeMap<Integer, Passenger> passengers = readPassengers();
+      return new TrainCompany(services, _stationDictionary, passengers, passengerCounter, hasChanged,
+                              transferTimes);
+    } finally {
+      _channel.close();
+    }
+  }
+
+  /* generation of the snapshot read, or 0 for a generated snapshot without journal */
+  long getGeneration() {
+    return _generation;
+  }
+
+  private void readStations() throws IOException {
+    int size = readSize();
+    for(int id = 0; id < size; id++)
+      _stationDictionary.intern(readString());
+    if(_stationDictionary.size() != size)
+      throw new StreamCorruptedException("repeated station name");
+  }
+
+  private TransferTimes readTransferTimes() throws IOException {
+    int defaultMinutes = readSize();
+    int size = readSize();
+    TreeMap<Integer, Integer> stationMinutes = new TreeMap<Integer, Integer>();
+    for(int i = 0; i < size; i++)
+      stationMinutes.put(readIndex(_stationDictionary.size()), readSize());
+    return new TransferTimes(defaultMinutes, stationMinutes);
+  }
+
+  private TreeMap<Integer, Service> readServices() throws IOException {
+    int size = readSize();
+    int registered = readSize();
+    int[] ids = new int[size];
+    double[] prices = new double[size];
+    int[] stopCounts = new int[size];
+    for(int i = 0; i < size; i++)
+      ids[i] = getInt();
+    for(int i = 0; i < size; i++)
+      prices[i] = getDouble();
+    for(int i = 0; i < size; i++)
+      stopCounts[i] = readSize();
+    int stops = readSize();
+    int[] stations = new int[stops];
+    int[] seconds = new int[stops];
+    for(int i = 0; i < stops; i++)
+      stations[i] = readIndex(_stationDictionary.size());
+    for(int i = 0; i < stops; i++)
+      seconds[i] = getInt();
+    int[] nanos = new int[stops];
+    if(getBoolean())
+      for(int i = 0; i < stops; i++)
+        nanos[i] = getInt();
+
+    _services = new Service[size];
+    TreeMap<Integer, Service> registry = new TreeMap<Integer, Service>();
+    int stop = 0;
+    for(int i = 0; i < size; i++) {
+      Service service = new Service(ids[i], prices[i], _stationDictionary);
+      for(int j = 0; j < stopCounts[i]; j++, stop++) {
+        if(stop >= stops)
+          throw new StreamCorruptedException("stop count mismatch");
+        if(seconds[stop] < 0 || seconds[stop] >= Service.MINUTES_PER_DAY * 60 ||
+           nanos[stop] < 0 || nanos[stop] >= 1000000000)
+          throw new StreamCorruptedException("bad stop time");
+        service.addStop(stations[stop], seconds[stop], nanos[stop]);
+      }
+      service.trimToSize();
+      _services[i] = service;
+      if(i < registered)
+        registry.put(ids[i], service);
+    }
+    return registry;
+  }
+
+  private TreeMap<Integer, Passenger> readPassengers() throws IOException {
+    int size = readSize();
+    TreeMap<Integer, Passenger> registry = new TreeMap<Integer, Passenger>();
+    for(int i = 0; i < size; i++) {
+      Passenger passenger = new Passenger(getInt(), readString());
+      readCategory(passenger.getCategory());
+      int itineraries = readSize();
+      for(int j = 0; j < itineraries; j++) {
+        passenger.addItinerary(readItinerary(passenger));
+      }
+      registry.put(passenger.getId(), passenger);
+    }
+    return registry;
+  }
+
+  private void readCategory(Category category) throws IOException {
+    byte kind = getByte();
+    double spent = getDouble();
+    long time = getLong();
+    double discount = getDouble();
+    switch(kind) {
+      case SnapshotWriter.NORMAL:
+        category.restore(Category.Tier.NORMAL, spent, time, discount);
+        break;
+      case SnapshotWriter.FREQUENT:
+        category.restore(Category.Tier.FREQUENT, spent, time, discount);
+        break;
+      case SnapshotWriter.SPECIAL:
+        category.restore(Category.Tier.SPECIAL, spent, time, discount);
+        break;
+      default:
+        throw new StreamCorruptedException("unknown category " + kind);
+    }
+  }
+
+  private Itinerary readItinerary(Passenger passenger) throws IOException {
+    /* the saved number is given again by the passenger, from the date */
+    getInt();
+    LocalDate date = LocalDate.ofEpochDay(getLong());
+    double price = getDouble();
+    double discount = getDouble();
+    Itinerary itinerary = new Itinerary(date, passenger, price, discount);
+    int segments = readSize();
+    for(int i = 0; i < segments; i++) {
+      Service service = _services[readIndex(_services.length)];
+      int firstIndex = getInt();
+      int lastIndex = getInt();
+      if(firstIndex < 0 || lastIndex >= service.getNumberOfStations())
+        throw new StreamCorruptedException("segment out of service " + service.getId());
+      double segmentPrice = getDouble();
+      int day = getInt();
+      itinerary.putSegment(new Segment(service, segmentPrice, firstIndex, lastIndex, day));
+    }
+    return itinerary;
+  }
+
+  private int readSize() throws IOException {
+    int size = getInt();
+    if(size < 0)
+      throw new StreamCorruptedException("negative size " + size);
+    return size;
+  }
+
+  private int readIndex(int limit) throws IOException {
+    int index = getInt();
+    if(index < 0 || index >= limit)
+      throw new StreamCorruptedException("index out of bounds " + index);
+    return index;
+  }
+
+  private String readString() throws IOException {
+    byte[] bytes = new byte[readSize()];
+    for(int offset = 0; offset < bytes.length; ) {
+      require(1);
+      int length = Math.min(_buffer.remaining(), bytes.length - offset);
+      _buffer.get(bytes, offset, length);
+      offset += length;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /* makes sure the buffer holds at least the given number of bytes */
+  private void require(int bytes) throws IOException {
+    if(_buffer.remaining() >= bytes)
+      return;
+    _buffer.compact();
+    while(_buffer.position() < bytes)
+      if(_channel.read(_buffer) < 0)
+        throw new EOFException();
+    _buffer.flip();
+  }
+
+  private byte getByte() throws IOException {
+    require(1);
+    return _buffer.get();
+  }
+
+  private boolean getBoolean() throws IOException {
+    return getByte() != 0;
+  }
+
+  private int getInt() throws IOException {
+    require(4);
+    return _buffer.getInt();
+  }
+
+  private long getLong() throws IOException {
+    require(8);
+    return _buffer.getLong();
+  }
+
+  private double getDouble() throws IOException {
+    require(8);
+    return _buffer.getDouble();
+  }
+
+}
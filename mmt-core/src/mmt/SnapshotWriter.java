@@ -0,0 +1,289 @@
+package mmt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the binary snapshot of a train company. The snapshot starts with a
+ * magic number, a format version and a generation number, shared with the
+ * journal of the changes made after it (see Journal), followed by the table of station names,
+ * the minimum transfer times, the services as columns of ids, prices, stop counts, stop stations and stop
+ * times, and the passengers with their categories and itineraries, each segment
+ * with the day its service leaves on. Itineraries
+ * refer to services and stations by their position in those tables, so that no
+ * object is written more than once. All numbers are big-endian.
+ */
+class SnapshotWriter {
+
+  /** "MMTS" */
+  static final int MAGIC = 0x4D4D5453;
+  static final int VERSION = 1;
+
+  static final byte NORMAL = 0;
+  static final byte FREQUENT = 1;
+  static final byte SPECIAL = 2;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private TrainCompany _company;
+  private long _generation;
+  private FileChannel _channel;
+  private ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private Path _target;
+  private Path _temporary;
+
+  /* services in table order, and the position of each one */
+  private List<Service> _services = new ArrayList<Service>();
+  private IdentityHashMap<Service, Integer> _servicePositions = new IdentityHashMap<Service, Integer>();
+
+  SnapshotWriter(TrainCompany company, long generation) {
+    _company = company;
+    _generation = generation;
+  }
+
+  /* a writer fed piece by piece, for data that is not held in a company */
+  SnapshotWriter(long generation) {
+    _generation = generation;
+  }
+
+  /**
+   * Escreve o instantaneo da companhia no ficheiro dado.
+   *
+   * @param filename
+   *        ficheiro de output.
+   * @throws IOException
+   */
+  void write(String filename) throws IOException {
+    begin(filename);
+    try {
+      collectServices();
+      writeHeader(_company.getFlag(), _company.getPassengerCounter());
+      writeStations(_company.getStationDictionary());
+      writeTransferTimes(_company.getTransferTimes());
+      writeServices(_company.getServices().size());
+      Collection<Passenger> passengers = _company.getPassengers();
+      writePassengerCount(passengers.size());
+      for(Passenger p: passengers)
+        writePassenger(p);
+      commit();
+    } finally {
+      abort();
+    }
+  }
+
+  /**
+   * Comeca a escrita de um instantaneo. O ficheiro dado so e substituido em
+   * commit, quando o instantaneo estiver completo; pode ser um horario ainda
+   * mapeado.
+   *
+   * @param filename
+   *        ficheiro de output.
+   * @throws IOException
+   */
+  void begin(String filename) throws IOException {
+    _target = Paths.get(filename).toAbsolutePath();
+    _temporary = Files.createTempFile(_target.getParent(), _target.getFileName().toString(), ".tmp");
+    try {
+      _channel = FileChannel.open(_temporary, StandardOpenOption.WRITE);
+    } catch(IOException e) {
+      Files.deleteIfExists(_temporary);
+      throw e;
+    }
+  }
+
+  /* puts the complete snapshot in place of the target file */
+  void commit() throws IOException {
+    flush();
+    _channel.close();
+    Files.move(_temporary, _target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /* drops a snapshot left incomplete; does nothing after commit */
+  void abort() throws IOException {
+    _channel.close();
+    Files.deleteIfExists(_temporary);
+  }
+
+  /*
+   * The registered services come first; services that were replaced in the
+   * registry but are still referred to by some itinerary follow them.
+   */
+  private void collectServices() {
+    for(Service s: _company.getServices())
+      addService(s);
+    for(Passenger p: _company.getPassengers())
+      for(Itinerary i: p.getItineraryList())
+        for(Segment seg: i.getSegments())
+          addService(seg.getService());
+  }
+
+  /* gives the service the next position in the table of services */
+  void addService(Service service) {
+    if(!_servicePositions.containsKey(service)) {
+      _servicePositions.put(service, _services.size());
+      _services.add(service);
+    }
+  }
+
+  void writeHeader(boolean hasChanged, int passengerCounter) throws IOException {
+    putInt(MAGIC);
+    putInt(VERSION);
+    putLong(_generation);
+    putBoolean(hasChanged);
+    putInt(passengerCounter);
+  }
+
+  void writeStations(StationDictionary dictionary) throws IOException {
+    putInt(dictionary.size());
+    for(int id = 0; id < dictionary.size(); id++)
+      writeString(dictionary.getName(id));
+  }
+
+  /* the default minutes, then the stations with their own, by station id */
+  void writeTransferTimes(TransferTimes transferTimes) throws IOException {
+    putInt(transferTimes.getDefaultMinutes());
+    putInt(transferTimes.getStationMinutes().size());
+    for(Map.Entry<Integer, Integer> e: transferTimes.getStationMinutes().entrySet()) {
+      putInt(e.getKey());
+      putInt(e.getValue());
+    }
+  }
+
+  /* the services added so far, the first of which are the registered ones */
+  void writeServices(int registered) throws IOException {
+    putInt(_services.size());
+    putInt(registered);
+    int stops = 0;
+    boolean nanos = false;
+    for(Service s: _services) {
+      stops += s.getNumberOfStations();
+      for(int i = 0; i < s.getNumberOfStations(); i++)
+        nanos |= s.getNano(i) != 0;
+    }
+
+    for(Service s: _services)
+      putInt(s.getId());
+    for(Service s: _services)
+      putDouble(s.getPrice());
+    for(Service s: _services)
+      putInt(s.getNumberOfStations());
+    putInt(stops);
+    for(Service s: _services)
+      for(int i = 0; i < s.getNumberOfStations(); i++)
+        putInt(s.getStationId(i));
+    for(Service s: _services)
+      for(int i = 0; i < s.getNumberOfStations(); i++)
+        putInt(s.getSecondOfDay(i));
+    putBoolean(nanos);
+    if(nanos)
+      for(Service s: _services)
+        for(int i = 0; i < s.getNumberOfStations(); i++)
+          putInt(s.getNano(i));
+  }
+
+  void writePassengerCount(int passengers) throws IOException {
+    putInt(passengers);
+  }
+
+  /* a passenger whose itineraries use only services already written */
+  void writePassenger(Passenger p) throws IOException {
+    putInt(p.getId());
+    writeString(p.getName());
+    writeCategory(p.getCategory());
+    List<Itinerary> itineraries = p.getItineraryList();
+    putInt(itineraries.size());
+    for(Itinerary i: itineraries)
+      writeItinerary(i);
+  }
+
+  private void writeCategory(Category category) throws IOException {
+    switch(category.getTier()) {
+      case SPECIAL:
+        putByte(SPECIAL);
+        break;
+      case FREQUENT:
+        putByte(FREQUENT);
+        break;
+      default:
+        putByte(NORMAL);
+    }
+    putDouble(category.getSpent());
+    putLong(category.getTime());
+    putDouble(category.getDiscount());
+  }
+
+  private void writeItinerary(Itinerary itinerary) throws IOException {
+    putInt(itinerary.getId());
+    putLong(itinerary.getDate().toEpochDay());
+    putDouble(itinerary.getPrice());
+    putDouble(itinerary.getDiscountWhenBought());
+    putInt(itinerary.getSegments().size());
+    for(Segment seg: itinerary.getSegments()) {
+      putInt(_servicePositions.get(seg.getService()));
+      putInt(seg.getFirstIndex());
+      putInt(seg.getLastIndex());
+      putDouble(seg.getPrice());
+      putInt(seg.getDay());
+    }
+  }
+
+  private void writeString(String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    putInt(bytes.length);
+    for(int offset = 0; offset < bytes.length; ) {
+      ensure(1);
+      int length = Math.min(_buffer.remaining(), bytes.length - offset);
+      _buffer.put(bytes, offset, length);
+      offset += length;
+    }
+  }
+
+  private void ensure(int bytes) throws IOException {
+    if(_buffer.remaining() < bytes)
+      flush();
+  }
+
+  private void flush() throws IOException {
+    _buffer.flip();
+    while(_buffer.hasRemaining())
+      _channel.write(_buffer);
+    _buffer.clear();
+  }
+
+  private void putByte(byte value) throws IOException {
+    ensure(1);
+    _buffer.put(value);
+  }
+
+  private void putBoolean(boolean value) throws IOException {
+    putByte(value ? (byte)1 : (byte)0);
+  }
+
+  private void putInt(int value) throws IOException {
+    ensure(4);
+    _buffer.putInt(value);
+  }
+
+  private void putLong(long value) throws IOException {
+    ensure(8);
+    _buffer.putLong(value);
+  }
+
+  private void putDouble(double value) throws IOException {
+    ensure(8);
+    _buffer.putDouble(value);
+  }
+
+}
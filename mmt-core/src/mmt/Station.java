@@ -1,37 +1,79 @@
 package mmt;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalTime;
 
+/**
+ * A stop of a service: a station and the time the service leaves it. The
+ * stops are kept by their service (see Service), which builds a station for
+ * whoever asks for one; changing it would not change the service, so it cannot
+ * be changed, and setName and setDeparture are gone.
+ */
 public class Station implements Serializable {
-  private String _name;
+
+  /** Serial number for serialization, as the class always had. */
+  private static final long serialVersionUID = 7603045117660996489L;
+
+  /* not final only so that they can be read back */
+  private int _id;
   private LocalTime _departure;
+  private StationDictionary _dictionary;
+
+  public Station(int id, LocalTime time, StationDictionary dictionary) {
+    _id = id;
+    _departure = time;
+    _dictionary = dictionary;
+  }
 
+  /**
+   * @deprecated a station is the id of a name in a dictionary. This one has a
+   *             dictionary of its own, and the service it is added to interns
+   *             the name in its dictionary.
+   */
+  @Deprecated
   public Station(String name, LocalTime time) {
-    _name = name;
+    _dictionary = new StationDictionary();
+    _id = _dictionary.intern(name);
     _departure = time;
   }
 
+  public int getId() {
+    return _id;
+  }
+
+  /* the name is only resolved when needed, stations are compared by id */
   public String getName() {
-    return _name;
+    return _dictionary.getName(_id);
   }
 
   public LocalTime getDeparture() {
     return _departure;
   }
 
-  public void setName(String name) {
-    _name = name;
+  StationDictionary getDictionary() {
+    return _dictionary;
   }
 
-  public void setDeparture(LocalTime time) {
-    _departure = time;
+  /* older versions kept the name itself, which is then given a dictionary of
+     its own until the company interns it (see Service.restore) */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    _departure = (LocalTime) fields.get("_departure", null);
+    if(fields.defaulted("_dictionary")) {
+      _dictionary = new StationDictionary();
+      _id = _dictionary.intern((String) fields.get("_name", null));
+    } else {
+      _id = fields.get("_id", 0);
+      _dictionary = (StationDictionary) fields.get("_dictionary", null);
+    }
   }
 
   @SuppressWarnings("nls")
   @Override
   public String toString() {
-    return _departure + " " + _name;
+    return _departure + " " + getName();
   }
 
   /* compares stations based on the station name */
@@ -0,0 +1,100 @@
+package mmt;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of station names. Every distinct name is given a dense integer
+ * identifier the first time it is seen, so that stations are compared and
+ * indexed by number and names are only resolved for display. Names are only
+ * ever added, so lookups take no lock: only a new name is added under the
+ * monitor of the dictionary.
+ */
+public class StationDictionary implements Serializable {
+
+  /** Serial number for serialization. */
+  private static final long serialVersionUID = 201711201410L;
+
+  /* the serialized form is still the map of ids and the list of names */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("_ids", HashMap.class),
+    new ObjectStreamField("_names", ArrayList.class)
+  };
+
+  private ConcurrentHashMap<String, Integer> _ids = new ConcurrentHashMap<String, Integer>();
+  /* a new name is written to the array before the array and then the size
+     are published, and is only put in the map after that */
+  private volatile String[] _names = new String[16];
+  private volatile int _size;
+
+  /**
+   * @param name
+   *        nome da estacao.
+   * @return o identificador da estacao, atribuindo um novo caso o nome ainda
+   *         nao seja conhecido.
+   */
+  public int intern(String name) {
+    Integer id = _ids.get(name);
+    if(id != null)
+      return id;
+    synchronized(this) {
+      id = _ids.get(name);
+      if(id == null) {
+        id = _size;
+        String[] names = _names;
+        if(id == names.length)
+          names = Arrays.copyOf(names, id * 2);
+        names[id] = name;
+        _names = names;
+        _size = id + 1;
+        _ids.put(name, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * @param name
+   *        nome da estacao.
+   * @return o identificador da estacao, ou -1 caso o nome nao seja conhecido.
+   */
+  public int getId(String name) {
+    Integer id = _ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+  public String getName(int id) {
+    int size = _size;
+    if(id < 0 || id >= size)
+      throw new IndexOutOfBoundsException("Index: " + id + ", Size: " + size);
+    return _names[id];
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("_ids", new HashMap<String, Integer>(_ids));
+    fields.put("_names", new ArrayList<String>(Arrays.asList(_names).subList(0, _size)));
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    List<?> names = (List<?>) in.readFields().get("_names", null);
+    _ids = new ConcurrentHashMap<String, Integer>();
+    _names = new String[Math.max(names.size(), 16)];
+    for(Object name: names)
+      intern((String) name);
+  }
+
+}
@@ -0,0 +1,180 @@
+package mmt;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Inverted index from stations to the services that depart from, arrive at or
+ * pass through them. The lists of departing and arriving services are kept
+ * sorted, so that a query costs only the size of its result. A copy shares
+ * the lists of the index it was made from, and a list shared by a copy is
+ * only copied by the first change made to it afterwards.
+ */
+class StationIndex {
+
+  private Comparator<Service> _departureOrder;
+  private Comparator<Service> _arrivalOrder;
+  private Comparator<Service> _idOrder = new Comparator<Service>() {
+    @Override
+    public int compare(Service service1, Service service2) {
+      return Integer.compare(service1.getId(), service2.getId());
+    }
+  };
+
+  /* indexed by station id */
+  private ArrayList<ArrayList<Service>> _departing = new ArrayList<ArrayList<Service>>();
+  private ArrayList<ArrayList<Service>> _arriving = new ArrayList<ArrayList<Service>>();
+  private ArrayList<ArrayList<Service>> _passing = new ArrayList<ArrayList<Service>>();
+  /* the lists of each kind not shared with a copy, which can be changed in place */
+  private BitSet _ownsDeparting = new BitSet();
+  private BitSet _ownsArriving = new BitSet();
+  private BitSet _ownsPassing = new BitSet();
+
+  /**
+   * @param departureComparator
+   *        ordem dos servicos que partem de uma estacao.
+   * @param arrivalComparator
+   *        ordem dos servicos que chegam a uma estacao.
+   */
+  StationIndex(Comparator<Service> departureComparator, Comparator<Service> arrivalComparator) {
+    /* ties are broken by id, as when sorting the services registry */
+    _departureOrder = departureComparator.thenComparing(_idOrder);
+    _arrivalOrder = arrivalComparator.thenComparing(_idOrder);
+  }
+
+  /* a copy, which takes the orders already broken by id */
+  private StationIndex(StationIndex index) {
+    _departureOrder = index._departureOrder;
+    _arrivalOrder = index._arrivalOrder;
+    _departing = new ArrayList<ArrayList<Service>>(index._departing);
+    _arriving = new ArrayList<ArrayList<Service>>(index._arriving);
+    _passing = new ArrayList<ArrayList<Service>>(index._passing);
+  }
+
+  /* the list of a station, to be changed; a list shared with a copy is copied first */
+  private static ArrayList<Service> list(ArrayList<ArrayList<Service>> lists, BitSet owned, int stationId) {
+    while(lists.size() <= stationId) {
+      owned.set(lists.size());
+      lists.add(new ArrayList<Service>());
+    }
+    if(!owned.get(stationId)) {
+      lists.set(stationId, new ArrayList<Service>(lists.get(stationId)));
+      owned.set(stationId);
+    }
+    return lists.get(stationId);
+  }
+
+  private static void insert(List<Service> services, Service service, Comparator<Service> order) {
+    /* services usually arrive already in order */
+    if(services.isEmpty() || order.compare(services.get(services.size() - 1), service) < 0) {
+      services.add(service);
+      return;
+    }
+    int index = Collections.binarySearch(services, service, order);
+    if(index < 0)
+      services.add(-index - 1, service);
+  }
+
+  private static void remove(List<Service> services, Service service, Comparator<Service> order) {
+    int index = Collections.binarySearch(services, service, order);
+    if(index >= 0)
+      services.remove(index);
+  }
+
+  /**
+   * Indexa um servico completo, com todas as suas estacoes.
+   */
+  void addService(Service service) {
+    if(service.getNumberOfStations() == 0)
+      return;
+    insert(list(_departing, _ownsDeparting, service.getStationId(0)), service, _departureOrder);
+    insert(list(_arriving, _ownsArriving, service.getStationId(service.getNumberOfStations() - 1)), service,
+           _arrivalOrder);
+    for(int i = 0; i < service.getNumberOfStations(); i++)
+      insert(list(_passing, _ownsPassing, service.getStationId(i)), service, _idOrder);
+  }
+
+  /**
+   * Indexa de uma so vez um conjunto de servicos completos. As listas sao
+   * ordenadas apenas no fim, em vez de a cada insercao.
+   */
+  void addServices(Collection<Service> services) {
+    for(Service service: services) {
+      if(service.getNumberOfStations() == 0)
+        continue;
+      list(_departing, _ownsDeparting, service.getStationId(0)).add(service);
+      list(_arriving, _ownsArriving, service.getStationId(service.getNumberOfStations() - 1)).add(service);
+      for(int i = 0; i < service.getNumberOfStations(); i++)
+        list(_passing, _ownsPassing, service.getStationId(i)).add(service);
+    }
+    for(int st = 0; st < _departing.size(); st++)
+      list(_departing, _ownsDeparting, st).sort(_departureOrder);
+    for(int st = 0; st < _arriving.size(); st++)
+      list(_arriving, _ownsArriving, st).sort(_arrivalOrder);
+    for(int st = 0; st < _passing.size(); st++) {
+      ArrayList<Service> passing = list(_passing, _ownsPassing, st);
+      passing.sort(_idOrder);
+      /* a service stopping twice at a station is indexed only once */
+      int kept = 0;
+      for(int i = 0; i < passing.size(); i++)
+        if(kept == 0 || passing.get(kept - 1) != passing.get(i))
+          passing.set(kept++, passing.get(i));
+      passing.subList(kept, passing.size()).clear();
+    }
+  }
+
+  /**
+   * Retira um servico do indice. Deve ser invocado antes de o servico ser
+   * alterado, enquanto as chaves de ordenacao ainda sao as indexadas.
+   */
+  void removeService(Service service) {
+    if(service.getNumberOfStations() == 0)
+      return;
+    remove(list(_departing, _ownsDeparting, service.getStationId(0)), service, _departureOrder);
+    remove(list(_arriving, _ownsArriving, service.getStationId(service.getNumberOfStations() - 1)), service,
+           _arrivalOrder);
+    for(int i = 0; i < service.getNumberOfStations(); i++)
+      remove(list(_passing, _ownsPassing, service.getStationId(i)), service, _idOrder);
+  }
+
+  /**
+   * @return uma copia do indice, que pode continuar a ser alterado sem afetar
+   *         a copia. A copia partilha as listas de cada estacao, que o indice
+   *         so copia quando as voltar a alterar.
+   */
+  StationIndex copy() {
+    _ownsDeparting.clear();
+    _ownsArriving.clear();
+    _ownsPassing.clear();
+    return new StationIndex(this);
+  }
+
+  /* whether some service stops at the station */
+  boolean hasServices(int stationId) {
+    return stationId >= 0 && stationId < _passing.size() && !_passing.get(stationId).isEmpty();
+  }
+
+  /* queries never grow the lists, so that a copy no longer changed can be read concurrently */
+  private static List<Service> find(ArrayList<ArrayList<Service>> lists, int stationId) {
+    if(stationId < 0 || stationId >= lists.size())
+      return Collections.emptyList();
+    return Collections.unmodifiableList(lists.get(stationId));
+  }
+
+  List<Service> getDepartingServices(int stationId) {
+    return find(_departing, stationId);
+  }
+
+  List<Service> getArrivingServices(int stationId) {
+    return find(_arriving, stationId);
+  }
+
+  List<Service> getPassingServices(int stationId) {
+    return find(_passing, stationId);
+  }
+
+}
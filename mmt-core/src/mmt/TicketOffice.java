@@ -1,20 +1,23 @@
 package mmt;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 
 import mmt.exceptions.BadDateSpecificationException;
+import mmt.exceptions.BadEntryException;
 import mmt.exceptions.BadTimeSpecificationException;
 import mmt.exceptions.ImportFileException;
 import mmt.exceptions.InvalidPassengerNameException;
 import mmt.exceptions.MissingFileAssociationException;
 import mmt.exceptions.NoSuchPassengerIdException;
+import mmt.exceptions.NoSuchPassengerNameException;
 import mmt.exceptions.NoSuchServiceIdException;
 import mmt.exceptions.NoSuchStationNameException;
 import mmt.exceptions.NoSuchItineraryChoiceException;
@@ -25,21 +28,39 @@ import java.util.TreeMap;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
 import java.time.LocalTime;
 import java.time.LocalDate;
 
 
 /**
- * Façade for handling persistence and other functions.
+ * Façade for handling persistence and other functions. Searches, listings and
+ * purchases may be made from several threads at once; loading, saving and
+ * importing replace or freeze the company and are done one at a time.
  */
 public class TicketOffice {
 
   /** The object doing most of the actual work. */
-  private TrainCompany _trains = new TrainCompany();
+  private volatile TrainCompany _trains = new TrainCompany();
+
+  /** Quote of the last search, for the single-session commitItinerary. */
+  private volatile Quote _lastQuote;
 
   private String _fileName;
 
+  /** Journal of the changes saved after the last snapshot of _fileName. */
+  private Journal _journal;
+  private long _snapshotSize;
+
+  private Random _generations = new Random();
+
+  /** Size of the search cache, kept for the companies loaded later. */
+  private volatile int _searchCacheSize = SearchCache.DEFAULT_SIZE;
+
   public String getFileName() {
     return _fileName;
   }
@@ -52,6 +73,26 @@ public class TicketOffice {
     _trains.addStationToService(id, name, time);
   }
 
+  /**
+   * Altera os minutos necessarios para mudar de comboio na estacao dada; as
+   * procuras seguintes so propoem transbordos com pelo menos esse tempo.
+   */
+  public void setTransferTime(String stationName, int minutes) throws NoSuchStationNameException {
+    _trains.setTransferTime(stationName, minutes);
+  }
+
+  /**
+   * Altera os minutos necessarios para mudar de comboio nas estacoes sem um
+   * tempo proprio.
+   */
+  public void setDefaultTransferTime(int minutes) {
+    _trains.setDefaultTransferTime(minutes);
+  }
+
+  public TransferTimes getTransferTimes() {
+    return _trains.getTransferTimes();
+  }
+
   public final Service getService(int id) throws NoSuchServiceIdException {
     return _trains.getService(id);
   }
@@ -60,6 +101,49 @@ public class TicketOffice {
     return _trains.getServices();
   }
 
+  /**
+   * @return os servicos depois do cursor dado, por ordem de id; a primeira
+   *         pagina e a que vem depois de Page.START.
+   */
+  public Page<Service> getServices(int after, int pageSize) {
+    return _trains.getServices(after, pageSize);
+  }
+
+  /**
+   * @return os servicos que param na estacao dada, depois do cursor dado.
+   */
+  public Page<Service> getServicesAtStation(String stationName, int after, int pageSize)
+                                            throws NoSuchStationNameException {
+    return _trains.getServicesAtStation(stationName, after, pageSize);
+  }
+
+  /**
+   * @return a cache das procuras da companhia atual, com as suas contagens.
+   */
+  public SearchCache getSearchCache() {
+    return _trains.getSearchCache();
+  }
+
+  /**
+   * Altera o numero maximo de procuras guardadas, para a companhia atual e
+   * para as que forem carregadas depois; com 0 nada e guardado.
+   *
+   * @param size
+   *        numero maximo de entradas da cache.
+   */
+  public synchronized void setSearchCacheSize(int size) {
+    _trains.getSearchCache().setMaximumSize(size);
+    _searchCacheSize = size;
+  }
+
+  private void configureSearchCache() {
+    _trains.getSearchCache().setMaximumSize(_searchCacheSize);
+  }
+
+  public Timetable getTimetable() {
+    return _trains.getTimetable();
+  }
+
   public Collection<Service> getServicesDepartingFromStation(String stationName) throws NoSuchStationNameException {
     return _trains.getServicesDepartingFromStation(stationName);
   }
@@ -80,43 +164,213 @@ public class TicketOffice {
     return _trains.getPassenger(id);
   }
 
+  public final Passenger getPassenger(String name) throws NoSuchPassengerNameException {
+    return _trains.getPassenger(name);
+  }
+
   public Collection<Passenger> getPassengers() {
     return _trains.getPassengers();
   }
 
-  public void reset() {
+  /**
+   * @return os passageiros depois do cursor dado, por ordem de id; a
+   *         primeira pagina e a que vem depois de Page.START.
+   */
+  public Page<Passenger> getPassengers(int after, int pageSize) {
+    return _trains.getPassengers(null, after, pageSize);
+  }
+
+  /**
+   * @return os passageiros do escalao dado, depois do cursor dado.
+   */
+  public Page<Passenger> getPassengers(Category.Tier tier, int after, int pageSize) {
+    return _trains.getPassengers(tier, after, pageSize);
+  }
+
+  /**
+   * @return os itinerarios do passageiro, por ordem de data, depois do numero
+   *         de itinerario dado.
+   */
+  public Page<Itinerary> getItineraries(int passengerId, int after, int pageSize)
+                                        throws NoSuchPassengerIdException {
+    return _trains.getPassenger(passengerId).getItineraries(after, pageSize);
+  }
+
+  /**
+   * Escreve todos os passageiros, um por linha, como sao listados.
+   *
+   * @param out
+   *        destino da listagem.
+   * @throws IOException
+   *         caso nao seja possivel escrever no destino.
+   */
+  public void writePassengers(Appendable out) throws IOException {
+    ReportWriter writer = new ReportWriter(out);
+    for(Passenger p: _trains.getPassengers()) {
+      writer.writePassenger(p);
+      out.append('\n');
+    }
+    checkReport(writer);
+  }
+
+  /**
+   * Escreve os itinerarios de todos os passageiros que tenham algum, como sao
+   * listados.
+   *
+   * @param out
+   *        destino da listagem.
+   * @throws IOException
+   *         caso nao seja possivel escrever no destino.
+   */
+  public void writeItineraries(Appendable out) throws IOException {
+    ReportWriter writer = new ReportWriter(out);
+    for(Passenger p: _trains.getPassengers())
+      if(p.getTotalIt() > 0)
+        writer.writeItineraries(p);
+    checkReport(writer);
+  }
+
+  private void checkReport(ReportWriter writer) throws IOException {
+    if(writer.ioException() != null)
+      throw writer.ioException();
+  }
+
+  public synchronized void reset() {
+    closeJournal();
     _fileName = null;
-    _trains = new TrainCompany(_trains.getAllServices());
+    _lastQuote = null;
+    /* the timetable is immutable, so the new company can share it */
+    _trains = new TrainCompany(_trains.getTimetable());
+    configureSearchCache();
   }
 
-  public void save(String filename) throws FileNotFoundException, IOException, ClassNotFoundException {
-    if( _trains.getFlag()) {
-      if(filename == "") {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(_fileName));
-        out.writeObject(_trains);
-        out.close();
+  /**
+   * Guarda a companhia. Se o ficheiro for o ja associado e so tiverem mudado
+   * passageiros e itinerarios, as alteracoes sao acrescentadas ao journal do
+   * ficheiro; caso contrario, ou quando o journal ja for grande face ao
+   * instantaneo, e escrito um novo instantaneo binario (ver SnapshotWriter).
+   */
+  public synchronized void save(String filename) throws FileNotFoundException, IOException, ClassNotFoundException {
+    /* no change may slip in between writing it out and marking it saved */
+    Lock lock = _trains.exclusiveLock();
+    lock.lock();
+    try {
+      if( _trains.getFlag()) {
+        if(filename == "") {
+          write(_fileName);
+        }
+        else {
+          write(filename);
+          _fileName = filename;
+        }
+        _trains.markSaved();
       }
-      else {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename));
-        out.writeObject(_trains);
-        out.close();
-        _fileName = filename;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void write(String filename) throws FileNotFoundException, IOException {
+    if(_journal != null && filename.equals(_fileName) && !_trains.needsSnapshot() &&
+       _journal.size() < _snapshotSize / 2) {
+      _journal.append(_trains.getJournalRecords());
+      return;
+    }
+    closeJournal();
+    long generation;
+    do {
+      generation = _generations.nextLong();
+    } while(generation == 0);
+    try {
+      new SnapshotWriter(_trains, generation).write(filename);
+      _journal = Journal.create(filename, generation);
+      _snapshotSize = Files.size(Paths.get(filename));
+    } catch(NoSuchFileException | AccessDeniedException e) {
+      throw new FileNotFoundException(e.getMessage());
+    }
+  }
+
+  private void closeJournal() {
+    if(_journal != null) {
+      try {
+        _journal.close();
+      } catch(IOException e) {
+        // every append was already forced to disk
       }
+      _journal = null;
     }
   }
 
-  public void load(String filename) throws FileNotFoundException, IOException, ClassNotFoundException {
-    ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
-    _trains = (TrainCompany) in.readObject();
-    in.close();
+  /**
+   * Le a companhia de um instantaneo binario ou, caso o ficheiro tenha sido
+   * escrito por uma versao anterior, por serializacao Java. As alteracoes
+   * guardadas no journal do instantaneo sao aplicadas de seguida. Um ficheiro
+   * de horario e aberto como em openTimetable.
+   */
+  public synchronized void load(String filename) throws FileNotFoundException, IOException, ClassNotFoundException {
+    try {
+      if(TimetableStore.isTimetable(filename)) {
+        openTimetable(filename);
+        return;
+      }
+      closeJournal();
+      if(SnapshotReader.isSnapshot(filename)) {
+        SnapshotReader reader = new SnapshotReader(filename);
+        _trains = reader.read();
+        if(reader.getGeneration() != 0)
+          _journal = Journal.replay(filename, reader.getGeneration(), _trains);
+        _snapshotSize = Files.size(Paths.get(filename));
+      }
+      else {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        _trains = (TrainCompany) in.readObject();
+        in.close();
+      }
+    } catch(NoSuchFileException | AccessDeniedException e) {
+      throw new FileNotFoundException(e.getMessage());
+    }
+    _trains.markSaved();
+    configureSearchCache();
     _fileName = filename;
+    _lastQuote = null;
   }
 
-  public void importFile(String datafile) throws ImportFileException {
+  /**
+   * Abre um horario mapeado em memoria, sem passageiros. Os servicos sao lidos
+   * do ficheiro apenas quando sao pedidos. Tal como numa importacao, o
+   * ficheiro nao fica associado a companhia, que e guardada noutro ficheiro.
+   */
+  public synchronized void openTimetable(String filename) throws FileNotFoundException, IOException {
+    closeJournal();
     try {
-      _trains.importFile(datafile);
+      _trains = new TrainCompany(TimetableStore.open(filename));
+      configureSearchCache();
+    } catch(NoSuchFileException | AccessDeniedException e) {
+      throw new FileNotFoundException(e.getMessage());
+    }
+    _fileName = null;
+    _lastQuote = null;
+  }
+
+  /**
+   * Guarda os servicos atuais num ficheiro de horario, que pode depois ser
+   * aberto com openTimetable.
+   */
+  public synchronized void saveTimetable(String filename) throws FileNotFoundException, IOException {
+    try {
+      TimetableStore.write(_trains.getTimetable(), filename);
+    } catch(NoSuchFileException | AccessDeniedException e) {
+      throw new FileNotFoundException(e.getMessage());
+    }
+  }
+
+  public synchronized ImportStatistics importFile(String datafile) throws ImportFileException {
+    try {
+      return _trains.importFile(datafile);
     } catch(IOException e) {
       throw new ImportFileException();
+    } catch(BadEntryException e) {
+      throw new ImportFileException();
     } catch(NonUniquePassengerNameException e) {
       throw new ImportFileException();
     } catch(NoSuchPassengerIdException e) {
@@ -126,28 +380,18 @@ public class TicketOffice {
     }
   }
 
-  public Collection<Itinerary> search(int passengerId, String departureStation, String arrivalStation,
-                                      String departureDate, String departureTime) throws NoSuchPassengerIdException,
-                                      NoSuchStationNameException, NoSuchServiceIdException,
-                                      BadDateSpecificationException, BadTimeSpecificationException {
+  /**
+   * Procura os itinerarios entre duas estacoes e devolve-os numa cotacao
+   * propria de quem a pediu, que pode depois ser usada em commitItinerary.
+   */
+  public Quote quote(int passengerId, String departureStation, String arrivalStation,
+                     String departureDate, String departureTime) throws NoSuchPassengerIdException,
+                     NoSuchStationNameException, BadDateSpecificationException, BadTimeSpecificationException {
 
     try {
       LocalDate date = LocalDate.parse(departureDate);
       LocalTime time = LocalTime.parse(departureTime);
-      List<Itinerary> itineraries = new ArrayList<Itinerary>();
-      List<Service> allServices = new ArrayList<Service>();
-      allServices.addAll(_trains.getServices());
-      List<Station> serviceStations = new ArrayList<Station>();
-      serviceStations.addAll(allServices.get(0).getStations());
-      Itinerary currentItinerary = new Itinerary(date, getPassenger(passengerId));
-      List<Station> currentSegmentStations = new ArrayList<Station>();
-
-      List<Itinerary> sortedItineraries = _trains.search(passengerId, departureStation, departureStation,
-                                                       arrivalStation, date, time, itineraries,
-                                                       allServices, serviceStations,
-                                                       currentItinerary, currentSegmentStations);
-
-      return Collections.unmodifiableCollection(sortedItineraries);
+      return _trains.search(passengerId, departureStation, arrivalStation, date, time);
 
     } catch(DateTimeParseException e) {
         if(e.getParsedString().equals(departureDate)) {
@@ -159,10 +403,94 @@ public class TicketOffice {
     }
   }
 
+  /**
+   * Faz um lote de procuras para um passageiro, entregando cada cotacao ao
+   * listener logo que e encontrada (ver TrainCompany.searchAll).
+   */
+  public void quoteAll(int passengerId, List<SearchQuery> queries, SearchListener listener)
+    throws NoSuchPassengerIdException, InterruptedException {
+
+    _trains.searchAll(passengerId, queries, listener);
+  }
+
+  /**
+   * Faz um lote de procuras para um passageiro como quoteAll, no executor
+   * dado (ver TrainCompany.searchAll).
+   */
+  public void quoteAll(int passengerId, List<SearchQuery> queries, SearchListener listener, Executor executor)
+    throws NoSuchPassengerIdException, InterruptedException {
+
+    _trains.searchAll(passengerId, queries, listener, executor);
+  }
+
+  /**
+   * Procura a viagem que chega mais cedo a cada estacao, partindo da estacao
+   * dada a partir da hora dada (ver TrainCompany.earliestArrivals).
+   */
+  public Map<String, Journey> earliestArrivals(String departureStation, String departureTime)
+    throws NoSuchStationNameException, BadTimeSpecificationException {
+
+    try {
+      return _trains.earliestArrivals(departureStation, LocalTime.parse(departureTime));
+    } catch(DateTimeParseException e) {
+      throw new BadTimeSpecificationException(departureTime);
+    }
+  }
+
+  /**
+   * Procura as viagens Pareto-otimas para cada estacao, partindo da estacao
+   * dada entre as duas horas dadas (ver TrainCompany.profile).
+   */
+  public Map<String, List<Journey>> profile(String departureStation, String from, String until)
+    throws NoSuchStationNameException, BadTimeSpecificationException {
+
+    LocalTime first;
+    LocalTime last;
+    try {
+      first = LocalTime.parse(from);
+    } catch(DateTimeParseException e) {
+      throw new BadTimeSpecificationException(from);
+    }
+    try {
+      last = LocalTime.parse(until);
+    } catch(DateTimeParseException e) {
+      throw new BadTimeSpecificationException(until);
+    }
+    return _trains.profile(departureStation, first, last);
+  }
+
+  public Collection<Itinerary> search(int passengerId, String departureStation, String arrivalStation,
+                                      String departureDate, String departureTime) throws NoSuchPassengerIdException,
+                                      NoSuchStationNameException, NoSuchServiceIdException,
+                                      BadDateSpecificationException, BadTimeSpecificationException {
+
+    Quote quote = quote(passengerId, departureStation, arrivalStation, departureDate, departureTime);
+    _lastQuote = quote;
+    return Collections.unmodifiableCollection(quote.getItineraries());
+  }
+
+  /**
+   * Compra um itinerario da ultima procura feita com search. Serve uma unica
+   * sessao; sessoes concorrentes devem usar quote e commitItinerary(Quote, int).
+   */
   public void commitItinerary(int passengerId, int itineraryNumber) throws NoSuchPassengerIdException,
                               NoSuchItineraryChoiceException {
 
-    _trains.commitItinerary(passengerId, itineraryNumber);
+    Quote quote = _lastQuote;
+    if(quote == null) {
+      if(itineraryNumber != 0)
+        throw new NoSuchItineraryChoiceException(passengerId, itineraryNumber);
+      return;
+    }
+    if(itineraryNumber == 0 || quote.getItinerary(itineraryNumber) == null)
+      _lastQuote = null;
+    _trains.commitItinerary(passengerId, quote, itineraryNumber);
+  }
+
+  public void commitItinerary(Quote quote, int itineraryNumber) throws NoSuchPassengerIdException,
+                              NoSuchItineraryChoiceException {
+
+    _trains.commitItinerary(quote.getPassengerId(), quote, itineraryNumber);
   }
 
 }
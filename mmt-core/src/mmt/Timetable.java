@@ -0,0 +1,230 @@
+package mmt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable version of the services of a company. Every change to the services
+ * publishes a new timetable, with a higher version number, in place of the old
+ * one; searches and listings work on whichever timetable was current when they
+ * started, without locking and without seeing a change half made. The version
+ * number lets results computed from a timetable be checked against the current
+ * one before being reused.
+ */
+public final class Timetable {
+
+  private final long _version;
+  private final StationDictionary _stationDictionary;
+  private final int _stationCount;
+  private final TransferTimes _transferTimes;
+
+  /* either a mapped timetable or a registry of services with its index */
+  private final TimetableStore _store;
+  private final ServiceTree _services;
+  private final List<Service> _serviceList;
+  private final StationIndex _stationIndex;
+
+  /* built the first time a search needs them */
+  private volatile ConnectionScanner _connectionScanner;
+  private volatile RaptorRouter _router;
+
+  /**
+   * @param version
+   *        numero de versao do horario.
+   * @param services
+   *        servicos do registo, partilhados com as versoes seguintes.
+   * @param stationIndex
+   *        indice das estacoes dos servicos, que deixa de ser alterado.
+   * @param stationDictionary
+   *        dicionario com os nomes das estacoes.
+   * @param transferTimes
+   *        tempos minimos de transbordo em cada estacao.
+   */
+  Timetable(long version, ServiceTree services, StationIndex stationIndex,
+            StationDictionary stationDictionary, TransferTimes transferTimes) {
+    _version = version;
+    _stationDictionary = stationDictionary;
+    _stationCount = stationDictionary.size();
+    _transferTimes = transferTimes;
+    _store = null;
+    _services = services;
+    _serviceList = services.asList();
+    _stationIndex = stationIndex;
+  }
+
+  /**
+   * @param version
+   *        numero de versao do horario.
+   * @param store
+   *        horario mapeado em memoria.
+   * @param transferTimes
+   *        tempos minimos de transbordo em cada estacao.
+   */
+  Timetable(long version, TimetableStore store, TransferTimes transferTimes) {
+    _version = version;
+    _stationDictionary = store.getStationDictionary();
+    _stationCount = _stationDictionary.size();
+    _transferTimes = transferTimes;
+    _store = store;
+    _services = null;
+    _serviceList = Collections.unmodifiableList(store.getServices());
+    _stationIndex = null;
+  }
+
+  /**
+   * @return o numero de versao do horario; cada alteracao aos servicos
+   *         publica um horario com um numero maior.
+   */
+  public long getVersion() {
+    return _version;
+  }
+
+  /**
+   * @param id
+   *        id do servico.
+   * @return o servico com o id dado, ou null caso nao exista.
+   */
+  public Service getService(int id) {
+    return _store != null ? _store.getService(id) : _services.get(id);
+  }
+
+  /**
+   * @return todos os servicos, por ordem de id.
+   */
+  public Collection<Service> getServices() {
+    return _serviceList;
+  }
+
+  /**
+   * @param after
+   *        cursor da pagina anterior, ou Page.START.
+   * @param pageSize
+   *        numero maximo de servicos da pagina.
+   * @param stationId
+   *        id da estacao onde os servicos devem parar, ou -1 para todos.
+   * @return os servicos seguintes, por ordem de id.
+   */
+  Page<Service> getServices(int after, int pageSize, int stationId) {
+    /* the services stopping at a station are kept in id order too, so a page costs only its size */
+    List<Service> services;
+    if(_store != null)
+      services = _store.getServicesAfter(stationId, after);
+    else if(stationId < 0)
+      services = _serviceList.subList(_services.positionAfter(after), _serviceList.size());
+    else {
+      services = _stationIndex.getPassingServices(stationId);
+      services = services.subList(positionAfter(services, after), services.size());
+    }
+    Page.Builder<Service> page = new Page.Builder<Service>(after, pageSize);
+    for(Service s: services)
+      if(!page.add(s, s.getId()))
+        break;
+    return page.build();
+  }
+
+  /* position of the first service of a list in id order with an id greater than the given one */
+  private static int positionAfter(List<Service> services, int id) {
+    int low = 0;
+    int high = services.size();
+    while(low < high) {
+      int middle = (low + high) >>> 1;
+      if(services.get(middle).getId() <= id)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * @return os tempos minimos de transbordo com que as procuras sao feitas.
+   */
+  public TransferTimes getTransferTimes() {
+    return _transferTimes;
+  }
+
+  public StationDictionary getStationDictionary() {
+    return _stationDictionary;
+  }
+
+  /* stations known when the timetable was published; names added later are not served by it */
+  int getStationCount() {
+    return _stationCount;
+  }
+
+  TimetableStore getStore() {
+    return _store;
+  }
+
+  /* whether some service stops at the station */
+  boolean hasServices(int stationId) {
+    return _store != null ? _store.hasServices(stationId) : _stationIndex.hasServices(stationId);
+  }
+
+  /**
+   * @return os servicos que partem da estacao, por ordem de partida.
+   */
+  List<Service> getDepartingServices(int stationId) {
+    if(_store != null)
+      return Collections.unmodifiableList(_store.getDepartingServices(stationId));
+    return _stationIndex.getDepartingServices(stationId);
+  }
+
+  /**
+   * @return os servicos que chegam a estacao, por ordem de chegada.
+   */
+  List<Service> getArrivingServices(int stationId) {
+    if(_store != null)
+      return Collections.unmodifiableList(_store.getArrivingServices(stationId));
+    return _stationIndex.getArrivingServices(stationId);
+  }
+
+  /**
+   * @return os servicos que param na estacao, por ordem de id.
+   */
+  List<Service> getPassingServices(int stationId) {
+    if(_store != null)
+      return Collections.unmodifiableList(_store.getPassingServices(stationId));
+    return _stationIndex.getPassingServices(stationId);
+  }
+
+  /* a mapped timetable gives the engines its columns, so that they build only the services they return;
+     the tree of services is read once into an array, since the engines look services up by position */
+  private ServiceColumns columns() {
+    return _store != null ? _store.getColumns() : ServiceColumns.of(new ArrayList<Service>(_serviceList));
+  }
+
+  /**
+   * @return o motor de procura sobre os servicos deste horario.
+   */
+  ConnectionScanner getConnectionScanner() {
+    ConnectionScanner scanner = _connectionScanner;
+    if(scanner == null) {
+      synchronized(this) {
+        scanner = _connectionScanner;
+        if(scanner == null)
+          _connectionScanner = scanner = new ConnectionScanner(columns(), _stationCount, _transferTimes);
+      }
+    }
+    return scanner;
+  }
+
+  /**
+   * @return o router multi-criterio sobre os servicos deste horario.
+   */
+  RaptorRouter getRouter() {
+    RaptorRouter router = _router;
+    if(router == null) {
+      synchronized(this) {
+        router = _router;
+        if(router == null)
+          _router = router = new RaptorRouter(columns(), _stationCount, _transferTimes,
+                                              RaptorRouter.DEFAULT_MAX_TRANSFERS);
+      }
+    }
+    return router;
+  }
+
+}
@@ -0,0 +1,466 @@
+package mmt;
+
+import mmt.exceptions.BadEntryException;
+import mmt.exceptions.NoSuchPassengerIdException;
+import mmt.exceptions.NoSuchServiceIdException;
+import mmt.exceptions.NonUniquePassengerNameException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Streaming importer for the text format described in TrainCompany.importFile.
+ * The file is read in large blocks through a FileChannel and tokenized on its
+ * UTF-8 bytes, without regular expressions and without creating a String per
+ * field. The lines of each block are parsed in parallel and then applied to the
+ * company in file order, while the following block is already being parsed.
+ */
+class TimetableImporter {
+
+  private static final int BLOCK_SIZE = 1 << 22;
+  private static final int LINES_PER_TASK = 2048;
+
+  private static final byte[] SERVICE = "SERVICE".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PASSENGER = "PASSENGER".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ITINERARY = "ITINERARY".getBytes(StandardCharsets.US_ASCII);
+
+  private TrainCompany _company;
+  private ForkJoinPool _pool;
+
+  /* parsed lines, applied in order */
+  private static class ServiceRecord {
+    private int _id;
+    private double _price;
+    private String[] _names;
+    private LocalTime[] _times;
+  }
+
+  private static class PassengerRecord {
+    private String _name;
+  }
+
+  private static class ItineraryRecord {
+    private int _passengerId;
+    private LocalDate _date;
+    private int[] _serviceIds;
+    private String[] _departures;
+    private String[] _arrivals;
+  }
+
+  /* a block of whole lines read from the file */
+  private static class Block {
+    private byte[] _data;
+    private int[] _lineStarts;
+    private int[] _lineEnds;
+    private int _lines;
+    private Object[] _records;
+  }
+
+  /*
+   * Strings for the names already seen by one parsing task, looked up by their
+   * bytes, so that a repeated station name costs no allocation.
+   */
+  private static class NameCache {
+    private byte[][] _keys = new byte[256][];
+    private String[] _values = new String[256];
+    private int _size;
+
+    String get(byte[] data, int start, int end) {
+      int hash = 0;
+      for(int i = start; i < end; i++)
+        hash = 31 * hash + data[i];
+      int mask = _keys.length - 1;
+      int slot = (hash * 0x9E3779B9) >>> 1 & mask;
+      while(_keys[slot] != null) {
+        if(equals(_keys[slot], data, start, end))
+          return _values[slot];
+        slot = (slot + 1) & mask;
+      }
+      String value = new String(data, start, end - start, StandardCharsets.UTF_8);
+      _keys[slot] = Arrays.copyOfRange(data, start, end);
+      _values[slot] = value;
+      if(++_size * 2 > _keys.length)
+        grow();
+      return value;
+    }
+
+    private static boolean equals(byte[] key, byte[] data, int start, int end) {
+      if(key.length != end - start)
+        return false;
+      for(int i = 0; i < key.length; i++)
+        if(key[i] != data[start + i])
+          return false;
+      return true;
+    }
+
+    private void grow() {
+      byte[][] keys = _keys;
+      String[] values = _values;
+      _keys = new byte[keys.length * 2][];
+      _values = new String[keys.length * 2];
+      _size = 0;
+      for(int i = 0; i < keys.length; i++)
+        if(keys[i] != null)
+          get(keys[i], 0, keys[i].length);
+    }
+  }
+
+  TimetableImporter(TrainCompany company) {
+    this(company, ForkJoinPool.commonPool());
+  }
+
+  TimetableImporter(TrainCompany company, ForkJoinPool pool) {
+    _company = company;
+    _pool = pool;
+  }
+
+  /**
+   * Le e aplica o ficheiro dado.
+   *
+   * @param filename
+   *        ficheiro de input.
+   * @return as estatisticas da importacao.
+   * @throws IOException
+   * @throws BadEntryException
+   *         caso alguma linha esteja mal formada.
+   * @throws NonUniquePassengerNameException
+   *         caso ja exista um passageiro no registo com o nome lido.
+   * @throws NoSuchPassengerIdException
+   *         caso nao exista nenhum passageiro com o id lido.
+   * @throws NoSuchServiceIdException
+   *         caso nao exista nenhum servico com o id lido.
+   */
+  ImportStatistics importFile(String filename) throws IOException, BadEntryException,
+    NonUniquePassengerNameException, NoSuchPassengerIdException, NoSuchServiceIdException {
+
+    long start = System.nanoTime();
+    long lines = 0;
+    long records = 0;
+    long bytes = 0;
+    try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      byte[] carry = new byte[0];
+      Future<Block> pending = null;
+      while(true) {
+        byte[] data = new byte[Math.max(BLOCK_SIZE, carry.length * 2)];
+        System.arraycopy(carry, 0, data, 0, carry.length);
+        int length = carry.length;
+        boolean eof = false;
+        while(length < data.length) {
+          int read = channel.read(ByteBuffer.wrap(data, length, data.length - length));
+          if(read < 0) {
+            eof = true;
+            break;
+          }
+          length += read;
+        }
+        bytes += length - carry.length;
+
+        int cut = length;
+        if(!eof) {
+          while(cut > 0 && data[cut - 1] != '\n')
+            cut--;
+        }
+        carry = Arrays.copyOfRange(data, cut, length);
+        Future<Block> parsing = cut > 0 ? parseLater(data, cut) : null;
+
+        if(pending != null) {
+          Block block = await(pending);
+          lines += block._lines;
+          records += apply(block);
+        }
+        pending = parsing;
+        if(eof)
+          break;
+      }
+      if(pending != null) {
+        Block block = await(pending);
+        lines += block._lines;
+        records += apply(block);
+      }
+    }
+    return new ImportStatistics(lines, records, bytes, System.nanoTime() - start);
+  }
+
+  private Block await(Future<Block> future) throws IOException, BadEntryException {
+    try {
+      return future.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch(ExecutionException e) {
+      /* the pool wraps what its tasks throw, in an ExecutionException or a RuntimeException */
+      for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+        if(cause instanceof BadEntryException)
+          throw (BadEntryException) cause;
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /* splits the block in lines and parses groups of lines in parallel */
+  private Future<Block> parseLater(final byte[] data, final int length) {
+    return _pool.submit(new Callable<Block>() {
+      @Override
+      public Block call() throws Exception {
+        final Block block = new Block();
+        block._data = data;
+        int count = 0;
+        for(int i = 0; i < length; i++)
+          if(data[i] == '\n')
+            count++;
+        if(length > 0 && data[length - 1] != '\n')
+          count++;
+        block._lineStarts = new int[count];
+        block._lineEnds = new int[count];
+        int line = 0;
+        int lineStart = 0;
+        for(int i = 0; i <= length; i++)
+          if(i == length || data[i] == '\n') {
+            if(i == length && lineStart == length)
+              break;
+            int end = i;
+            if(end > lineStart && data[end - 1] == '\r')
+              end--;
+            block._lineStarts[line] = lineStart;
+            block._lineEnds[line++] = end;
+            lineStart = i + 1;
+          }
+        block._lines = line;
+        block._records = new Object[line];
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for(int first = 0; first < line; first += LINES_PER_TASK) {
+          final int from = first;
+          final int to = Math.min(first + LINES_PER_TASK, line);
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws BadEntryException {
+              NameCache names = new NameCache();
+              for(int l = from; l < to; l++)
+                block._records[l] = parse(block._data, block._lineStarts[l], block._lineEnds[l], names);
+              return null;
+            }
+          });
+        }
+        for(Future<Void> f: _pool.invokeAll(tasks))
+          f.get();
+        return block;
+      }
+    });
+  }
+
+  private long apply(Block block) throws NonUniquePassengerNameException, NoSuchPassengerIdException,
+    NoSuchServiceIdException {
+
+    long records = 0;
+    for(Object record: block._records) {
+      if(record instanceof ServiceRecord) {
+        ServiceRecord s = (ServiceRecord) record;
+        _company.importService(s._id, s._price, s._names, s._times);
+      }
+      else if(record instanceof PassengerRecord)
+        _company.registerPassenger(((PassengerRecord) record)._name);
+      else if(record instanceof ItineraryRecord) {
+        ItineraryRecord it = (ItineraryRecord) record;
+        _company.importItinerary(it._passengerId, it._date, it._serviceIds, it._departures, it._arrivals);
+      }
+      else
+        continue;
+      records++;
+    }
+    return records;
+  }
+
+  /* the fields of a line are the ranges between separators; trailing empty fields are dropped */
+  private static int split(byte[] data, int start, int end, byte separator, int[] starts, int[] ends) {
+    int fields = 0;
+    int fieldStart = start;
+    for(int i = start; i <= end; i++)
+      if(i == end || data[i] == separator) {
+        starts[fields] = fieldStart;
+        ends[fields++] = i;
+        fieldStart = i + 1;
+      }
+    while(fields > 0 && starts[fields - 1] == ends[fields - 1])
+      fields--;
+    return fields;
+  }
+
+  private static int count(byte[] data, int start, int end, byte separator) {
+    int count = 1;
+    for(int i = start; i < end; i++)
+      if(data[i] == separator)
+        count++;
+    return count;
+  }
+
+  private static boolean is(byte[] data, int start, int end, byte[] word) {
+    return NameCache.equals(word, data, start, end);
+  }
+
+  private static Object parse(byte[] data, int start, int end, NameCache names) throws BadEntryException {
+    int capacity = count(data, start, end, (byte)'|');
+    int[] starts = new int[capacity];
+    int[] ends = new int[capacity];
+    int fields = split(data, start, end, (byte)'|', starts, ends);
+    if(fields == 0)
+      return null;
+    try {
+      if(is(data, starts[0], ends[0], SERVICE)) {
+        ServiceRecord record = new ServiceRecord();
+        record._id = parseInt(data, starts[1], ends[1]);
+        record._price = parseDouble(data, starts[2], ends[2]);
+        int stations = Math.max((fields - 3) / 2, 0);
+        record._names = new String[stations];
+        record._times = new LocalTime[stations];
+        for(int i = 0; i < stations; i++) {
+          record._times[i] = parseTime(data, starts[3 + 2 * i], ends[3 + 2 * i]);
+          record._names[i] = names.get(data, starts[4 + 2 * i], ends[4 + 2 * i]);
+        }
+        return record;
+      }
+      if(is(data, starts[0], ends[0], PASSENGER)) {
+        PassengerRecord record = new PassengerRecord();
+        record._name = new String(data, starts[1], ends[1] - starts[1], StandardCharsets.UTF_8);
+        return record;
+      }
+      if(is(data, starts[0], ends[0], ITINERARY)) {
+        ItineraryRecord record = new ItineraryRecord();
+        record._passengerId = parseInt(data, starts[1], ends[1]);
+        record._date = parseDate(data, starts[2], ends[2]);
+        int segments = Math.max(fields - 3, 0);
+        record._serviceIds = new int[segments];
+        record._departures = new String[segments];
+        record._arrivals = new String[segments];
+        int[] parts = new int[3];
+        int[] partEnds = new int[3];
+        for(int i = 0; i < segments; i++) {
+          int fieldStart = starts[3 + i];
+          int fieldEnd = ends[3 + i];
+          int found = 0;
+          parts[0] = fieldStart;
+          for(int j = fieldStart; j < fieldEnd && found < 2; j++)
+            if(data[j] == '/') {
+              partEnds[found++] = j;
+              parts[found] = j + 1;
+            }
+          if(found < 2)
+            throw new BadEntryException(new String(data, start, end - start, StandardCharsets.UTF_8));
+          partEnds[2] = fieldEnd;
+          for(int j = parts[2]; j < fieldEnd; j++)
+            if(data[j] == '/') {
+              partEnds[2] = j;
+              break;
+            }
+          record._serviceIds[i] = parseInt(data, parts[0], partEnds[0]);
+          record._departures[i] = names.get(data, parts[1], partEnds[1]);
+          record._arrivals[i] = names.get(data, parts[2], partEnds[2]);
+        }
+        return record;
+      }
+      return null;
+    } catch(ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeException e) {
+      throw new BadEntryException(new String(data, start, end - start, StandardCharsets.UTF_8), e);
+    }
+  }
+
+  private static String text(byte[] data, int start, int end) {
+    return new String(data, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  static int parseInt(byte[] data, int start, int end) {
+    if(end - start == 0 || end - start > 9)
+      return Integer.parseInt(text(data, start, end));
+    boolean negative = data[start] == '-';
+    int i = negative || data[start] == '+' ? start + 1 : start;
+    if(i == end)
+      throw new NumberFormatException(text(data, start, end));
+    int value = 0;
+    for(; i < end; i++) {
+      int digit = data[i] - '0';
+      if(digit < 0 || digit > 9)
+        throw new NumberFormatException(text(data, start, end));
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+  };
+
+  /*
+   * Plain decimals with up to 15 digits are exact as a quotient of two exactly
+   * representable numbers, which IEEE division rounds just like
+   * Double.parseDouble; anything else is left to Double.parseDouble.
+   */
+  static double parseDouble(byte[] data, int start, int end) {
+    boolean negative = end > start && data[start] == '-';
+    int i = negative || (end > start && data[start] == '+') ? start + 1 : start;
+    long mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+    for(; i < end; i++) {
+      byte b = data[i];
+      if(b == '.' && decimals < 0)
+        decimals = 0;
+      else if(b >= '0' && b <= '9' && digits < 15) {
+        mantissa = mantissa * 10 + (b - '0');
+        digits++;
+        if(decimals >= 0)
+          decimals++;
+      }
+      else
+        return Double.parseDouble(text(data, start, end));
+    }
+    if(digits == 0)
+      return Double.parseDouble(text(data, start, end));
+    double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+    return negative ? -value : value;
+  }
+
+  private static int digit(byte b) {
+    return b >= '0' && b <= '9' ? b - '0' : -1;
+  }
+
+  static LocalTime parseTime(byte[] data, int start, int end) {
+    if(end - start == 5 && data[start + 2] == ':') {
+      int h1 = digit(data[start]), h2 = digit(data[start + 1]);
+      int m1 = digit(data[start + 3]), m2 = digit(data[start + 4]);
+      if(h1 >= 0 && h2 >= 0 && m1 >= 0 && m2 >= 0)
+        return LocalTime.of(h1 * 10 + h2, m1 * 10 + m2);
+    }
+    return LocalTime.parse(text(data, start, end));
+  }
+
+  static LocalDate parseDate(byte[] data, int start, int end) {
+    if(end - start == 10 && data[start + 4] == '-' && data[start + 7] == '-') {
+      int year = 0;
+      boolean valid = true;
+      for(int i = start; i < start + 4; i++)
+        if(digit(data[i]) < 0)
+          valid = false;
+        else
+          year = year * 10 + digit(data[i]);
+      int m1 = digit(data[start + 5]), m2 = digit(data[start + 6]);
+      int d1 = digit(data[start + 8]), d2 = digit(data[start + 9]);
+      if(valid && m1 >= 0 && m2 >= 0 && d1 >= 0 && d2 >= 0)
+        return LocalDate.of(year, m1 * 10 + m2, d1 * 10 + d2);
+    }
+    return LocalDate.parse(text(data, start, end));
+  }
+
+}
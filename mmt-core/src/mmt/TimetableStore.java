@@ -0,0 +1,474 @@
+package mmt;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read-only timetable kept in a memory-mapped file. Opening a timetable only
+ * reads its header and station names; a service and its stations are built
+ * from the mapped columns the first time they are asked for, and the lists of
+ * services departing from, arriving at and stopping at each station are stored
+ * already sorted, so that they are answered in place.
+ */
+public class TimetableStore {
+
+  /** "MMTT" */
+  static final int MAGIC = 0x4D4D5454;
+  static final int VERSION = 1;
+
+  private static final int SECONDS_PER_DAY = Service.MINUTES_PER_DAY * 60;
+
+  /* magic, version, counts and the offset of each section */
+  private static final int HEADER_SIZE = 4 * 18;
+
+  private ByteBuffer _buffer;
+  private StationDictionary _stationDictionary = new StationDictionary();
+  private int _stationCount;
+  private int _serviceCount;
+
+  /* section offsets */
+  private int _served;
+  private int _serviceIds;
+  private int _servicePrices;
+  private int _stopStarts;
+  private int _stopStations;
+  private int _stopSeconds;
+  private int _stopNanos;
+  private int _departingStarts;
+  private int _departing;
+  private int _arrivingStarts;
+  private int _arriving;
+  private int _passingStarts;
+  private int _passing;
+
+  /* services already built, by position; concurrent readers agree on a single copy */
+  private AtomicReferenceArray<Service> _services;
+
+  private TimetableStore(ByteBuffer buffer) throws IOException {
+    _buffer = buffer;
+    if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+      throw new StreamCorruptedException("bad magic number");
+    int version = buffer.getInt(4);
+    if(version != VERSION)
+      throw new StreamCorruptedException("unsupported timetable version " + version);
+    _stationCount = buffer.getInt(8);
+    _serviceCount = buffer.getInt(12);
+    int names = buffer.getInt(16);
+    _served = buffer.getInt(20);
+    _serviceIds = buffer.getInt(24);
+    _servicePrices = buffer.getInt(28);
+    _stopStarts = buffer.getInt(32);
+    _stopStations = buffer.getInt(36);
+    _stopSeconds = buffer.getInt(40);
+    _stopNanos = buffer.getInt(44);
+    _departingStarts = buffer.getInt(48);
+    _departing = buffer.getInt(52);
+    _arrivingStarts = buffer.getInt(56);
+    _arriving = buffer.getInt(60);
+    _passingStarts = buffer.getInt(64);
+    _passing = buffer.getInt(68);
+    if(_passingStarts + 4L * (_stationCount + 1) > buffer.capacity() ||
+       _passing + 4L * buffer.getInt(_passingStarts + 4 * _stationCount) > buffer.capacity())
+      throw new StreamCorruptedException("truncated timetable");
+
+    /* station names are few and are needed by every lookup */
+    for(int id = 0, offset = names; id < _stationCount; id++) {
+      int length = buffer.getInt(offset);
+      byte[] bytes = new byte[length];
+      ByteBuffer name = buffer.duplicate();
+      name.position(offset + 4);
+      name.get(bytes);
+      _stationDictionary.intern(new String(bytes, StandardCharsets.UTF_8));
+      offset += 4 + length;
+    }
+    _services = new AtomicReferenceArray<Service>(_serviceCount);
+  }
+
+  /**
+   * Abre um horario, mapeando o ficheiro em memoria.
+   *
+   * @param filename
+   *        ficheiro do horario.
+   * @return o horario aberto.
+   * @throws IOException
+   *         caso o ficheiro nao contenha um horario valido.
+   */
+  public static TimetableStore open(String filename) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      /* the mapping stays valid after the channel is closed */
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new TimetableStore(buffer);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Verifica se o ficheiro comeca pelo numero magico de um horario.
+   *
+   * @param filename
+   *        ficheiro de input.
+   * @return true caso o ficheiro seja um horario.
+   * @throws IOException
+   */
+  static boolean isTimetable(String filename) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(4);
+      while(header.hasRemaining() && channel.read(header) >= 0);
+      return !header.hasRemaining() && header.getInt(0) == MAGIC;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Escreve os servicos da companhia num ficheiro de horario. O ficheiro e
+   * escrito a parte e so depois posto no lugar do ficheiro dado, que pode
+   * estar mapeado por um horario aberto.
+   *
+   * @param timetable
+   *        horario cujos servicos sao escritos.
+   * @param filename
+   *        ficheiro de output.
+   * @throws IOException
+   */
+  static void write(Timetable timetable, String filename) throws IOException {
+    StationDictionary dictionary = timetable.getStationDictionary();
+    Service[] services = timetable.getServices().toArray(new Service[0]);
+    int stationCount = timetable.getStationCount();
+    int serviceCount = services.length;
+    int stopCount = 0;
+    int passingCount = 0;
+    boolean nanos = false;
+    for(int st = 0; st < timetable.getStationCount(); st++)
+      passingCount += timetable.getPassingServices(st).size();
+    for(Service s: services) {
+      stopCount += s.getNumberOfStations();
+      for(int i = 0; i < s.getNumberOfStations(); i++)
+        nanos |= s.getNano(i) != 0;
+    }
+    byte[][] names = new byte[stationCount][];
+    int namesSize = 0;
+    for(int id = 0; id < stationCount; id++) {
+      names[id] = dictionary.getName(id).getBytes(StandardCharsets.UTF_8);
+      namesSize += 4 + names[id].length;
+    }
+
+    int offset = HEADER_SIZE;
+    int namesOffset = offset;
+    offset += namesSize;
+    int served = offset;
+    offset += stationCount;
+    int serviceIds = offset;
+    offset += 4 * serviceCount;
+    int servicePrices = offset;
+    offset += 8 * serviceCount;
+    int stopStarts = offset;
+    offset += 4 * (serviceCount + 1);
+    int stopStations = offset;
+    offset += 4 * stopCount;
+    int stopSeconds = offset;
+    offset += 4 * stopCount;
+    int stopNanos = nanos ? offset : 0;
+    offset += nanos ? 4 * stopCount : 0;
+    int departingStarts = offset;
+    offset += 4 * (stationCount + 1);
+    int departing = offset;
+    offset += 4 * serviceCount;
+    int arrivingStarts = offset;
+    offset += 4 * (stationCount + 1);
+    int arriving = offset;
+    offset += 4 * serviceCount;
+    int passingStarts = offset;
+    offset += 4 * (stationCount + 1);
+    int passing = offset;
+    offset += 4 * passingCount;
+
+    Path target = Paths.get(filename).toAbsolutePath();
+    Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset);
+        int[] header = { MAGIC, VERSION, stationCount, serviceCount, namesOffset, served, serviceIds,
+                         servicePrices, stopStarts, stopStations, stopSeconds, stopNanos, departingStarts,
+                         departing, arrivingStarts, arriving, passingStarts, passing };
+        for(int i = 0; i < header.length; i++)
+          buffer.putInt(4 * i, header[i]);
+
+        buffer.position(namesOffset);
+        for(byte[] name: names) {
+          buffer.putInt(name.length);
+          buffer.put(name);
+        }
+
+        int stop = 0;
+        for(int i = 0; i < serviceCount; i++) {
+          Service s = services[i];
+          buffer.putInt(serviceIds + 4 * i, s.getId());
+          buffer.putDouble(servicePrices + 8 * i, s.getPrice());
+          buffer.putInt(stopStarts + 4 * i, stop);
+          for(int j = 0; j < s.getNumberOfStations(); j++) {
+            buffer.put(served + s.getStationId(j), (byte)1);
+            buffer.putInt(stopStations + 4 * stop, s.getStationId(j));
+            buffer.putInt(stopSeconds + 4 * stop, s.getSecondOfDay(j));
+            if(nanos)
+              buffer.putInt(stopNanos + 4 * stop, s.getNano(j));
+            stop++;
+          }
+        }
+        buffer.putInt(stopStarts + 4 * serviceCount, stop);
+
+        buffer.putInt(departingStarts, 0);
+        buffer.putInt(arrivingStarts, 0);
+        buffer.putInt(passingStarts, 0);
+        for(int st = 0; st < stationCount; st++) {
+          writeStationList(buffer, services, timetable.getDepartingServices(st), departingStarts, departing, st);
+          writeStationList(buffer, services, timetable.getArrivingServices(st), arrivingStarts, arriving, st);
+          writeStationList(buffer, services, timetable.getPassingServices(st), passingStarts, passing, st);
+        }
+        buffer.force();
+      } finally {
+        channel.close();
+      }
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /* a list kept by the timetable's station index, as positions in the service columns;
+     the lists are written station after station, each one starting where the one before ends */
+  private static void writeStationList(ByteBuffer buffer, Service[] services, Collection<Service> list,
+                                       int starts, int lists, int stationId) {
+    int written = buffer.getInt(starts + 4 * stationId);
+    for(Service s: list)
+      buffer.putInt(lists + 4 * written++, position(services, s.getId()));
+    buffer.putInt(starts + 4 * (stationId + 1), written);
+  }
+
+  /* services are written in id order */
+  private static int position(Service[] services, int id) {
+    int low = 0;
+    int high = services.length - 1;
+    while(low <= high) {
+      int middle = (low + high) >>> 1;
+      if(services[middle].getId() < id)
+        low = middle + 1;
+      else if(services[middle].getId() > id)
+        high = middle - 1;
+      else
+        return middle;
+    }
+    return -1;
+  }
+
+  public StationDictionary getStationDictionary() {
+    return _stationDictionary;
+  }
+
+  public int getNumberOfServices() {
+    return _serviceCount;
+  }
+
+  /* builds the service at the given position the first time it is needed */
+  private Service service(int position) {
+    Service service = _services.get(position);
+    if(service == null) {
+      service = new Service(_buffer.getInt(_serviceIds + 4 * position),
+                            _buffer.getDouble(_servicePrices + 8 * position), _stationDictionary);
+      int last = _buffer.getInt(_stopStarts + 4 * (position + 1));
+      for(int stop = _buffer.getInt(_stopStarts + 4 * position); stop < last; stop++)
+        service.addStop(_buffer.getInt(_stopStations + 4 * stop), _buffer.getInt(_stopSeconds + 4 * stop),
+                        _stopNanos == 0 ? 0 : _buffer.getInt(_stopNanos + 4 * stop));
+      service.trimToSize();
+      if(!_services.compareAndSet(position, null, service))
+        service = _services.get(position);
+    }
+    return service;
+  }
+
+  /**
+   * @return as paragens dos servicos, por ordem de id, lidas diretamente das
+   *         colunas mapeadas; so os servicos pedidos a estas sao construidos.
+   */
+  ServiceColumns getColumns() {
+    return new ServiceColumns() {
+      @Override
+      public int getNumberOfServices() {
+        return _serviceCount;
+      }
+
+      @Override
+      public int[] getStationIds(int position) {
+        int first = _buffer.getInt(_stopStarts + 4 * position);
+        int[] stations = new int[_buffer.getInt(_stopStarts + 4 * (position + 1)) - first];
+        for(int i = 0; i < stations.length; i++)
+          stations[i] = _buffer.getInt(_stopStations + 4 * (first + i));
+        return stations;
+      }
+
+      @Override
+      public int[] getMinutes(int position) {
+        int first = _buffer.getInt(_stopStarts + 4 * position);
+        int[] minutes = new int[_buffer.getInt(_stopStarts + 4 * (position + 1)) - first];
+        /* a stop earlier in the day than the one before it is on the next day, as in Service.addStop */
+        int seconds = 0;
+        for(int i = 0; i < minutes.length; i++) {
+          int second = _buffer.getInt(_stopSeconds + 4 * (first + i));
+          if(i > 0)
+            while(second < seconds)
+              second += SECONDS_PER_DAY;
+          seconds = second;
+          minutes[i] = seconds / 60;
+        }
+        return minutes;
+      }
+
+      @Override
+      public double getPrice(int position) {
+        return _buffer.getDouble(_servicePrices + 8 * position);
+      }
+
+      @Override
+      public Service getService(int position) {
+        return service(position);
+      }
+    };
+  }
+
+  /**
+   * @param id
+   *        id do servico.
+   * @return o servico com o id dado, ou null caso nao exista.
+   */
+  public Service getService(int id) {
+    int low = 0;
+    int high = _serviceCount - 1;
+    while(low <= high) {
+      int middle = (low + high) >>> 1;
+      int middleId = _buffer.getInt(_serviceIds + 4 * middle);
+      if(middleId < id)
+        low = middle + 1;
+      else if(middleId > id)
+        high = middle - 1;
+      else
+        return service(middle);
+    }
+    return null;
+  }
+
+  /* a list of services read from the mapped file as its elements are accessed */
+  private class ServiceList extends AbstractList<Service> implements RandomAccess {
+    private int _positions;
+    private int _size;
+
+    ServiceList(int positions, int size) {
+      _positions = positions;
+      _size = size;
+    }
+
+    @Override
+    public Service get(int index) {
+      if(index < 0 || index >= _size)
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      return service(position(index));
+    }
+
+    /* position in the service columns of the element at the given index */
+    private int position(int index) {
+      return _positions < 0 ? index : _buffer.getInt(_positions + 4 * index);
+    }
+
+    /* the elements with an id greater than the given one, when the list is in id order */
+    List<Service> after(int id) {
+      int low = 0;
+      int high = _size;
+      while(low < high) {
+        int middle = (low + high) >>> 1;
+        if(_buffer.getInt(_serviceIds + 4 * position(middle)) <= id)
+          low = middle + 1;
+        else
+          high = middle;
+      }
+      return subList(low, _size);
+    }
+
+    @Override
+    public int size() {
+      return _size;
+    }
+  }
+
+  /**
+   * @return todos os servicos, por ordem de id.
+   */
+  public List<Service> getServices() {
+    return new ServiceList(-1, _serviceCount);
+  }
+
+  /**
+   * @param stationId
+   *        id da estacao onde os servicos devem parar, ou -1 para todos.
+   * @param after
+   *        id a partir do qual sao dados os servicos.
+   * @return os servicos com id maior do que o dado, por ordem de id, lidos
+   *         apenas quando sao acedidos.
+   */
+  List<Service> getServicesAfter(int stationId, int after) {
+    ServiceList services = stationId < 0 ? new ServiceList(-1, _serviceCount)
+                           : stationList(_passingStarts, _passing, stationId);
+    return services.after(after);
+  }
+
+  private ServiceList stationList(int starts, int lists, int stationId) {
+    if(stationId < 0 || stationId >= _stationCount)
+      return new ServiceList(lists, 0);
+    int first = _buffer.getInt(starts + 4 * stationId);
+    int last = _buffer.getInt(starts + 4 * (stationId + 1));
+    return new ServiceList(lists + 4 * first, last - first);
+  }
+
+  /* whether some service stops at the station */
+  boolean hasServices(int stationId) {
+    return stationId >= 0 && stationId < _stationCount && _buffer.get(_served + stationId) != 0;
+  }
+
+  /**
+   * @return os servicos que partem da estacao, por ordem de partida.
+   */
+  public List<Service> getDepartingServices(int stationId) {
+    return stationList(_departingStarts, _departing, stationId);
+  }
+
+  /**
+   * @return os servicos que chegam a estacao, por ordem de chegada.
+   */
+  public List<Service> getArrivingServices(int stationId) {
+    return stationList(_arrivingStarts, _arriving, stationId);
+  }
+
+  /**
+   * @return os servicos que param na estacao, por ordem de id.
+   */
+  public List<Service> getPassingServices(int stationId) {
+    return stationList(_passingStarts, _passing, stationId);
+  }
+
+}
@@ -6,6 +6,7 @@ import mmt.exceptions.BadTimeSpecificationException;
 import mmt.exceptions.InvalidPassengerNameException;
 import mmt.exceptions.NoSuchDepartureException;
 import mmt.exceptions.NoSuchPassengerIdException;
+import mmt.exceptions.NoSuchPassengerNameException;
 import mmt.exceptions.NoSuchServiceIdException;
 import mmt.exceptions.NoSuchStationNameException;
 import mmt.exceptions.NoSuchItineraryChoiceException;
@@ -13,11 +14,13 @@ import mmt.exceptions.NonUniquePassengerNameException;
 import mmt.exceptions.ImportFileException;
 import java.io.IOException;
 import java.lang.ClassNotFoundException;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 import java.io.Serializable;
 import java.util.TreeMap;
+import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Collection;
 import java.util.Collections;
 import java.time.LocalTime;
@@ -25,6 +28,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.time.LocalDate;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.lang.*;
 
 /**
@@ -38,43 +53,75 @@ public class TrainCompany implements Serializable {
 
   private TreeMap<Integer, Service> _servicesRegistry;
   private TreeMap<Integer, Passenger> _passengersRegistry;
-  private List<Itinerary> _itineraryChoices;
+  private HashMap<String, Integer> _passengerIds;
+  private StationDictionary _stationDictionary;
   private int _passengerCounter;
-  private boolean _hasChanged;
+  private volatile boolean _hasChanged;
   private Comparator<Itinerary> _itineraryComparator;
   private Comparator<Service> _departureComparator;
   private Comparator<Service> _arrivalComparator;
+  private TransferTimes _transferTimes = TransferTimes.NONE;
+  private transient StationIndex _stationIndex;
+  /* the services of the registry as published, sharing what did not change */
+  private transient ServiceTree _serviceTree;
+  /* the passengers of each tier, by id */
+  private transient EnumMap<Category.Tier, TreeMap<Integer, Passenger>> _passengersByTier;
+  private transient TimetableStore _store;
+  /* the services as seen by readers; replaced, never changed, by the writer */
+  private transient volatile Timetable _timetable;
+  private transient long _version;
+  /* the registry is ahead of the timetable, which is published on the next read */
+  private transient volatile boolean _unpublished;
+  private transient ArrayList<byte[]> _journalRecords;
+  private transient boolean _needsSnapshot;
+
+  /* read for passenger changes, written for service changes and saves */
+  private transient ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+  /* guards the passenger registries; each passenger is changed under its own monitor */
+  private transient ReentrantReadWriteLock _passengersLock = new ReentrantReadWriteLock();
+  private transient SearchCache _searchCache = new SearchCache(SearchCache.DEFAULT_SIZE);
 
   private class ItineraryComparator implements Comparator<Itinerary>, Serializable {
 
+    private static final long serialVersionUID = -2579784735058831192L;
+
   		@Override
   		public int compare(Itinerary itinerary1, Itinerary itinerary2) {
-        Double price1 = itinerary1.getPrice();
-        Double price2 = itinerary2.getPrice();
-          if(itinerary1.getItineraryDeparture().equals(itinerary2.getItineraryDeparture())) {
-            if(itinerary1.getItineraryArrival().equals(itinerary2.getItineraryArrival()))
-              return price1.compareTo(price2);
-            return itinerary1.getItineraryArrival().compareTo(itinerary2.getItineraryArrival());
-          }
-          return itinerary1.getItineraryDeparture().compareTo(itinerary2.getItineraryDeparture());
+        int departure = Integer.compare(itinerary1.getDepartureMinute(), itinerary2.getDepartureMinute());
+        if(departure != 0)
+          return departure;
+        int arrival = Integer.compare(itinerary1.getArrivalMinute(), itinerary2.getArrivalMinute());
+        if(arrival != 0)
+          return arrival;
+        return Double.compare(itinerary1.getPrice(), itinerary2.getPrice());
   		}
 
   }
 
+  /* compares the times of day of two stops, as LocalTime.compareTo, without building them */
+  private static int compareTimes(Service service1, int index1, Service service2, int index2) {
+    int seconds = Integer.compare(service1.getSecondOfDay(index1), service2.getSecondOfDay(index2));
+    return seconds != 0 ? seconds : Integer.compare(service1.getNano(index1), service2.getNano(index2));
+  }
+
   private class DepartureComparator implements Comparator<Service>, Serializable {
 
+    private static final long serialVersionUID = -7113322060462444477L;
+
   		@Override
   		public int compare(Service service1, Service service2) {
-  			return service1.getFirstStation().getDeparture().compareTo(service2.getFirstStation().getDeparture());
+  			return compareTimes(service1, 0, service2, 0);
   		}
 
   	}
 
   private class ArrivalComparator implements Comparator<Service>, Serializable {
 
+    private static final long serialVersionUID = -6276562395916903276L;
+
     	@Override
     	public int compare(Service service1, Service service2) {
-    		return service1.getLastStation().getDeparture().compareTo(service2.getLastStation().getDeparture());
+    		return compareTimes(service1, service1.getNumberOfStations() - 1, service2, service2.getNumberOfStations() - 1);
     	}
 
   }
@@ -85,13 +132,17 @@ public class TrainCompany implements Serializable {
    **/
   public TrainCompany() {
       _servicesRegistry = new TreeMap<Integer,Service>();
+      _stationDictionary = new StationDictionary();
       _passengersRegistry = new TreeMap<Integer,Passenger>();
-      _itineraryChoices = new ArrayList<Itinerary>();
+      _passengerIds = new HashMap<String,Integer>();
       _passengerCounter = 0;
       _hasChanged = false;
       _itineraryComparator = new ItineraryComparator();
       _departureComparator = new DepartureComparator();
       _arrivalComparator = new ArrivalComparator();
+      indexStations();
+      indexPassengers();
+      publish();
   }
 
   /**
@@ -100,17 +151,216 @@ public class TrainCompany implements Serializable {
    *
    * @param servicesRegistry
    *        registo base de servicos.
+   * @param stationDictionary
+   *        dicionario com os nomes das estacoes dos servicos.
    **/
-  public TrainCompany(TreeMap<Integer, Service> servicesRegistry) {
+  public TrainCompany(TreeMap<Integer, Service> servicesRegistry, StationDictionary stationDictionary) {
       _servicesRegistry = servicesRegistry;
+      _stationDictionary = stationDictionary;
       _passengersRegistry = new TreeMap<Integer,Passenger>();
-      _itineraryChoices = new ArrayList<Itinerary>();
+      _passengerIds = new HashMap<String,Integer>();
       _passengerCounter = 0;
       _hasChanged = false;
       _itineraryComparator = new ItineraryComparator();
       _departureComparator = new DepartureComparator();
       _arrivalComparator = new ArrivalComparator();
+      indexStations();
+      indexPassengers();
+      publish();
+  }
+
+  /**
+   * Construtor da classe. Cria uma instancia com servicos e passageiros ja
+   * existentes, como quando e lido um instantaneo binario.
+   *
+   * @param servicesRegistry
+   *        registo de servicos.
+   * @param stationDictionary
+   *        dicionario com os nomes das estacoes dos servicos.
+   * @param passengersRegistry
+   *        registo de passageiros, com os seus itinerarios.
+   * @param passengerCounter
+   *        id a atribuir ao proximo passageiro registado.
+   * @param hasChanged
+   *        estado da flag de alteracoes.
+   * @param transferTimes
+   *        tempos minimos de transbordo em cada estacao.
+   **/
+  TrainCompany(TreeMap<Integer, Service> servicesRegistry, StationDictionary stationDictionary,
+               TreeMap<Integer, Passenger> passengersRegistry, int passengerCounter, boolean hasChanged,
+               TransferTimes transferTimes) {
+      this(servicesRegistry, stationDictionary);
+      _passengersRegistry = passengersRegistry;
+      for(Passenger p: passengersRegistry.values())
+        _passengerIds.put(p.getName(), p.getId());
+      indexPassengers();
+      _passengerCounter = passengerCounter;
+      _hasChanged = hasChanged;
+      if(!transferTimes.isNone()) {
+        _transferTimes = transferTimes;
+        publish();
+      }
   }
+
+  /**
+   * Construtor da classe. Cria uma instancia sem passageiros cujos servicos
+   * sao lidos de um horario mapeado em memoria, a medida que sao pedidos.
+   *
+   * @param store
+   *        horario com os servicos.
+   **/
+  public TrainCompany(TimetableStore store) {
+      this(new Timetable(0, store, TransferTimes.NONE));
+  }
+
+  /**
+   * Construtor da classe. Cria uma instancia sem passageiros com os servicos
+   * de um horario ja publicado, que passa a ser partilhado por ambas.
+   *
+   * @param timetable
+   *        horario com os servicos.
+   **/
+  public TrainCompany(Timetable timetable) {
+      this(new TreeMap<Integer,Service>(), timetable.getStationDictionary());
+      _store = timetable.getStore();
+      if(_store == null) {
+        for(Service s: timetable.getServices())
+          _servicesRegistry.put(s.getId(), s);
+        indexStations();
+      }
+      _transferTimes = timetable.getTransferTimes();
+      _timetable = timetable;
+      _version = timetable.getVersion();
+  }
+
+  /**
+   * Metodo utilizado para passar os servicos do horario mapeado para o
+   * registo, antes de estes serem alterados ou guardados por serializacao.
+   **/
+  private void detachTimetable() {
+    if(_store == null)
+      return;
+    for(Service s: _store.getServices())
+      _servicesRegistry.put(s.getId(), s);
+    _store = null;
+    indexStations();
+  }
+
+  /**
+   * Metodo utilizado para publicar o estado atual do registo como um novo
+   * horario. E invocado com o trinco exclusivo ou, por getTimetable, com o
+   * trinco partilhado e o monitor da companhia, para que o registo nao mude.
+   **/
+  private void publish() {
+    if(_store != null)
+      _timetable = new Timetable(++_version, _store, _transferTimes);
+    else
+      _timetable = new Timetable(++_version, _serviceTree, _stationIndex.copy(), _stationDictionary,
+                                 _transferTimes);
+    _unpublished = false;
+  }
+
+  /**
+   * Metodo utilizado para obter o horario atual. O horario nunca e alterado:
+   * as alteracoes aos servicos sao publicadas juntas num novo horario, com
+   * outra versao, quando este volta a ser pedido.
+   *
+   * @return o horario atual.
+   **/
+  public Timetable getTimetable() {
+    if(_unpublished) {
+      /* the shared lock keeps writers out and may be taken by a reader or writer holding it already */
+      _lock.readLock().lock();
+      try {
+        synchronized(this) {
+          if(_unpublished)
+            publish();
+        }
+      } finally {
+        _lock.readLock().unlock();
+      }
+    }
+    return _timetable;
+  }
+
+  /**
+   * Metodo utilizado para reconstruir o indice de estacoes e a arvore de
+   * servicos a partir do registo de servicos. Nenhum deles e guardado, sendo
+   * reconstruidos apos a leitura.
+   **/
+  private void indexStations() {
+    _serviceTree = ServiceTree.of(_servicesRegistry.values());
+    _stationIndex = new StationIndex(_departureComparator, _arrivalComparator);
+    _stationIndex.addServices(_servicesRegistry.values());
+  }
+
+  /**
+   * Metodo utilizado para reconstruir os grupos de passageiros de cada
+   * escalao a partir do registo de passageiros.
+   **/
+  private void indexPassengers() {
+    _passengersByTier = new EnumMap<Category.Tier, TreeMap<Integer, Passenger>>(Category.Tier.class);
+    for(Category.Tier tier: Category.Tier.values())
+      _passengersByTier.put(tier, new TreeMap<Integer, Passenger>());
+    for(Passenger p: _passengersRegistry.values())
+      _passengersByTier.get(p.getCategory().getTier()).put(p.getId(), p);
+  }
+
+  /* moves the passenger to the group of the tier it has now */
+  private void regroupPassenger(Passenger passenger) {
+    _passengersLock.writeLock().lock();
+    try {
+      Category.Tier tier;
+      synchronized(passenger) {
+        tier = passenger.getCategory().getTier();
+      }
+      for(TreeMap<Integer, Passenger> group: _passengersByTier.values())
+        group.remove(passenger.getId());
+      _passengersByTier.get(tier).put(passenger.getId(), passenger);
+    } finally {
+      _passengersLock.writeLock().unlock();
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    _lock.writeLock().lock();
+    try {
+      detachTimetable();
+      out.defaultWriteObject();
+    } finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    _lock = new ReentrantReadWriteLock();
+    _passengersLock = new ReentrantReadWriteLock();
+    _searchCache = new SearchCache(SearchCache.DEFAULT_SIZE);
+    if(_transferTimes == null)
+      _transferTimes = TransferTimes.NONE;
+    if(_stationDictionary == null) {
+      /* written by a version that kept station names in the stations */
+      _stationDictionary = new StationDictionary();
+      for(Service s: _servicesRegistry.values())
+        s.restore(_stationDictionary);
+    }
+    for(Passenger p: _passengersRegistry.values())
+      for(Itinerary i: p.itinerariesByDate()) {
+        for(Segment s: i.getSegments())
+          s.restore(_stationDictionary);
+        i.restore();
+      }
+    indexStations();
+    publish();
+    if(_passengerIds == null) {
+      _passengerIds = new HashMap<String,Integer>();
+      for(Passenger p: _passengersRegistry.values())
+        _passengerIds.put(p.getName(), p.getId());
+    }
+    indexPassengers();
+  }
+
   /**
    * Metodo simples utilizado para mostrar o estado da flag.
    *
@@ -120,6 +370,62 @@ public class TrainCompany implements Serializable {
     return _hasChanged;
   }
 
+  /**
+   * Metodo utilizado para registar uma alteracao que pode ser guardada no
+   * journal, sem reescrever toda a companhia.
+   **/
+  private synchronized void journal(byte[] record) {
+    _hasChanged = true;
+    if(_needsSnapshot)
+      return;
+    if(_journalRecords == null)
+      _journalRecords = new ArrayList<byte[]>();
+    _journalRecords.add(record);
+  }
+
+  /**
+   * Metodo utilizado para registar uma alteracao aos servicos, que so pode ser
+   * guardada num novo instantaneo completo.
+   **/
+  private synchronized void changeServices() {
+    _hasChanged = true;
+    _needsSnapshot = true;
+    _journalRecords = null;
+  }
+
+  /* whether the changes since the last save can only be kept by a full snapshot */
+  boolean needsSnapshot() {
+    return _needsSnapshot;
+  }
+
+  /* the journal records of the changes since the last save */
+  synchronized List<byte[]> getJournalRecords() {
+    if(_journalRecords == null)
+      return Collections.emptyList();
+    return new ArrayList<byte[]>(_journalRecords);
+  }
+
+  /* called once the changes have been saved, in a journal or in a snapshot */
+  synchronized void markSaved() {
+    _hasChanged = false;
+    _needsSnapshot = false;
+    _journalRecords = null;
+  }
+
+  int getPassengerCounter() {
+    return _passengerCounter;
+  }
+
+  /**
+   * Metodo utilizado para obter o trinco que exclui todas as outras operacoes
+   * sobre a companhia, para que esta seja guardada num estado coerente.
+   *
+   * @return o trinco exclusivo da companhia.
+   **/
+  Lock exclusiveLock() {
+    return _lock.writeLock();
+  }
+
   /**
    * Cria um servico sem estacoes e adiciona ao registo.
    *
@@ -129,8 +435,71 @@ public class TrainCompany implements Serializable {
    *        preco total do servico.
    **/
   public void addService(int id, double price) {
-    Service service = new Service(id,price);
-    _servicesRegistry.put(id,service);
+    _lock.writeLock().lock();
+    try {
+      detachTimetable();
+      changeServices();
+      Service service = new Service(id,price);
+      Service replaced = _servicesRegistry.put(id,service);
+      _serviceTree = _serviceTree.put(service);
+      if(replaced != null)
+        _stationIndex.removeService(replaced);
+      _unpublished = true;
+    } finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Metodo utilizado para alterar o tempo minimo de transbordo de uma estacao.
+   *
+   * @param stationName
+   *        nome da estacao.
+   * @param minutes
+   *        minutos necessarios para mudar de comboio na estacao.
+   * @throws NoSuchStationNameException
+   *         caso nao exista nenhuma estacao com o nome dado como argumento.
+   **/
+  public void setTransferTime(String stationName, int minutes) throws NoSuchStationNameException {
+    int stationId = _stationDictionary.getId(stationName);
+    if(stationId < 0)
+      throw new NoSuchStationNameException(stationName);
+    _lock.writeLock().lock();
+    try {
+      publishTransferTimes(_transferTimes.withMinutes(stationId, minutes));
+    } finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Metodo utilizado para alterar o tempo minimo de transbordo das estacoes
+   * sem um tempo proprio.
+   *
+   * @param minutes
+   *        minutos necessarios para mudar de comboio.
+   **/
+  public void setDefaultTransferTime(int minutes) {
+    _lock.writeLock().lock();
+    try {
+      publishTransferTimes(_transferTimes.withDefaultMinutes(minutes));
+    } finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /* the timetable is published again, since searches depend on the transfer times */
+  private void publishTransferTimes(TransferTimes transferTimes) {
+    changeServices();
+    _transferTimes = transferTimes;
+    _unpublished = true;
+  }
+
+  /**
+   * @return os tempos minimos de transbordo do horario atual.
+   **/
+  public TransferTimes getTransferTimes() {
+    return getTimetable().getTransferTimes();
   }
 
   /**
@@ -144,8 +513,60 @@ public class TrainCompany implements Serializable {
    *        hora de partida da estacao.
    **/
   public void addStationToService(int id, String name, LocalTime time) {
-    Station station = new Station(name, time);
-    _servicesRegistry.get(id).addStation(station);
+    _lock.writeLock().lock();
+    try {
+      detachTimetable();
+      changeServices();
+      Station station = new Station(_stationDictionary.intern(name), time, _stationDictionary);
+      Service service = _servicesRegistry.get(id);
+      _stationIndex.removeService(service);
+      /* published services are never changed; such a service is replaced by a longer copy */
+      if(_timetable.getService(id) == service) {
+        service = service.copy(id, service.getPrice());
+        _servicesRegistry.put(id, service);
+        _serviceTree = _serviceTree.put(service);
+      }
+      service.addStation(station);
+      _stationIndex.addService(service);
+      _unpublished = true;
+    } finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Cria um servico com todas as suas estacoes e adiciona ao registo. E
+   * equivalente a addService seguido de addStationToService para cada estacao,
+   * mas o servico so e indexado uma vez.
+   *
+   * @param id
+   *        id do servico a ser registado.
+   * @param price
+   *        preco total do servico.
+   * @param names
+   *        nomes das estacoes, por ordem.
+   * @param times
+   *        horas de partida de cada estacao.
+   **/
+  void importService(int id, double price, String[] names, LocalTime[] times) {
+    _lock.writeLock().lock();
+    try {
+      detachTimetable();
+      changeServices();
+      Service service = new Service(id, price);
+      for(int i = 0; i < names.length; i++)
+        service.addStation(new Station(_stationDictionary.intern(names[i]), times[i], _stationDictionary));
+      service.trimToSize();
+      Service replaced = _servicesRegistry.put(id, service);
+      _serviceTree = _serviceTree.put(service);
+      if(replaced != null)
+        _stationIndex.removeService(replaced);
+      _stationIndex.addService(service);
+      /* published by importFile, once the whole file is read */
+      _unpublished = true;
+    } finally {
+      _lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -158,9 +579,15 @@ public class TrainCompany implements Serializable {
    *         caso nao exista nenhum servico com o id dado como argumento.
    **/
   public final Service getService(int id) throws NoSuchServiceIdException {
-    if(_servicesRegistry.get(id) == null)
+    Service service;
+    /* while the services are changed the writer reads the registry, so as not to publish each change */
+    if(_unpublished && _lock.isWriteLockedByCurrentThread())
+      service = _servicesRegistry.get(id);
+    else
+      service = getTimetable().getService(id);
+    if(service == null)
       throw new NoSuchServiceIdException(id);
-    return _servicesRegistry.get(id);
+    return service;
   }
 
   /**
@@ -169,11 +596,23 @@ public class TrainCompany implements Serializable {
    * @return uma colecao com todos os servicos disponiveis.
    **/
   public Collection<Service> getServices() {
-    return Collections.unmodifiableCollection(_servicesRegistry.values());
+    return getTimetable().getServices();
   }
 
+  /**
+   * Metodo utilizado para obter uma copia do registo de servicos atual.
+   *
+   * @return os servicos do horario atual, por id.
+   **/
   public TreeMap<Integer,Service> getAllServices() {
-    return _servicesRegistry;
+    TreeMap<Integer,Service> services = new TreeMap<Integer,Service>();
+    for(Service s: getTimetable().getServices())
+      services.put(s.getId(), s);
+    return services;
+  }
+
+  public StationDictionary getStationDictionary() {
+    return _stationDictionary;
   }
 
   /**
@@ -186,19 +625,8 @@ public class TrainCompany implements Serializable {
    *         caso nao exista nenhuma estacao com o nome dado como argumento.
    **/
   public Collection<Service> getServicesDepartingFromStation(String stationName) throws NoSuchStationNameException {
-    ArrayList<Service> services = new ArrayList<Service>();
-    boolean noSuchStationName = false;
-    for(Service s: getServices()) {
-      if(s.getFirstStation().getName().equals(stationName))
-        services.add(s);
-      for(Station st: s.getStations())
-        if(st.getName().equals(stationName))
-          noSuchStationName = true;
-    }
-    if(noSuchStationName == false)
-      throw new NoSuchStationNameException(stationName);
-    Collections.sort(services, _departureComparator);
-    return Collections.unmodifiableCollection(services);
+    Timetable timetable = getTimetable();
+    return timetable.getDepartingServices(servedStation(timetable, stationName));
   }
 
   /**
@@ -211,19 +639,48 @@ public class TrainCompany implements Serializable {
    *         caso nao exista nenhuma estacao com o nome dado como argumento.
    **/
   public Collection<Service> getServicesArrivingAtStation(String stationName) throws NoSuchStationNameException {
-    ArrayList<Service> services = new ArrayList<Service>();
-    boolean noSuchStationName = false;
-    for(Service s: getServices()) {
-      if(s.getLastStation().getName().equals(stationName))
-        services.add(s);
-      for(Station st: s.getStations())
-        if(st.getName().equals(stationName))
-          noSuchStationName = true;
-    }
-    if(noSuchStationName == false)
-        throw new NoSuchStationNameException(stationName);
-    Collections.sort(services, _arrivalComparator);
-    return Collections.unmodifiableCollection(services);
+    Timetable timetable = getTimetable();
+    return timetable.getArrivingServices(servedStation(timetable, stationName));
+  }
+
+  /**
+   * Metodo utilizado para listar os servicos aos poucos.
+   *
+   * @param after
+   *        cursor da pagina anterior, ou Page.START.
+   * @param pageSize
+   *        numero maximo de servicos da pagina.
+   * @return os servicos seguintes, por ordem de id.
+   **/
+  public Page<Service> getServices(int after, int pageSize) {
+    return getTimetable().getServices(after, pageSize, -1);
+  }
+
+  /**
+   * Metodo utilizado para listar aos poucos os servicos que param numa estacao.
+   *
+   * @param stationName
+   *        nome da estacao.
+   * @param after
+   *        cursor da pagina anterior, ou Page.START.
+   * @param pageSize
+   *        numero maximo de servicos da pagina.
+   * @return os servicos seguintes que param na estacao, por ordem de id.
+   * @throws NoSuchStationNameException
+   *         caso nao exista nenhuma estacao com o nome dado como argumento.
+   **/
+  public Page<Service> getServicesAtStation(String stationName, int after, int pageSize)
+                                            throws NoSuchStationNameException {
+    Timetable timetable = getTimetable();
+    return timetable.getServices(after, pageSize, servedStation(timetable, stationName));
+  }
+
+  /* the id of a station served by the timetable */
+  private int servedStation(Timetable timetable, String stationName) throws NoSuchStationNameException {
+    int stationId = _stationDictionary.getId(stationName);
+    if(!timetable.hasServices(stationId))
+      throw new NoSuchStationNameException(stationName);
+    return stationId;
   }
 
 
@@ -236,11 +693,20 @@ public class TrainCompany implements Serializable {
    *        caso ja exista um passageiro no registo com o mesmo nome.
    **/
   public void registerPassenger(String name) throws NonUniquePassengerNameException {
-      for(Passenger p: getPassengers())
-        if(p.getName().equals(name))
-          throw new NonUniquePassengerNameException(name);
+    _lock.readLock().lock();
+    _passengersLock.writeLock().lock();
+    try {
+      if(_passengerIds.containsKey(name))
+        throw new NonUniquePassengerNameException(name);
       Passenger passenger = new Passenger(_passengerCounter++, name);
       _passengersRegistry.put(passenger.getId(), passenger);
+      _passengerIds.put(name, passenger.getId());
+      _passengersByTier.get(passenger.getCategory().getTier()).put(passenger.getId(), passenger);
+      journal(Journal.recordRegisterPassenger(name));
+    } finally {
+      _passengersLock.writeLock().unlock();
+      _lock.readLock().unlock();
+    }
   }
 
   /**
@@ -256,13 +722,22 @@ public class TrainCompany implements Serializable {
    *        pretende alterar.
    **/
   public void changePassengerName(int id, String name) throws NoSuchPassengerIdException, NonUniquePassengerNameException {
+    _lock.readLock().lock();
+    _passengersLock.writeLock().lock();
+    try {
       if(_passengersRegistry.get(id) == null)
         throw new NoSuchPassengerIdException(id);
-      for(Passenger p: getPassengers())
-        if(p.getName().equals(name))
-          throw new NonUniquePassengerNameException(name);
+      if(_passengerIds.containsKey(name))
+        throw new NonUniquePassengerNameException(name);
       Passenger p = getPassenger(id);
+      _passengerIds.remove(p.getName());
       p.setName(name);
+      _passengerIds.put(name, id);
+      journal(Journal.recordChangePassengerName(id, name));
+    } finally {
+      _passengersLock.writeLock().unlock();
+      _lock.readLock().unlock();
+    }
   }
 
   /**
@@ -275,9 +750,36 @@ public class TrainCompany implements Serializable {
    *         caso nao exista nenhum passageiro com o id dado como argumento.
    **/
   public final Passenger getPassenger(int id) throws NoSuchPassengerIdException {
-    if(_passengersRegistry.get(id) == null)
-      throw new NoSuchPassengerIdException(id);
-    return _passengersRegistry.get(id);
+    _passengersLock.readLock().lock();
+    try {
+      Passenger passenger = _passengersRegistry.get(id);
+      if(passenger == null)
+        throw new NoSuchPassengerIdException(id);
+      return passenger;
+    } finally {
+      _passengersLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Metodo simples utilizado para mostrar um passageiro atraves do nome.
+   *
+   * @param name
+   *        nome do passageiro.
+   * @return um objeto Passageiro com o nome dado.
+   * @throws NoSuchPassengerNameException
+   *         caso nao exista nenhum passageiro com o nome dado como argumento.
+   **/
+  public final Passenger getPassenger(String name) throws NoSuchPassengerNameException {
+    _passengersLock.readLock().lock();
+    try {
+      Integer id = _passengerIds.get(name);
+      if(id == null)
+        throw new NoSuchPassengerNameException(name);
+      return _passengersRegistry.get(id);
+    } finally {
+      _passengersLock.readLock().unlock();
+    }
   }
 
   /**
@@ -286,7 +788,38 @@ public class TrainCompany implements Serializable {
    * @return uma colecao com todos os passageiros em registo.
    **/
   public Collection<Passenger> getPassengers() {
-    return Collections.unmodifiableCollection(_passengersRegistry.values());
+    _passengersLock.readLock().lock();
+    try {
+      return Collections.unmodifiableCollection(new ArrayList<Passenger>(_passengersRegistry.values()));
+    } finally {
+      _passengersLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Metodo utilizado para listar os passageiros aos poucos.
+   *
+   * @param tier
+   *        escalao dos passageiros a listar, ou null para todos.
+   * @param after
+   *        cursor da pagina anterior, ou Page.START.
+   * @param pageSize
+   *        numero maximo de passageiros da pagina.
+   * @return os passageiros seguintes, por ordem de id.
+   **/
+  public Page<Passenger> getPassengers(Category.Tier tier, int after, int pageSize) {
+    Page.Builder<Passenger> page = new Page.Builder<Passenger>(after, pageSize);
+    _passengersLock.readLock().lock();
+    try {
+      /* each tier is kept apart, so a page of a rare tier skips no other passengers */
+      TreeMap<Integer, Passenger> passengers = tier == null ? _passengersRegistry : _passengersByTier.get(tier);
+      for(Passenger p: passengers.tailMap(after, false).values())
+        if(!page.add(p, p.getId()))
+          break;
+    } finally {
+      _passengersLock.readLock().unlock();
+    }
+    return page.build();
   }
 
   /**
@@ -325,8 +858,10 @@ public class TrainCompany implements Serializable {
     throws NoSuchPassengerIdException, NoSuchServiceIdException {
 
     Segment segment = new Segment(getService(serviceId), 0.0);
-    segment.addStations(departureStationName, arrivalStationName);
-    getPassenger(passengerId).getLastAddedIt().addSegment(segment);
+    segment.addStations(_stationDictionary.getId(departureStationName), _stationDictionary.getId(arrivalStationName));
+    Itinerary itinerary = getPassenger(passengerId).getLastAddedIt();
+    segment.setDay(itinerary.connectingDay(segment));
+    itinerary.addSegment(segment);
   }
 
   /**
@@ -351,13 +886,15 @@ public class TrainCompany implements Serializable {
 
     Segment segment = new Segment(getService(serviceId), 0.0);
 
-    segment.addStations(departureStationName, arrivingStationName);
+    segment.addStations(_stationDictionary.getId(departureStationName), _stationDictionary.getId(arrivingStationName));
+    segment.setDay(itinerary.connectingDay(segment));
     itinerary.addSegment(segment);
   }
 
   /**
    * Metodo simples para ler informacao de ficheiros sobre passageiros, servicos e itinerarios.
-   * Invoca a funcao registerFromFields que analisa e trata a informacao recolhida.
+   * A leitura e feita pelo TimetableImporter, que analisa as linhas em paralelo
+   * e as aplica pela ordem do ficheiro.
    * As linhas sao da forma exemplificada a seguir. A notacao "..." significa
    * repeticao do formato.
    *
@@ -373,7 +910,10 @@ public class TrainCompany implements Serializable {
    *
    * @param filename
    *        ficheiro de input
+   * @return as estatisticas da importacao.
    * @throws IOException
+   * @throws BadEntryException
+   *         caso alguma linha do ficheiro esteja mal formada.
    * @throws NonUniquePassengerNameException
    *         caso ja exista um passageiro no registo com o nome para que se
    *         spretende alterar.
@@ -382,274 +922,525 @@ public class TrainCompany implements Serializable {
    * @throws NoSuchServiceIdException
    *         caso nao exista nenhum servico com o id lido.
    */
-  void importFile(String filename) throws IOException, NonUniquePassengerNameException,
-    NoSuchPassengerIdException, NoSuchServiceIdException {
-
-      BufferedReader reader = new BufferedReader(new FileReader(filename));
-      String line;
-      while((line = reader.readLine()) != null) {
-        String[] fields = line.split("\\|");
-        registerFromFields(fields);
-      }
-      reader.close();
-
+  ImportStatistics importFile(String filename) throws IOException, BadEntryException,
+    NonUniquePassengerNameException, NoSuchPassengerIdException, NoSuchServiceIdException {
+
+    _lock.writeLock().lock();
+    try {
+      ImportStatistics statistics = new TimetableImporter(this).importFile(filename);
+      /* imported itineraries are not journaled, so the next save is a snapshot */
+      if(statistics.getRecords() > 0)
+        changeServices();
+      return statistics;
+    } finally {
+      /* even a failed import publishes the services read before the error */
+      if(_unpublished)
+        publish();
+      _lock.writeLock().unlock();
+    }
   }
 
-
   /**
-   * Metodo simples que analisa e trata a informacao recolhida pela funcao importFile.
+   * Metodo que regista um itinerario lido de um ficheiro e atualiza a categoria
+   * do passageiro correspondente.
    *
-   * @param fields
-   *        array de strings atraves do qual a informacao vai ser tratada
-   * @throws IOException
-   * @throws NonUniquePassengerNameException
-   *         caso ja exista um passageiro no registo com o nome para que se
-   *         spretende alterar.
+   * @param passengerId
+   *        id do passageiro.
+   * @param date
+   *        data do itinerario.
+   * @param serviceIds
+   *        ids dos servicos de cada segmento.
+   * @param departureStationNames
+   *        nomes das estacoes de partida de cada segmento.
+   * @param arrivalStationNames
+   *        nomes das estacoes de chegada de cada segmento.
    * @throws NoSuchPassengerIdException
    *         caso nao exista nenhum passageiro com o id lido.
    * @throws NoSuchServiceIdException
    *         caso nao exista nenhum servico com o id lido.
    */
-  void registerFromFields(String[] fields) throws IOException, NonUniquePassengerNameException,
-    NoSuchPassengerIdException, NoSuchServiceIdException {
-
-    if(fields[0].equals("SERVICE")) {
-      addService(Integer.parseInt(fields[1]),Double.parseDouble(fields[2]));
-      _hasChanged = true;
-      for(int i = 3; i < fields.length-1; i = i+2)
-        addStationToService(Integer.parseInt(fields[1]), fields[i+1], LocalTime.parse(fields[i]));
-    }
-    if(fields[0].equals("PASSENGER")) {
-      registerPassenger(fields[1]);
-      _hasChanged = true;
-    }
-    if(fields[0].equals("ITINERARY")) {
-      addItinerary(Integer.parseInt(fields[1]), LocalDate.parse(fields[2]));
-      _hasChanged = true;
-      for(int i = 3; i < fields.length; i++) {
-        String[] fields2 = fields[i].split("\\/");
-        addSegmentToItinerary(Integer.parseInt(fields[1]), Integer.parseInt(fields2[0]), fields2[1], fields2[2]);
-      }
-      getPassenger(Integer.parseInt(fields[1])).checkCategoryChanges();
-      getPassenger(Integer.parseInt(fields[1])).getCategory().setAcumulatedMinutes(getPassenger(Integer.parseInt(fields[1])).getLastAddedIt());
-    }
+  void importItinerary(int passengerId, LocalDate date, int[] serviceIds, String[] departureStationNames,
+                       String[] arrivalStationNames) throws NoSuchPassengerIdException, NoSuchServiceIdException {
+
+    addItinerary(passengerId, date);
+    for(int i = 0; i < serviceIds.length; i++)
+      addSegmentToItinerary(passengerId, serviceIds[i], departureStationNames[i], arrivalStationNames[i]);
+    Passenger passenger = getPassenger(passengerId);
+    Category.Tier tier = passenger.getCategory().getTier();
+    passenger.checkCategoryChanges();
+    passenger.getCategory().setAcumulatedMinutes(passenger.getLastAddedIt());
+    if(passenger.getCategory().getTier() != tier)
+      regroupPassenger(passenger);
   }
 
   /**
-   * Metodo que verifica a existencia de itinerarios com igual servico de partida
-   * e remove o mais tardio.
+   * Metodo que volta a aplicar a compra de um itinerario lida do journal.
    *
-   * @param itineraries
-   *        lista de itinerarios que vai ser analisada.
-   * @return uma lista tratada de itinerarios.
+   * @param passengerId
+   *        id do passageiro que comprou o itinerario.
+   * @param date
+   *        data do itinerario.
+   * @param price
+   *        preco do itinerario.
+   * @param discount
+   *        desconto de que o passageiro beneficiava na compra.
+   * @param serviceIds
+   *        ids dos servicos de cada segmento.
+   * @param firstIndexes
+   *        posicao da estacao de partida de cada segmento no seu servico.
+   * @param lastIndexes
+   *        posicao da estacao de chegada de cada segmento no seu servico.
+   * @param prices
+   *        preco de cada segmento.
+   * @param days
+   *        dia de partida do servico de cada segmento, a partir da data.
+   * @throws NoSuchPassengerIdException
+   *         caso nao exista nenhum passageiro com o id dado.
+   * @throws NoSuchServiceIdException
+   *         caso nao exista nenhum servico com algum dos ids dados.
    */
-  public List<Itinerary> removeDuplicateDepartureServiceItineraries(List<Itinerary> itineraries) {
-    boolean flag = false;
-    List<Itinerary> updated = new ArrayList<Itinerary>();
-
-    for(Itinerary i1 : itineraries) {
-      for(Itinerary i2 : updated) {
-        if(i1.getDepartureServiceId() == i2.getDepartureServiceId()) {
-          if(i1.getNumberOfServices() == 1)
-            flag = false;
-          if(i1.getItineraryArrival().isBefore(i2.getItineraryArrival()))
-            flag = true;
-        }
-        else
-          flag = false;
-      }
-      if(!flag)
-        updated.add(i1);
+  void replayItinerary(int passengerId, LocalDate date, double price, double discount, int[] serviceIds,
+                       int[] firstIndexes, int[] lastIndexes, double[] prices, int[] days)
+                       throws NoSuchPassengerIdException, NoSuchServiceIdException {
+
+    Passenger passenger = getPassenger(passengerId);
+    Itinerary itinerary = new Itinerary(date, passenger, price, discount);
+    for(int i = 0; i < serviceIds.length; i++)
+      itinerary.putSegment(new Segment(getService(serviceIds[i]), prices[i], firstIndexes[i], lastIndexes[i],
+                                       days[i]));
+    buy(passenger, itinerary);
+  }
+
+  /**
+   * Metodo utilizado para obter o motor de procura sobre os servicos atuais.
+   * O motor pertence ao horario atual, sendo construido apenas quando
+   * necessario.
+   *
+   * @return o motor de procura de itinerarios.
+   */
+  ConnectionScanner getConnectionScanner() {
+    return getTimetable().getConnectionScanner();
+  }
+
+  /**
+   * Metodo utilizado para obter o router multi-criterio sobre os servicos
+   * atuais. Tal como o motor de procura, pertence ao horario atual.
+   *
+   * @return o router de itinerarios.
+   */
+  RaptorRouter getRouter() {
+    return getTimetable().getRouter();
+  }
+
+  /**
+   * Metodo utilizado para construir um itinerario a partir dos troncos de uma
+   * viagem.
+   *
+   * @param passenger
+   *        passageiro que procura o itinerario.
+   * @param date
+   *        data da viagem.
+   * @param legs
+   *        troncos da viagem.
+   * @return o itinerario correspondente.
+   */
+  Itinerary buildItinerary(Passenger passenger, LocalDate date, List<Leg> legs) {
+    Itinerary itinerary = new Itinerary(date, passenger);
+    for(Segment segment: buildSegments(legs))
+      itinerary.addSegment(segment);
+    return itinerary;
+  }
+
+  /* the segments travelled on the legs, at the full price of each */
+  private static List<Segment> buildSegments(List<Leg> legs) {
+    List<Segment> segments = new ArrayList<Segment>(legs.size());
+    for(Leg leg: legs) {
+      Segment segment = new Segment(leg.getService(), 0.0);
+      segment.addStationsByIndex(leg.getDepartureIndex(), leg.getArrivalIndex());
+      segment.setDay(leg.getDay());
+      segments.add(segment);
     }
-    return updated;
+    return segments;
   }
 
   /**
-   * Metodo recursivo utilizado para procurar todas as hipoteses de itinerarios
-   * entre duas estacoes dadas como argumento.
+   * Metodo utilizado para procurar os itinerarios possiveis entre duas estacoes
+   * dadas como argumento. Sao apresentados apenas os itinerarios Pareto-otimos
+   * quanto a hora de partida, hora de chegada, numero de transbordos e preco.
+   * Procuras concorrentes nao interferem entre si: cada uma devolve a sua
+   * propria cotacao, calculada sobre o horario atual quando comecou. As
+   * viagens de procuras repetidas sobre o mesmo horario vem da cache. Uma
+   * viagem pode passar a meia-noite e continuar nos servicos do dia seguinte
+   * (ver RaptorRouter).
    *
    * @param passengerId
    *        id do passageiro que procura o itinerario.
-   * @param originalDepartureStation
-   *        nome da estacao de origem.
    * @param departureStation
-   *        nome da estacao de origem do estado atual da recursao.
+   *        nome da estacao de origem.
    * @param arrivalStation
    *        nome da estacao de chegada.
    * @param departureDate
    *        data da viagem.
    * @param departureTime
    *        hora minima para a partida.
-   * @param itineraries
-   *        lista de itinerarios encontrados ao longo da recursao.
-   * @param services
-   *        lista de servicos que vao servir de base para os itinerarios.
-   * @param serviceStations
-   *        lista de estacoes do servico que esta a ser analisado no momento.
-   * @param currentItinerary
-   *        itinerario atual.
-   * @param currentSegmentStations
-   *        lista de estacoes do segmento atual do itinerario atual.
    * @throws NoSuchPassengerIdException
    *         caso nao exista nenhum passageiro com o id dado como argumento.
    * @throws NoSuchStationNameException
    *         caso nao exista nenhuma estacao com o nome dado como argumento.
-   * @throws NoSuchServiceIdException
-   *         caso nao exista nenhum servico com o id pretendido.
-   * @return uma lista com todos os itinerarios possiveis.
+   * @return a cotacao com todos os itinerarios possiveis, ordenados.
    */
-  public List<Itinerary> search(int passengerId, String originalDepartureStation, String departureStation, String arrivalStation,
-                                LocalDate departureDate, LocalTime departureTime, List<Itinerary> itineraries,
-                                List<Service> services, List<Station> serviceStations,
-                                Itinerary currentItinerary, List<Station> currentSegmentStations) throws NoSuchPassengerIdException,
-                                NoSuchStationNameException, NoSuchServiceIdException {
-
-    Service s = services.get(0);
-    if(s.getStationNames().contains(departureStation) && s.getStation(departureStation).getDeparture().isBefore(departureTime) == false
-       && s.getStationNames().contains(arrivalStation) &&  s.getStation(originalDepartureStation).getDeparture().isBefore(s.getStation(arrivalStation).getDeparture())) {
-        /*for direct services*/
-        addSegmentToItinerary(passengerId, currentItinerary, s.getId(), departureStation, arrivalStation);
-        itineraries.add(currentItinerary);
-        currentItinerary.setId(itineraries.size());
-
-        services.remove(0);
-
-        /*if there are no more services to test, return*/
-        if(services.size() == 0) {
-          itineraries = removeDuplicateDepartureServiceItineraries(itineraries);
-          itineraries.sort(_itineraryComparator);
-          for(int i = 0; i < itineraries.size(); i++)
-            itineraries.get(i).setId(i+1);
-          _itineraryChoices = itineraries;
-          return itineraries;
-        }
+  public Quote search(int passengerId, String departureStation, String arrivalStation,
+                      LocalDate departureDate, LocalTime departureTime) throws NoSuchPassengerIdException,
+                      NoSuchStationNameException {
+
+    Passenger passenger = getPassenger(passengerId);
+    Timetable timetable = getTimetable();
+    int origin = _stationDictionary.getId(departureStation);
+    if(origin < 0)
+      throw new NoSuchStationNameException(departureStation);
+    int destination = _stationDictionary.getId(arrivalStation);
+    if(destination < 0)
+      throw new NoSuchStationNameException(arrivalStation);
+
+    List<Itinerary> itineraries = new ArrayList<Itinerary>();
+    /* stations named after the timetable was published have no services in it */
+    if(origin < timetable.getStationCount() && destination < timetable.getStationCount()) {
+      int minute = departureTime.toSecondOfDay() / 60;
+      List<List<Leg>> journeys = _searchCache.get(timetable.getVersion(), origin, destination, minute);
+      if(journeys != null) {
+        for(List<Leg> journey: journeys)
+          itineraries.add(buildItinerary(passenger, departureDate, journey));
+      } else {
+        journeys = timetable.getRouter().search(origin, destination, minute);
+        _searchCache.put(timetable.getVersion(), origin, destination, minute,
+                         sortItineraries(passenger, departureDate, journeys, itineraries));
+      }
+    }
+    return quote(passengerId, itineraries);
+  }
+
+  /* builds the itineraries of the journeys in the order they are offered, and
+     returns the journeys in that order; the order does not depend on the
+     passenger, so the journeys can be kept sorted */
+  private List<List<Leg>> sortItineraries(Passenger passenger, LocalDate date, List<List<Leg>> journeys,
+                                          List<Itinerary> itineraries) {
+    HashMap<Itinerary, List<Leg>> legs = new HashMap<Itinerary, List<Leg>>();
+    for(List<Leg> journey: journeys) {
+      Itinerary itinerary = buildItinerary(passenger, date, journey);
+      itineraries.add(itinerary);
+      legs.put(itinerary, journey);
+    }
+    itineraries.sort(_itineraryComparator);
+    List<List<Leg>> sorted = new ArrayList<List<Leg>>(itineraries.size());
+    for(Itinerary i: itineraries)
+      sorted.add(legs.get(i));
+    return sorted;
+  }
 
-        serviceStations.clear();
-        currentSegmentStations.clear();
-        serviceStations.addAll(services.get(0).getStations());
+  /* numbers the itineraries as offered */
+  private Quote quote(int passengerId, List<Itinerary> itineraries) {
+    for(int i = 0; i < itineraries.size(); i++)
+      itineraries.get(i).setId(i+1);
+    return new Quote(this, passengerId, itineraries);
+  }
 
+  /* the queries of a batch leaving from the same station at the same minute */
+  /* threads of the batch searches, one per processor, created on the first batch; being
+     daemons, they never keep the program running */
+  private static class SearchPool {
+    private static final ExecutorService EXECUTOR =
+      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+          Thread thread = new Thread(task, "mmt-search");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  }
 
-        return search(passengerId, originalDepartureStation, departureStation, arrivalStation, departureDate,
-                      departureTime, itineraries, services, serviceStations,
-                      new Itinerary(departureDate, getPassenger(passengerId)),
-                      currentSegmentStations);
+  private static class SearchGroup {
+    private final int _origin;
+    private final int _minute;
+    private final ArrayList<Integer> _queries = new ArrayList<Integer>();
+    private final ArrayList<Integer> _destinations = new ArrayList<Integer>();
+    /* the itineraries of each query, sorted, once the group is searched */
+    private final ArrayList<List<Itinerary>> _itineraries = new ArrayList<List<Itinerary>>();
+
+    SearchGroup(int origin, int minute) {
+      _origin = origin;
+      _minute = minute;
     }
-    else if((s.getStationNames().contains(departureStation) && s.getStation(departureStation).getDeparture().isBefore(departureTime) == false &&
-            !s.getStationNames().contains(arrivalStation) )|| s.getStationNames().contains(departureStation) &&
-             s.getStation(departureStation).getDeparture().isBefore(departureTime) == false &&
-             s.getStationNames().contains(arrivalStation) && !s.getStation(arrivalStation).getDeparture().isBefore(s.getStation(originalDepartureStation).getDeparture())) {
-      /*non direct services*/
-
-      /*if there's no itinerary, go back and check another service*/
-      if(serviceStations.size() == 1) {
-        services.remove(0);
-        serviceStations.clear();
-        serviceStations.addAll(services.get(0).getStations());
-
-        return search(passengerId, originalDepartureStation, originalDepartureStation, arrivalStation, departureDate,
-                      departureTime, itineraries, services, serviceStations,
-                      currentItinerary, currentSegmentStations);
-      }
+  }
 
-      //adiciona a estacao ao segmento
-      currentSegmentStations.add(s.getStation(departureStation));
-
-      /*checks if there are other services containing the current departing
-        station that are direct */
-      List<Service> temp = services.subList(1,services.size());
-      for(Service serv: temp) {
-        if(serv.getStationNames().contains(departureStation) &&
-           serv.getStationNames().contains(arrivalStation) &&
-           currentSegmentStations.get(currentSegmentStations.size()-1).getDeparture().isBefore(serv.getStation(departureStation).getDeparture()) &&
-           serv.getStation(departureStation).getDeparture().isBefore(serv.getStation(arrivalStation).getDeparture())) {
-
-           if(currentSegmentStations.size() > 1) {
-             addSegmentToItinerary(passengerId, currentItinerary, s.getId(), currentSegmentStations.get(0).getName(),
-                                 currentSegmentStations.get(currentSegmentStations.size() - 1).getName());
-             addSegmentToItinerary(passengerId, currentItinerary, serv.getId(), departureStation, arrivalStation);
-             itineraries.add(currentItinerary);
-             currentItinerary.setId(itineraries.size());
-           }
+  /**
+   * Metodo utilizado para fazer um lote de procuras de itinerarios para um
+   * passageiro. As procuras com a mesma estacao de origem e o mesmo minuto de
+   * partida sao respondidas juntas, numa so passagem pelo horario (ver
+   * RaptorRouter), e os grupos sao procurados em paralelo, por threads
+   * proprias das procuras em lote, uma por processador. Cada cotacao e entregue ao listener logo que e
+   * encontrada, na thread que chamou este metodo, e e igual a que seria
+   * devolvida por search. Todas as procuras usam o horario atual quando o
+   * lote comeca. As viagens ja em cache sao usadas, mas as do lote nao sao
+   * guardadas, para que um lote grande nao tire da cache as das procuras
+   * interativas.
+   *
+   * @param passengerId
+   *        id do passageiro que procura os itinerarios.
+   * @param queries
+   *        procuras do lote.
+   * @param listener
+   *        recetor das cotacoes e das procuras falhadas, como as que usam
+   *        estacoes que nao existem.
+   * @throws NoSuchPassengerIdException
+   *         caso nao exista nenhum passageiro com o id dado como argumento.
+   * @throws InterruptedException
+   *         caso a thread seja interrompida antes do fim do lote; as
+   *         procuras ainda por fazer sao canceladas.
+   */
+  public void searchAll(int passengerId, List<SearchQuery> queries, SearchListener listener)
+    throws NoSuchPassengerIdException, InterruptedException {
+
+    searchAll(passengerId, queries, listener, SearchPool.EXECUTOR);
+  }
+
+  /**
+   * Metodo utilizado para fazer um lote de procuras de itinerarios para um
+   * passageiro, como searchAll, procurando os grupos no executor dado.
+   *
+   * @param passengerId
+   *        id do passageiro que procura os itinerarios.
+   * @param queries
+   *        procuras do lote.
+   * @param listener
+   *        recetor das cotacoes e das procuras falhadas.
+   * @param executor
+   *        executor onde os grupos de procuras sao feitos.
+   * @throws NoSuchPassengerIdException
+   *         caso nao exista nenhum passageiro com o id dado como argumento.
+   * @throws InterruptedException
+   *         caso a thread seja interrompida antes do fim do lote.
+   */
+  public void searchAll(final int passengerId, final List<SearchQuery> queries, SearchListener listener,
+                        Executor executor) throws NoSuchPassengerIdException, InterruptedException {
+
+    final Passenger passenger = getPassenger(passengerId);
+    final Timetable timetable = getTimetable();
+    LinkedHashMap<Long, SearchGroup> groups = new LinkedHashMap<Long, SearchGroup>();
+    for(int index = 0; index < queries.size(); index++) {
+      SearchQuery query = queries.get(index);
+      int origin = _stationDictionary.getId(query.getDepartureStation());
+      int destination = _stationDictionary.getId(query.getArrivalStation());
+      if(origin < 0 || destination < 0) {
+        String name = origin < 0 ? query.getDepartureStation() : query.getArrivalStation();
+        listener.failed(index, query, new NoSuchStationNameException(name));
+        continue;
+      }
+      List<Itinerary> itineraries = new ArrayList<Itinerary>();
+      int minute = query.getTime().toSecondOfDay() / 60;
+      if(origin < timetable.getStationCount() && destination < timetable.getStationCount()) {
+        List<List<Leg>> journeys = _searchCache.get(timetable.getVersion(), origin, destination, minute);
+        if(journeys == null) {
+          Long key = (long) origin << 32 | minute;
+          SearchGroup group = groups.get(key);
+          if(group == null)
+            groups.put(key, group = new SearchGroup(origin, minute));
+          group._queries.add(index);
+          group._destinations.add(destination);
+          continue;
         }
+        for(List<Leg> journey: journeys)
+          itineraries.add(buildItinerary(passenger, query.getDate(), journey));
       }
+      listener.quoted(index, query, quote(passengerId, itineraries));
+    }
 
-      //passa para a proxima estacao
-      serviceStations.remove(0);
-
-      /*if there's no itinerary, go back and check another service*/
-      if(serviceStations.size() == 0 && services.size() != 0) {
-        services.remove(0);
-        /*if there are no more services to test, return*/
-        if(services.size() == 0) {
-          itineraries = removeDuplicateDepartureServiceItineraries(itineraries);
-          itineraries.sort(_itineraryComparator);
-          for(int i = 0; i < itineraries.size(); i++)
-            itineraries.get(i).setId(i+1);
-          _itineraryChoices = itineraries;
-          return itineraries;
+    ExecutorCompletionService<SearchGroup> completion =
+      new ExecutorCompletionService<SearchGroup>(executor);
+    ArrayList<Future<SearchGroup>> futures = new ArrayList<Future<SearchGroup>>(groups.size());
+    try {
+      for(final SearchGroup group: groups.values())
+        futures.add(completion.submit(new Callable<SearchGroup>() {
+          @Override
+          public SearchGroup call() {
+            int[] destinations = new int[group._destinations.size()];
+            for(int i = 0; i < destinations.length; i++)
+              destinations[i] = group._destinations.get(i);
+            List<List<List<Leg>>> journeys = timetable.getRouter().search(group._origin, destinations,
+                                                                          group._minute);
+            for(int i = 0; i < destinations.length; i++) {
+              List<Itinerary> itineraries = new ArrayList<Itinerary>();
+              sortItineraries(passenger, queries.get(group._queries.get(i)).getDate(), journeys.get(i),
+                              itineraries);
+              group._itineraries.add(itineraries);
+            }
+            return group;
+          }
+        }));
+      for(int done = 0; done < futures.size(); done++) {
+        SearchGroup group = completion.take().get();
+        for(int i = 0; i < group._queries.size(); i++) {
+          int index = group._queries.get(i);
+          listener.quoted(index, queries.get(index), quote(passengerId, group._itineraries.get(i)));
         }
-        serviceStations.clear();
-        serviceStations.addAll(services.get(0).getStations());
-
-        return search(passengerId, originalDepartureStation, originalDepartureStation, arrivalStation, departureDate,
-                      departureTime, itineraries, services, serviceStations,
-                      currentItinerary, currentSegmentStations);
       }
-
-      return search(passengerId, originalDepartureStation, serviceStations.get(0).getName(), arrivalStation, departureDate,
-                    departureTime, itineraries, services, serviceStations,
-                    currentItinerary, currentSegmentStations);
+    } catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if(cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
+    } finally {
+      for(Future<SearchGroup> f: futures)
+        f.cancel(false);
     }
-    else {
-      services.remove(0);
-
-      /*if there are no more services to test, return*/
-      if(services.size() == 0) {
-        itineraries = removeDuplicateDepartureServiceItineraries(itineraries);
-        itineraries.sort(_itineraryComparator);
-        for(int i = 0; i < itineraries.size(); i++)
-          itineraries.get(i).setId(i+1);
-        _itineraryChoices = itineraries;
-        return itineraries;
-      }
+  }
 
-      serviceStations.clear();
-      serviceStations.addAll(services.get(0).getStations());
+  /* the journey travelled on the legs, at the full price of its segments */
+  private Journey buildJourney(List<Leg> legs) {
+    return new Journey(buildSegments(legs));
+  }
 
-      return search(passengerId, originalDepartureStation, departureStation, arrivalStation, departureDate,
-                    departureTime, itineraries, services, serviceStations,
-                    currentItinerary, currentSegmentStations);
+  /* the station of the current timetable with the given name, or -1 if it has no services in it */
+  private int departureStationId(Timetable timetable, String departureStation) throws NoSuchStationNameException {
+    int origin = _stationDictionary.getId(departureStation);
+    if(origin < 0)
+      throw new NoSuchStationNameException(departureStation);
+    return origin < timetable.getStationCount() ? origin : -1;
+  }
 
+  /**
+   * Metodo utilizado para obter a viagem que chega mais cedo a cada estacao,
+   * partindo de uma estacao a partir de uma hora, numa so passagem pelo
+   * horario (ver ConnectionScanner). As viagens podem passar a meia-noite nos
+   * servicos que usam, mas nao esperam pelos servicos do dia seguinte.
+   *
+   * @param departureStation
+   *        nome da estacao de origem.
+   * @param departureTime
+   *        hora minima para a partida.
+   * @throws NoSuchStationNameException
+   *         caso nao exista nenhuma estacao com o nome dado como argumento.
+   * @return a viagem para cada estacao alcancavel, pelo nome da estacao.
+   */
+  public Map<String, Journey> earliestArrivals(String departureStation, LocalTime departureTime)
+    throws NoSuchStationNameException {
+
+    Timetable timetable = getTimetable();
+    TreeMap<String, Journey> journeys = new TreeMap<String, Journey>();
+    int origin = departureStationId(timetable, departureStation);
+    if(origin >= 0) {
+      List<List<Leg>> legs = timetable.getConnectionScanner().earliestArrivals(origin,
+                                                                               departureTime.toSecondOfDay() / 60);
+      for(int st = 0; st < legs.size(); st++)
+        if(!legs.get(st).isEmpty())
+          journeys.put(_stationDictionary.getName(st), buildJourney(legs.get(st)));
+    }
+    return Collections.unmodifiableMap(journeys);
+  }
+
+  /**
+   * Metodo utilizado para obter, para cada estacao, todas as viagens
+   * Pareto-otimas quanto a hora de partida e hora de chegada, partindo de uma
+   * estacao entre duas horas, como num quadro de partidas ou numa isocrona.
+   * Uma viagem so e dada se nenhuma que parta mais tarde chegar tao cedo.
+   *
+   * @param departureStation
+   *        nome da estacao de origem.
+   * @param from
+   *        primeira hora de partida.
+   * @param until
+   *        ultima hora de partida; se for anterior a primeira, e a do dia
+   *        seguinte.
+   * @throws NoSuchStationNameException
+   *         caso nao exista nenhuma estacao com o nome dado como argumento.
+   * @return as viagens para cada estacao alcancavel, pelo nome da estacao,
+   *         por ordem de partida.
+   */
+  public Map<String, List<Journey>> profile(String departureStation, LocalTime from, LocalTime until)
+    throws NoSuchStationNameException {
+
+    Timetable timetable = getTimetable();
+    TreeMap<String, List<Journey>> profiles = new TreeMap<String, List<Journey>>();
+    int origin = departureStationId(timetable, departureStation);
+    if(origin >= 0) {
+      int first = from.toSecondOfDay() / 60;
+      int last = until.toSecondOfDay() / 60;
+      if(last < first)
+        last += Service.MINUTES_PER_DAY;
+      List<List<List<Leg>>> legs = timetable.getConnectionScanner().profile(origin, first, last);
+      for(int st = 0; st < legs.size(); st++) {
+        if(legs.get(st).isEmpty())
+          continue;
+        List<Journey> journeys = new ArrayList<Journey>(legs.get(st).size());
+        for(List<Leg> journey: legs.get(st))
+          journeys.add(buildJourney(journey));
+        profiles.put(_stationDictionary.getName(st), Collections.unmodifiableList(journeys));
+      }
     }
+    return Collections.unmodifiableMap(profiles);
   }
 
   /**
-   * Metodo utilizado para escolher e efetuar a compra do itinerario escolhido.
+   * @return a cache dos resultados das procuras sobre os horarios desta
+   *         companhia.
+   */
+  SearchCache getSearchCache() {
+    return _searchCache;
+  }
+
+  /**
+   * Metodo utilizado para escolher e efetuar a compra de um dos itinerarios de
+   * uma cotacao. A compra de itinerarios por um mesmo passageiro e feita em
+   * exclusao mutua.
    *
    * @param passengerId
    *        id do passageiro que procura o itinerario.
+   * @param quote
+   *        cotacao devolvida pela procura.
    * @param itineraryNumber
-   *        numero de ordem do itinerario escolhido.
+   *        numero de ordem do itinerario escolhido; 0 nao compra nenhum.
    * @throws NoSuchPassengerIdException
    *         caso nao exista nenhum passageiro com o id dado como argumento.
-   * @throws NoSuchServiceIdException
+   * @throws NoSuchItineraryChoiceException
    *         caso nao exista nenhum itinerario com o numero de ordem pretendido.
    */
-  public void commitItinerary(int passengerId, int itineraryNumber) throws NoSuchPassengerIdException,
+  public void commitItinerary(int passengerId, Quote quote, int itineraryNumber) throws NoSuchPassengerIdException,
                               NoSuchItineraryChoiceException {
-    if(itineraryNumber != 0) {
-      if(itineraryNumber < 1 || itineraryNumber > _itineraryChoices.size()) {
-        _itineraryChoices.clear();
-        throw new NoSuchItineraryChoiceException(passengerId, itineraryNumber);
-      }
-      else {
-        getPassenger(passengerId).addItinerary(_itineraryChoices.get(itineraryNumber - 1));
-        getPassenger(passengerId).checkCategoryChanges();
-        getPassenger(passengerId).getCategory().setAcumulatedMinutes(_itineraryChoices.get(itineraryNumber - 1));
-      }
+    if(itineraryNumber == 0)
+      return;
+    Itinerary offered = quote.getItinerary(itineraryNumber);
+    if(offered == null || quote.getCompany() != this || quote.getPassengerId() != passengerId)
+      throw new NoSuchItineraryChoiceException(passengerId, itineraryNumber);
+    _lock.readLock().lock();
+    try {
+      Passenger passenger = getPassenger(passengerId);
+      /* the quote is left untouched, so its itineraries keep their numbers */
+      Itinerary itinerary = new Itinerary(offered.getDate(), passenger, offered.getPrice(),
+                                          offered.getDiscountWhenBought());
+      for(Segment seg: offered.getSegments())
+        itinerary.putSegment(seg);
+      buy(passenger, itinerary);
+    } finally {
+      _lock.readLock().unlock();
     }
-    else
-      _itineraryChoices.clear();
+  }
+
+  /* the passenger's monitor keeps its itineraries, category and journal records in step */
+  private void buy(Passenger passenger, Itinerary itinerary) {
+    boolean regroup;
+    synchronized(passenger) {
+      Category.Tier tier = passenger.getCategory().getTier();
+      passenger.addItinerary(itinerary);
+      passenger.checkCategoryChanges();
+      passenger.getCategory().setAcumulatedMinutes(itinerary);
+      journal(Journal.recordCommitItinerary(passenger.getId(), itinerary));
+      regroup = passenger.getCategory().getTier() != tier;
+    }
+    /* outside the passenger's monitor, which is never held while waiting for the registries */
+    if(regroup)
+      regroupPassenger(passenger);
   }
 
 }
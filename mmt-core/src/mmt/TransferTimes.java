@@ -0,0 +1,99 @@
+package mmt;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Minimum time needed to change trains at each station: a default for every
+ * station, and the stations that need a different time. Like a timetable, a
+ * set of transfer times is never changed; setting a time makes a new one.
+ */
+public final class TransferTimes implements Serializable {
+
+  /** Serial number for serialization. */
+  private static final long serialVersionUID = -4851917251239317119L;
+
+  /** No time is needed to change trains anywhere. */
+  public static final TransferTimes NONE = new TransferTimes(0, new TreeMap<Integer, Integer>());
+
+  private final int _defaultMinutes;
+  private final TreeMap<Integer, Integer> _stationMinutes;
+
+  /* the map is kept, not copied */
+  TransferTimes(int defaultMinutes, TreeMap<Integer, Integer> stationMinutes) {
+    _defaultMinutes = defaultMinutes;
+    _stationMinutes = stationMinutes;
+  }
+
+  private static void checkMinutes(int minutes) {
+    if(minutes < 0)
+      throw new IllegalArgumentException("negative transfer time " + minutes);
+  }
+
+  /**
+   * @return true caso nao seja preciso tempo para mudar de comboio em
+   *         nenhuma estacao, tal como em NONE.
+   */
+  public boolean isNone() {
+    return _defaultMinutes == 0 && _stationMinutes.isEmpty();
+  }
+
+  public int getDefaultMinutes() {
+    return _defaultMinutes;
+  }
+
+  /**
+   * @param stationId
+   *        id da estacao.
+   * @return os minutos necessarios para mudar de comboio na estacao.
+   */
+  public int getMinutes(int stationId) {
+    Integer minutes = _stationMinutes.get(stationId);
+    return minutes == null ? _defaultMinutes : minutes;
+  }
+
+  /**
+   * @return os minutos das estacoes que nao usam o valor por omissao, por id
+   *         de estacao.
+   */
+  public Map<Integer, Integer> getStationMinutes() {
+    return Collections.unmodifiableMap(_stationMinutes);
+  }
+
+  /**
+   * @return tempos iguais a estes, mas com o valor por omissao dado.
+   */
+  public TransferTimes withDefaultMinutes(int minutes) {
+    checkMinutes(minutes);
+    return new TransferTimes(minutes, _stationMinutes);
+  }
+
+  /**
+   * @return tempos iguais a estes, mas com os minutos dados na estacao dada.
+   */
+  public TransferTimes withMinutes(int stationId, int minutes) {
+    checkMinutes(minutes);
+    TreeMap<Integer, Integer> stationMinutes = new TreeMap<Integer, Integer>(_stationMinutes);
+    stationMinutes.put(stationId, minutes);
+    return new TransferTimes(_defaultMinutes, stationMinutes);
+  }
+
+  /* minutes for every station up to the given count, as the routers use them */
+  int[] toArray(int stationCount) {
+    int[] minutes = new int[stationCount];
+    Arrays.fill(minutes, _defaultMinutes);
+    for(Map.Entry<Integer, Integer> e: _stationMinutes.entrySet())
+      if(e.getKey() < stationCount)
+        minutes[e.getKey()] = e.getValue();
+    return minutes;
+  }
+
+  /* NONE stays a single instance when read back */
+  private Object readResolve() {
+    return isNone() ? NONE : this;
+  }
+
+}
@@ -0,0 +1,24 @@
+package mmt.exceptions;
+
+/** Exception thrown when there is no passenger with the requested name. */
+public class NoSuchPassengerNameException extends Exception {
+
+  /** Serial number for serialization. */
+  private static final long serialVersionUID = 201711211030L;
+
+  /** Passenger name. */
+  private String _name;
+
+  /**
+   * @param name
+   */
+  public NoSuchPassengerNameException(String name) {
+    _name = name;
+  }
+
+  /** @return name */
+  public String getName() {
+    return _name;
+  }
+
+}
@@ -0,0 +1,174 @@
+package mmt;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mmt.exceptions.NoSuchPassengerIdException;
+import mmt.exceptions.NoSuchStationNameException;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of the batch searches against one search for each query of the batch.
+ */
+public class BatchSearchTest {
+
+  public static void main(String[] args) throws Exception {
+    samplePairs();
+    generatedQueries();
+    failedQueries();
+    System.out.println("BatchSearchTest: ok");
+  }
+
+  /* the answers of a batch, by position, as listed; a failed query is its exception */
+  private static class Answers implements SearchListener {
+    private final Thread _caller = Thread.currentThread();
+    private final String[] _answers;
+
+    Answers(int size) {
+      _answers = new String[size];
+    }
+
+    private void answer(int index, String answer) {
+      check(Thread.currentThread() == _caller, "an answer given on another thread");
+      check(_answers[index] == null, "query " + index + " answered twice");
+      _answers[index] = answer;
+    }
+
+    @Override
+    public void quoted(int index, SearchQuery query, Quote quote) {
+      answer(index, quote.getItineraries().toString());
+    }
+
+    @Override
+    public void failed(int index, SearchQuery query, Exception exception) {
+      answer(index, exception.getClass().getSimpleName());
+    }
+  }
+
+  /* the answer of one search of the query */
+  private static String search(TicketOffice office, int passengerId, SearchQuery query) throws Exception {
+    try {
+      return office.quote(passengerId, query.getDepartureStation(), query.getArrivalStation(),
+                          query.getDate().toString(), query.getTime().toString()).getItineraries().toString();
+    } catch(NoSuchStationNameException e) {
+      return e.getClass().getSimpleName();
+    }
+  }
+
+  /* every query of the batch is answered once, as one search of it would be */
+  private static void compare(TicketOffice office, int passengerId, List<SearchQuery> queries,
+                              ExecutorService executor) throws Exception {
+    List<String> expected = new ArrayList<String>();
+    for(SearchQuery query: queries)
+      expected.add(search(office, passengerId, query));
+    Answers batch = new Answers(queries.size());
+    office.quoteAll(passengerId, queries, batch);
+    Answers onExecutor = new Answers(queries.size());
+    office.quoteAll(passengerId, queries, onExecutor, executor);
+    for(int i = 0; i < queries.size(); i++) {
+      equal(expected.get(i), batch._answers[i], "answer of query " + queries.get(i));
+      equal(expected.get(i), onExecutor._answers[i], "answer on the executor of query " + queries.get(i));
+    }
+  }
+
+  private static List<String> stations(TicketOffice office) {
+    TreeSet<String> names = new TreeSet<String>();
+    for(Service s: office.getServices())
+      for(int i = 0; i < s.getNumberOfStations(); i++)
+        names.add(s.getStationName(i));
+    return new ArrayList<String>(names);
+  }
+
+  static void samplePairs() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    List<String> stations = stations(office);
+    List<SearchQuery> queries = new ArrayList<SearchQuery>();
+    LocalDate date = LocalDate.of(2017, 12, 1);
+    for(String from: stations)
+      for(String to: stations)
+        for(LocalTime time: new LocalTime[] { LocalTime.of(5, 0), LocalTime.of(9, 0), LocalTime.of(23, 30) })
+          queries.add(new SearchQuery(from, to, date, time));
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      /* the cache is empty for the first batch and full for the second */
+      office.setSearchCacheSize(0);
+      compare(office, 1, queries, executor);
+      office.setSearchCacheSize(SearchCache.DEFAULT_SIZE);
+      compare(office, 1, queries, executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /* many queries from few origins and minutes, so that groups answer several destinations */
+  static void generatedQueries() throws Exception {
+    DatasetGenerator generator = new DatasetGenerator();
+    generator.setSeed(11);
+    generator.setStations(40);
+    generator.setHubs(4);
+    generator.setLines(12);
+    generator.setServicesPerLine(4);
+    generator.setPassengers(10);
+    generator.setItinerariesPerPassenger(0);
+    String file = temporaryFile(".import");
+    generator.writeImportFile(file);
+    TicketOffice office = new TicketOffice();
+    office.setSearchCacheSize(0);
+    office.importFile(file);
+
+    List<String> stations = stations(office);
+    Random random = new Random(20171018);
+    List<SearchQuery> queries = new ArrayList<SearchQuery>();
+    for(int i = 0; i < 200; i++) {
+      String from = stations.get(random.nextInt(6));
+      String to = stations.get(random.nextInt(stations.size()));
+      LocalTime time = LocalTime.of(6 + random.nextInt(3) * 4, 0);
+      queries.add(new SearchQuery(from, to, LocalDate.of(2017, 12, 1 + random.nextInt(28)), time));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      compare(office, 3, queries, executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  static void failedQueries() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    LocalDate date = LocalDate.of(2017, 12, 1);
+    List<SearchQuery> queries = new ArrayList<SearchQuery>();
+    queries.add(new SearchQuery("Atlantis", "Faro", date, LocalTime.of(5, 0)));
+    queries.add(new SearchQuery("Évora", "Faro", date, LocalTime.of(5, 0)));
+    queries.add(new SearchQuery("Évora", "Atlantis", date, LocalTime.of(5, 0)));
+    queries.add(new SearchQuery("Évora", "Lagos", date, LocalTime.of(5, 0)));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      compare(office, 0, queries, executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    /* a batch of a passenger that does not exist answers nothing */
+    Answers answers = new Answers(queries.size());
+    try {
+      office.quoteAll(99, queries, answers);
+      check(false, "a batch of a passenger that does not exist");
+    } catch(NoSuchPassengerIdException e) {
+      for(String answer: answers._answers)
+        check(answer == null, "a query answered for a passenger that does not exist");
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package mmt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+/**
+ * Assertions shared by the tests of the core. Every test class is a program
+ * whose main method runs its tests, stopping with an AssertionError at the
+ * first check that does not hold; "make test" runs them all.
+ */
+final class Checks {
+
+  private Checks() {
+  }
+
+  static void check(boolean condition, String message) {
+    if(!condition)
+      throw new AssertionError(message);
+  }
+
+  static void equal(Object expected, Object actual, String message) {
+    if(expected == null ? actual != null : !expected.equals(actual))
+      throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+  }
+
+  /* the services and passengers of the office, with the itineraries of each passenger */
+  static String listing(TicketOffice office) {
+    return listing(office.getServices(), office.getPassengers());
+  }
+
+  static String listing(TrainCompany company) {
+    return listing(company.getServices(), company.getPassengers());
+  }
+
+  private static String listing(Collection<Service> services, Collection<Passenger> passengers) {
+    StringBuilder text = new StringBuilder();
+    for(Service s: services)
+      text.append(s);
+    for(Passenger p: passengers) {
+      text.append(p).append('\n');
+      if(p.getTotalIt() > 0)
+        text.append(p.itinerariesToString());
+    }
+    return text.toString();
+  }
+
+  /* a file of test/data, as the tests are run from the directory of the module */
+  static Path data(String name) {
+    return Paths.get("test", "data", name);
+  }
+
+  static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  /* a new file name in the temporary directory, with no file */
+  static String temporaryFile(String suffix) throws IOException {
+    Path file = Files.createTempFile("mmt", suffix);
+    Files.delete(file);
+    file.toFile().deleteOnExit();
+    Paths.get(file + ".journal").toFile().deleteOnExit();
+    return file.toString();
+  }
+
+}
@@ -0,0 +1,80 @@
+package mmt;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static mmt.Checks.check;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of the dataset generator: the snapshot it writes is the one that
+ * importing its import file and saving gives.
+ */
+public class DatasetGeneratorTest {
+
+  /* the generation and the change flag follow the magic number and the version */
+  private static final int GENERATION = 8;
+  private static final int FLAG = 16;
+
+  public static void main(String[] args) throws Exception {
+    snapshotEqualsImportAndSave();
+    sameSeedSameData();
+    System.out.println("DatasetGeneratorTest: ok");
+  }
+
+  private static DatasetGenerator generator() {
+    DatasetGenerator generator = new DatasetGenerator();
+    generator.setSeed(7);
+    generator.setStations(60);
+    generator.setHubs(4);
+    generator.setLines(20);
+    generator.setPassengers(300);
+    generator.setItinerariesPerPassenger(3);
+    return generator;
+  }
+
+  static void snapshotEqualsImportAndSave() throws Exception {
+    DatasetGenerator generator = generator();
+    String importFile = temporaryFile(".import");
+    String generated = temporaryFile(".dat");
+    generator.writeImportFile(importFile);
+    generator.writeSnapshot(generated);
+
+    TicketOffice office = new TicketOffice();
+    office.importFile(importFile);
+    String saved = temporaryFile(".dat");
+    office.save(saved);
+
+    /* a generated snapshot has no journal and was never changed */
+    byte[] expected = Files.readAllBytes(Paths.get(saved));
+    byte[] actual = Files.readAllBytes(Paths.get(generated));
+    check(expected.length > FLAG, "the snapshot saved is too short");
+    Arrays.fill(expected, GENERATION, FLAG + 1, (byte) 0);
+    check(actual.length > FLAG && actual[FLAG] == 0, "the generated snapshot was changed");
+    Arrays.fill(actual, GENERATION, FLAG, (byte) 0);
+    check(Arrays.equals(expected, actual), "the generated snapshot differs from the one saved");
+
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(generated);
+    equal(listing(office), listing(loaded), "listing of the generated snapshot");
+  }
+
+  static void sameSeedSameData() throws Exception {
+    String first = temporaryFile(".import");
+    String second = temporaryFile(".import");
+    generator().writeImportFile(first);
+    generator().writeImportFile(second);
+    check(Arrays.equals(Files.readAllBytes(Paths.get(first)), Files.readAllBytes(Paths.get(second))),
+          "the same seed gave other data");
+    DatasetGenerator other = generator();
+    other.setSeed(8);
+    String third = temporaryFile(".import");
+    other.writeImportFile(third);
+    check(!Arrays.equals(Files.readAllBytes(Paths.get(first)), Files.readAllBytes(Paths.get(third))),
+          "another seed gave the same data");
+  }
+
+}
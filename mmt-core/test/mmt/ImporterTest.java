@@ -0,0 +1,163 @@
+package mmt;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.ForkJoinPool;
+
+import mmt.exceptions.BadEntryException;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of the parallel importer against the line by line import, with
+ * String.split, that it replaced.
+ */
+public class ImporterTest {
+
+  public static void main(String[] args) throws Exception {
+    importsSample();
+    importsInParallel();
+    dropsTrailingEmptyFields();
+    rejectsBadLines();
+    System.out.println("ImporterTest: ok");
+  }
+
+  static void importsSample() throws Exception {
+    String file = data("sample.import").toString();
+    TrainCompany company = new TrainCompany();
+    company.importFile(file);
+    equal(listing(splitImport(file)), listing(company), "listing of the sample");
+  }
+
+  /* a file of several blocks, each parsed by several tasks, is applied in file order */
+  static void importsInParallel() throws Exception {
+    DatasetGenerator generator = new DatasetGenerator();
+    generator.setStations(400);
+    generator.setHubs(10);
+    generator.setLines(300);
+    generator.setStopsPerLine(20, 30);
+    generator.setPassengers(5000);
+    generator.setItinerariesPerPassenger(2);
+    String file = temporaryFile(".import");
+    generator.writeImportFile(file);
+    check(Files.size(Paths.get(file)) > 1 << 22, "the file fits in one block");
+
+    String expected = report(splitImport(file));
+    TrainCompany sequential = new TrainCompany();
+    new TimetableImporter(sequential, new ForkJoinPool(1)).importFile(file);
+    equal(expected, report(sequential), "listing imported by one thread");
+    TrainCompany parallel = new TrainCompany();
+    new TimetableImporter(parallel, new ForkJoinPool(4)).importFile(file);
+    equal(expected, report(parallel), "listing imported by four threads");
+  }
+
+  /* the listing of a large company, as written by ReportWriter */
+  private static String report(TrainCompany company) {
+    StringBuilder text = new StringBuilder();
+    ReportWriter writer = new ReportWriter(text);
+    for(Service s: company.getServices())
+      writer.writeService(s);
+    for(Passenger p: company.getPassengers()) {
+      writer.writePassenger(p);
+      writer.writeItineraries(p);
+    }
+    return text.toString();
+  }
+
+  /* as with String.split, empty fields at the end of a line are dropped; lines may end in CRLF */
+  static void dropsTrailingEmptyFields() throws Exception {
+    String file = write("SERVICE|1|10.0|08:00|Alfa|08:30|Beta|09:00|Gama||\r\n" +
+                        "SERVICE|2|4.0|09:10|Gama|09:40|Delta|10:00\n" +
+                        "PASSENGER|Han||\n" +
+                        "\n" +
+                        "PASSENGER|Luke\r\n" +
+                        "ITINERARY|1|2017-10-18|1/Alfa/Gama|2/Gama/Delta|\n");
+    TrainCompany company = new TrainCompany();
+    ImportStatistics statistics = company.importFile(file);
+    equal(listing(splitImport(file)), listing(company), "listing of the file");
+    equal(6L, statistics.getLines(), "lines read");
+    equal(5L, statistics.getRecords(), "records read");
+    equal(3, company.getService(1).getNumberOfStations(), "stations of service 1");
+    equal(2, company.getService(2).getNumberOfStations(), "stations of service 2");
+    equal("Han", company.getPassenger(0).getName(), "name of passenger 0");
+    equal(2, company.getPassenger(1).getItineraries().iterator().next().getSegments().size(),
+          "segments of the itinerary");
+  }
+
+  static void rejectsBadLines() throws Exception {
+    String service = "SERVICE|2|4.0|09:10|Gama|9h40|Delta";
+    String file = write("SERVICE|1|10.0|08:00|Alfa|08:30|Beta\n" + service + "\nPASSENGER|Han\n");
+    try {
+      new TrainCompany().importFile(file);
+      check(false, "a service with a bad time was imported");
+    } catch(BadEntryException e) {
+      equal(service, e.getEntrySpecification(), "bad entry");
+    }
+
+    String itinerary = "ITINERARY|0|2017-10-18|1-Alfa-Beta";
+    file = write("SERVICE|1|10.0|08:00|Alfa|08:30|Beta\nPASSENGER|Han\n" + itinerary + "\n");
+    try {
+      new TrainCompany().importFile(file);
+      check(false, "an itinerary with a bad segment was imported");
+    } catch(BadEntryException e) {
+      equal(itinerary, e.getEntrySpecification(), "bad entry");
+    }
+
+    TicketOffice office = new TicketOffice();
+    try {
+      office.importFile(write("PASSENGER|Han\nITINERARY|zero|2017-10-18|1/Alfa/Beta\n"));
+      check(false, "an itinerary with a bad passenger id was imported");
+    } catch(mmt.exceptions.ImportFileException e) {
+      /* reported by the office as a bad file */
+    }
+  }
+
+  private static String write(String text) throws Exception {
+    String file = temporaryFile(".import");
+    Files.write(Paths.get(file), text.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  /* the company as the line by line importer built it */
+  private static TrainCompany splitImport(String file) throws Exception {
+    TrainCompany company = new TrainCompany();
+    for(String line: Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+      String[] fields = line.split("\\|");
+      if(fields[0].equals("SERVICE")) {
+        int stations = (fields.length - 3) / 2;
+        String[] names = new String[stations];
+        LocalTime[] times = new LocalTime[stations];
+        for(int i = 0; i < stations; i++) {
+          times[i] = LocalTime.parse(fields[3 + 2 * i]);
+          names[i] = fields[4 + 2 * i];
+        }
+        company.importService(Integer.parseInt(fields[1]), Double.parseDouble(fields[2]), names, times);
+      }
+      if(fields[0].equals("PASSENGER"))
+        company.registerPassenger(fields[1]);
+      if(fields[0].equals("ITINERARY")) {
+        int segments = fields.length - 3;
+        int[] serviceIds = new int[segments];
+        String[] departures = new String[segments];
+        String[] arrivals = new String[segments];
+        for(int i = 0; i < segments; i++) {
+          String[] parts = fields[3 + i].split("/");
+          serviceIds[i] = Integer.parseInt(parts[0]);
+          departures[i] = parts[1];
+          arrivals[i] = parts[2];
+        }
+        company.importItinerary(Integer.parseInt(fields[1]), LocalDate.parse(fields[2]), serviceIds, departures,
+                                arrivals);
+      }
+    }
+    return company;
+  }
+
+}
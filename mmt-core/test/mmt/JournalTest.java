@@ -0,0 +1,118 @@
+package mmt;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of the journal kept next to a snapshot: saving passenger and
+ * itinerary changes to the file already loaded appends them to the journal,
+ * and loading the snapshot applies them again.
+ */
+public class JournalTest {
+
+  public static void main(String[] args) throws Exception {
+    appendsPassengerChanges();
+    dropsIncompleteRecord();
+    serviceChangeWritesSnapshot();
+    System.out.println("JournalTest: ok");
+  }
+
+  static void appendsPassengerChanges() throws Exception {
+    String snapshot = temporaryFile(".dat");
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    office.save(snapshot);
+    byte[] saved = Files.readAllBytes(Paths.get(snapshot));
+
+    office.registerPassenger("Han");
+    office.changePassengerName(1, "Leia Organa");
+    check(!office.search(3, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-01", "06:00").isEmpty(),
+          "no itinerary from Porto - Campanhã to Lisboa - Oriente");
+    office.commitItinerary(3, 1);
+    office.save("");
+    check(Arrays.equals(saved, Files.readAllBytes(Paths.get(snapshot))),
+          "the snapshot was written again");
+    long journalSize = Files.size(Journal.path(snapshot));
+    check(journalSize > 16, "nothing was appended to the journal");
+
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+    equal(listing(office), listing(loaded), "listing of the snapshot and its journal");
+
+    /* the loaded company goes on appending to the same journal */
+    int bought = loaded.getPassenger(0).getTotalIt();
+    check(!loaded.search(0, "Évora", "Faro", "2017-12-24", "05:00").isEmpty(), "no itinerary from Évora to Faro");
+    loaded.commitItinerary(0, 1);
+    loaded.registerPassenger("Chewbacca");
+    loaded.save("");
+    check(Files.size(Journal.path(snapshot)) > journalSize, "the journal did not grow");
+
+    TicketOffice reloaded = new TicketOffice();
+    reloaded.load(snapshot);
+    equal(listing(loaded), listing(reloaded), "listing after a second append");
+    equal(bought + 1, reloaded.getPassenger(0).getTotalIt(), "itineraries of passenger 0");
+  }
+
+  /* a record cut short, as by a crash while appending, is discarded */
+  static void dropsIncompleteRecord() throws Exception {
+    String snapshot = temporaryFile(".dat");
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    office.save(snapshot);
+    office.registerPassenger("Han");
+    office.save("");
+    String before = listing(office);
+    long journalSize = Files.size(Journal.path(snapshot));
+    office.registerPassenger("Lando");
+    office.save("");
+
+    FileChannel channel = FileChannel.open(Journal.path(snapshot), StandardOpenOption.WRITE);
+    channel.truncate(Files.size(Journal.path(snapshot)) - 3);
+    channel.close();
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+    equal(before, listing(loaded), "listing without the incomplete record");
+    equal(journalSize, Files.size(Journal.path(snapshot)), "size of the journal once the record is dropped");
+
+    /* a record appended after it is read back */
+    loaded.registerPassenger("Lando");
+    loaded.save("");
+    TicketOffice reloaded = new TicketOffice();
+    reloaded.load(snapshot);
+    equal(listing(loaded), listing(reloaded), "listing after appending to a repaired journal");
+  }
+
+  /* services are not journaled, so changing one writes a new snapshot */
+  static void serviceChangeWritesSnapshot() throws Exception {
+    String snapshot = temporaryFile(".dat");
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    office.save(snapshot);
+    office.registerPassenger("Han");
+    office.save("");
+    check(Files.size(Journal.path(snapshot)) > 16, "nothing was appended to the journal");
+
+    office.addService(999, 12);
+    office.addStationToService(999, "Coimbra-B", LocalTime.of(18, 0));
+    office.addStationToService(999, "Aveiro", LocalTime.of(18, 40));
+    office.registerPassenger("Lando");
+    office.save("");
+    equal(16L, Files.size(Journal.path(snapshot)), "size of the journal of the new snapshot");
+
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+    equal(listing(office), listing(loaded), "listing of the new snapshot");
+    equal(2, loaded.getService(999).getNumberOfStations(), "stations of the new service");
+  }
+
+}
@@ -0,0 +1,76 @@
+package mmt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalTime;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+import static mmt.Checks.read;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of companies saved with Java serialization, which TicketOffice.load
+ * still reads. test/data/baseline.ser was written by TicketOffice.save of the
+ * version before binary snapshots, after importing test/data/sample.import,
+ * buying the first itinerary from Porto - Campanhã to Lisboa - Oriente for
+ * passenger 2 on 2017-12-01 at 06:00 and adding service 999 from Coimbra-B to
+ * Aveiro; test/data/baseline.txt is what that version listed then.
+ */
+public class LegacyLoadTest {
+
+  public static void main(String[] args) throws Exception {
+    loadsBaselineFile();
+    changesAndSavesLoadedCompany();
+    readsSerializedCompanyBack();
+    System.out.println("LegacyLoadTest: ok");
+  }
+
+  static void loadsBaselineFile() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.load(data("baseline.ser").toString());
+    equal(read(data("baseline.txt")), listing(office), "listing of the baseline file");
+    Passenger obiWan = office.getPassenger(0);
+    equal(Category.Tier.NORMAL, obiWan.getCategory().getTier(), "tier read back");
+    check(obiWan.getCategory().getPassenger() == obiWan, "category of another passenger");
+    equal(2, obiWan.getItineraries().size(), "itineraries by date");
+    equal(1, office.getServicesDepartingFromStation("Coimbra-B").size(), "services leaving Coimbra-B");
+  }
+
+  static void changesAndSavesLoadedCompany() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.load(data("baseline.ser").toString());
+    office.registerPassenger("Han");
+    check(!office.search(3, "Évora", "Faro", "2017-12-24", "05:00").isEmpty(), "no itinerary from Évora to Faro");
+    office.commitItinerary(3, 1);
+    office.addStationToService(999, "Porto - Campanhã", LocalTime.of(19, 30));
+
+    String snapshot = temporaryFile(".dat");
+    office.save(snapshot);
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+    equal(listing(office), listing(loaded), "listing of the company saved as a snapshot");
+    equal(1, loaded.getPassenger(3).getTotalIt(), "itineraries of the new passenger");
+  }
+
+  static void readsSerializedCompanyBack() throws Exception {
+    TrainCompany company = new TrainCompany();
+    company.importFile(data("sample.import").toString());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(company);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    TrainCompany loaded = (TrainCompany) in.readObject();
+    in.close();
+
+    equal(listing(company), listing(loaded), "listing of the company read back");
+    check(loaded.getTransferTimes() == TransferTimes.NONE, "transfer times read back are not NONE");
+    equal(company.getStationDictionary().size(), loaded.getStationDictionary().size(), "stations read back");
+  }
+
+}
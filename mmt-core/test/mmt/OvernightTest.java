@@ -0,0 +1,111 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static mmt.Checks.check;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of services that run past midnight and of journeys that continue on
+ * the next day.
+ */
+public class OvernightTest {
+
+  private static final int DAY = Service.MINUTES_PER_DAY;
+
+  public static void main(String[] args) throws Exception {
+    servicePastMidnight();
+    journeyContinuingNextDay();
+    boardingAfterMidnight();
+    savesSegmentDays();
+    System.out.println("OvernightTest: ok");
+  }
+
+  /* Lisboa 23:30, Entroncamento 00:10 and Porto 00:30 on the next day, then
+     Porto 06:00 to Braga 07:00 */
+  private static TicketOffice office() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.addService(1, 30);
+    office.addStationToService(1, "Lisboa", LocalTime.of(23, 30));
+    office.addStationToService(1, "Entroncamento", LocalTime.of(0, 10));
+    office.addStationToService(1, "Porto", LocalTime.of(0, 30));
+    office.addService(2, 10);
+    office.addStationToService(2, "Porto", LocalTime.of(6, 0));
+    office.addStationToService(2, "Braga", LocalTime.of(7, 0));
+    office.registerPassenger("Luke");
+    return office;
+  }
+
+  static void servicePastMidnight() throws Exception {
+    Service service = office().getService(1);
+    equal(60L, service.getDuration(), "duration of the service");
+    equal(40L, service.getMinutes(0, 1), "minutes from Lisboa to Entroncamento");
+    equal(23 * 60 + 30, service.getMinute(0), "departure from Lisboa");
+    equal(DAY + 30, service.getMinute(2), "arrival at Porto");
+  }
+
+  static void journeyContinuingNextDay() throws Exception {
+    TicketOffice office = office();
+    List<Itinerary> itineraries = new ArrayList<Itinerary>(
+      office.search(0, "Lisboa", "Braga", "2017-12-01", "23:00"));
+    equal(1, itineraries.size(), "itineraries from Lisboa to Braga");
+    Itinerary itinerary = itineraries.get(0);
+    equal(23 * 60 + 30, itinerary.getDepartureMinute(), "departure of the itinerary");
+    equal(DAY + 7 * 60, itinerary.getArrivalMinute(), "arrival of the itinerary");
+    equal(LocalTime.of(7, 0), itinerary.getItineraryArrival(), "arrival time of the itinerary");
+
+    List<Segment> segments = new ArrayList<Segment>(itinerary.getSegments());
+    equal(2, segments.size(), "segments of the itinerary");
+    equal(1, segments.get(0).getServiceId(), "first service");
+    equal(0, segments.get(0).getDay(), "day of the first segment");
+    equal(2, segments.get(1).getServiceId(), "second service");
+    equal(1, segments.get(1).getDay(), "day of the second segment");
+    check(Math.abs(itinerary.getPrice() - 40) < 1e-9, "price of the itinerary");
+
+    /* a journey leaves its origin on the day of the search */
+    check(office.search(0, "Porto", "Braga", "2017-12-01", "23:00").isEmpty(),
+          "an itinerary from Porto to Braga leaves on the next morning");
+  }
+
+  /* at 00:05 the service that left Lisboa the day before is still running */
+  static void boardingAfterMidnight() throws Exception {
+    TicketOffice office = office();
+    Collection<Itinerary> itineraries = office.search(0, "Entroncamento", "Porto", "2017-12-02", "00:05");
+    equal(1, itineraries.size(), "itineraries from Entroncamento to Porto");
+    Itinerary itinerary = itineraries.iterator().next();
+    Segment segment = itinerary.getSegments().iterator().next();
+    equal(-1, segment.getDay(), "day of the segment");
+    equal(10, itinerary.getDepartureMinute(), "departure of the itinerary");
+    equal(30, itinerary.getArrivalMinute(), "arrival of the itinerary");
+    equal(20L, itinerary.getItineraryMinutes(), "minutes of the itinerary");
+    check(Math.abs(itinerary.getPrice() - 10) < 1e-9, "price of the itinerary");
+  }
+
+  /* the day of every segment is kept by the snapshot and by the journal */
+  static void savesSegmentDays() throws Exception {
+    TicketOffice office = office();
+    office.search(0, "Lisboa", "Braga", "2017-12-01", "23:00");
+    office.commitItinerary(0, 1);
+    String snapshot = temporaryFile(".dat");
+    office.save(snapshot);
+    office.search(0, "Entroncamento", "Porto", "2017-12-02", "00:05");
+    office.commitItinerary(0, 1);
+    office.save("");
+
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+    equal(listing(office), listing(loaded), "listing of the company read back");
+    List<Integer> days = new ArrayList<Integer>();
+    for(Itinerary i: loaded.getPassenger(0).getItineraries())
+      for(Segment s: i.getSegments())
+        days.add(s.getDay());
+    equal(3, days.size(), "segments read back");
+    check(days.contains(1) && days.contains(-1), "days of the segments read back: " + days);
+  }
+
+}
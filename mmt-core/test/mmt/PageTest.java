@@ -0,0 +1,198 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import mmt.exceptions.NoSuchStationNameException;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of the paged listings: walking the pages gives the whole listing,
+ * and a cursor goes on from where its page ended after the listing changes.
+ */
+public class PageTest {
+
+  public static void main(String[] args) throws Exception {
+    pagesCoverServices();
+    cursorSurvivesChanges();
+    stationPages();
+    tierPages();
+    itineraryPages();
+    System.out.println("PageTest: ok");
+  }
+
+  private static TicketOffice office() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    return office;
+  }
+
+  private static List<Integer> ids(Iterable<Service> services) {
+    List<Integer> ids = new ArrayList<Integer>();
+    for(Service s: services)
+      ids.add(s.getId());
+    return ids;
+  }
+
+  /* the ids of every page of services, walked with the given page size */
+  private static List<Integer> walk(TicketOffice office, String stationName, int pageSize) throws Exception {
+    List<Integer> ids = new ArrayList<Integer>();
+    int after = Page.START;
+    while(true) {
+      Page<Service> page = stationName == null ? office.getServices(after, pageSize)
+                                               : office.getServicesAtStation(stationName, after, pageSize);
+      check(page.getItems().size() <= pageSize, "page larger than asked for");
+      check(!page.hasNext() || page.getItems().size() == pageSize, "a page short of the size has a next one");
+      ids.addAll(ids(page.getItems()));
+      if(!page.getItems().isEmpty())
+        equal(page.getItems().get(page.getItems().size() - 1).getId(), page.getCursor(), "cursor of the page");
+      else
+        equal(after, page.getCursor(), "cursor of an empty page");
+      if(!page.hasNext())
+        return ids;
+      after = page.getCursor();
+    }
+  }
+
+  static void pagesCoverServices() throws Exception {
+    TicketOffice office = office();
+    List<Integer> all = ids(office.getServices());
+    for(int pageSize = 1; pageSize <= all.size() + 1; pageSize++)
+      equal(all, walk(office, null, pageSize), "services in pages of " + pageSize);
+    check(office.getServices(Integer.MAX_VALUE, 5).getItems().isEmpty(), "services after the last id");
+    try {
+      office.getServices(Page.START, 0);
+      check(false, "a page of no services");
+    } catch(IllegalArgumentException e) {
+      /* expected */
+    }
+  }
+
+  static void cursorSurvivesChanges() throws Exception {
+    TicketOffice office = office();
+    Page<Service> first = office.getServices(Page.START, 3);
+    equal(3, first.getItems().size(), "services of the first page");
+    int cursor = first.getCursor();
+
+    /* a service before the cursor is not seen, one after it is */
+    office.addService(cursor - 1, 1);
+    office.addService(100000, 1);
+    List<Integer> rest = new ArrayList<Integer>();
+    for(Service s: office.getServices())
+      if(s.getId() > cursor)
+        rest.add(s.getId());
+    check(rest.contains(100000), "the new service is not listed");
+    equal(rest, ids(office.getServices(cursor, 100).getItems()), "services after the cursor");
+  }
+
+  static void stationPages() throws Exception {
+    TicketOffice office = office();
+    office.addService(50, 3);
+    office.addStationToService(50, "Lagos", LocalTime.of(7, 0));
+    office.addStationToService(50, "Tunes", LocalTime.of(8, 0));
+    office.addStationToService(50, "Lagos", LocalTime.of(9, 0));
+    for(String station: new String[] { "Tunes", "Coimbra-B", "Lagos", "Lisboa - Oriente" }) {
+      List<Integer> stopping = new ArrayList<Integer>();
+      for(Service s: office.getServices())
+        for(int i = 0; i < s.getNumberOfStations(); i++)
+          if(s.getStationName(i).equals(station)) {
+            stopping.add(s.getId());
+            break;
+          }
+      check(!stopping.isEmpty(), "no service stops at " + station);
+      for(int pageSize = 1; pageSize <= stopping.size() + 1; pageSize++)
+        equal(stopping, walk(office, station, pageSize), "services at " + station + " in pages of " + pageSize);
+    }
+    try {
+      office.getServicesAtStation("Atlantis", Page.START, 5);
+      check(false, "services at a station that does not exist");
+    } catch(NoSuchStationNameException e) {
+      /* expected */
+    }
+
+    /* a mapped timetable gives the same pages */
+    String timetable = temporaryFile(".timetable");
+    office.saveTimetable(timetable);
+    TicketOffice mapped = new TicketOffice();
+    mapped.openTimetable(timetable);
+    for(String station: new String[] { "Tunes", "Lagos" })
+      for(int pageSize = 1; pageSize <= 4; pageSize++)
+        equal(walk(office, station, pageSize), walk(mapped, station, pageSize),
+              "services of the mapped timetable at " + station);
+    equal(walk(office, null, 2), walk(mapped, null, 2), "services of the mapped timetable");
+  }
+
+  private static List<Integer> passengers(TicketOffice office, Category.Tier tier, int pageSize) {
+    List<Integer> ids = new ArrayList<Integer>();
+    int after = Page.START;
+    while(true) {
+      Page<Passenger> page = tier == null ? office.getPassengers(after, pageSize)
+                                          : office.getPassengers(tier, after, pageSize);
+      for(Passenger p: page.getItems()) {
+        check(tier == null || p.getCategory().getTier() == tier, "passenger " + p.getId() + " of another tier");
+        ids.add(p.getId());
+      }
+      if(!page.hasNext())
+        return ids;
+      after = page.getCursor();
+    }
+  }
+
+  private static List<Integer> passengersOfTier(TicketOffice office, Category.Tier tier) {
+    List<Integer> ids = new ArrayList<Integer>();
+    for(Passenger p: office.getPassengers())
+      if(p.getCategory().getTier() == tier)
+        ids.add(p.getId());
+    return ids;
+  }
+
+  /* passengers move to the pages of their new tier as they buy */
+  static void tierPages() throws Exception {
+    TicketOffice office = office();
+    for(int i = 0; i < 6; i++)
+      office.registerPassenger("Clone " + i);
+    office.addService(900, 1000);
+    office.addStationToService(900, "Faro", LocalTime.of(14, 0));
+    office.addStationToService(900, "Lagos", LocalTime.of(15, 0));
+
+    for(int purchase = 0; purchase < 3; purchase++) {
+      Quote quote = office.quote(4, "Faro", "Lagos", "2017-12-01", "13:00");
+      office.commitItinerary(quote, 1);
+      for(Category.Tier tier: Category.Tier.values())
+        for(int pageSize = 1; pageSize <= 3; pageSize++)
+          equal(passengersOfTier(office, tier), passengers(office, tier, pageSize),
+                tier + " passengers after purchase " + purchase);
+    }
+    equal(Category.Tier.SPECIAL, office.getPassenger(4).getCategory().getTier(), "tier of passenger 4");
+    check(!passengers(office, Category.Tier.SPECIAL, 2).isEmpty(), "no special passengers");
+    List<Integer> all = new ArrayList<Integer>();
+    for(Passenger p: office.getPassengers())
+      all.add(p.getId());
+    equal(all, passengers(office, null, 4), "passengers in pages of 4");
+  }
+
+  static void itineraryPages() throws Exception {
+    TicketOffice office = office();
+    for(int i = 0; i < 5; i++) {
+      Quote quote = office.quote(2, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-0" + (5 - i), "06:00");
+      office.commitItinerary(quote, 1);
+    }
+    List<Itinerary> all = new ArrayList<Itinerary>(office.getPassenger(2).getItineraries());
+    List<Itinerary> paged = new ArrayList<Itinerary>();
+    int after = Page.START;
+    while(true) {
+      Page<Itinerary> page = office.getItineraries(2, after, 2);
+      paged.addAll(page.getItems());
+      if(!page.hasNext())
+        break;
+      after = page.getCursor();
+    }
+    equal(all.toString(), paged.toString(), "itineraries in pages of 2");
+  }
+
+}
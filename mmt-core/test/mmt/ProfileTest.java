@@ -0,0 +1,222 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import mmt.exceptions.BadTimeSpecificationException;
+import mmt.exceptions.NoSuchStationNameException;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.RaptorRouterTest.arrival;
+import static mmt.RaptorRouterTest.departure;
+
+/**
+ * Tests of the one-to-all queries: the earliest arrival at every station is
+ * the earliest one of the journeys found by the router, and a profile gives
+ * the earliest arrival for every departure minute of its range.
+ */
+public class ProfileTest {
+
+  private static final int DAY = Service.MINUTES_PER_DAY;
+  private static final int NONE = Integer.MAX_VALUE;
+
+  public static void main(String[] args) throws Exception {
+    randomTimetables();
+    sampleAgainstQuotes();
+    rejectsBadQueries();
+    System.out.println("ProfileTest: ok");
+  }
+
+  /* the earliest arrival of the journeys of the day of the search */
+  private static int earliest(List<List<Leg>> journeys) {
+    int earliest = NONE;
+    for(List<Leg> journey: journeys)
+      if(arrival(journey) < DAY)
+        earliest = Math.min(earliest, arrival(journey));
+    return earliest;
+  }
+
+  /* the legs follow each other from the origin, leaving no earlier than the time and changing in time */
+  private static void checkLegs(List<Leg> journey, int origin, int destination, int time, int[] transfers) {
+    Leg first = journey.get(0);
+    equal(origin, first.getService().getStationId(first.getDepartureIndex()), "origin of the journey");
+    check(departure(journey) >= time, "a journey leaving before " + time);
+    Leg last = journey.get(journey.size() - 1);
+    equal(destination, last.getService().getStationId(last.getArrivalIndex()), "destination of the journey");
+    for(int i = 1; i < journey.size(); i++) {
+      Leg previous = journey.get(i - 1);
+      Leg next = journey.get(i);
+      int station = previous.getService().getStationId(previous.getArrivalIndex());
+      equal(station, next.getService().getStationId(next.getDepartureIndex()), "station of a change");
+      check(next.getService().getMinute(next.getDepartureIndex()) >=
+            previous.getService().getMinute(previous.getArrivalIndex()) + transfers[station],
+            "a change in less than the transfer time");
+    }
+  }
+
+  static void randomTimetables() {
+    Random random = new Random(20171024);
+    for(int t = 0; t < 200; t++) {
+      int stations = 4 + random.nextInt(5);
+      StationDictionary dictionary = new StationDictionary();
+      for(int st = 0; st < stations; st++)
+        dictionary.intern("S" + st);
+      List<Service> services = new ArrayList<Service>();
+      int count = 4 + random.nextInt(12);
+      for(int id = 0; id < count; id++) {
+        int stops = 2 + random.nextInt(Math.min(4, stations - 1));
+        List<Integer> order = new ArrayList<Integer>();
+        for(int st = 0; st < stations; st++)
+          order.add(st);
+        Collections.shuffle(order, random);
+        Service service = new Service(id, 1 + random.nextInt(20), dictionary);
+        int minute = 300 + random.nextInt(240);
+        for(int i = 0; i < stops; i++) {
+          service.addStop(order.get(i), minute * 60, 0);
+          minute += 1 + random.nextInt(40);
+        }
+        services.add(service);
+      }
+      TransferTimes transferTimes = TransferTimes.NONE;
+      if(random.nextBoolean())
+        transferTimes = transferTimes.withDefaultMinutes(random.nextInt(5));
+      int[] transfers = transferTimes.toArray(stations);
+      ConnectionScanner scanner = new ConnectionScanner(services, dictionary, transferTimes);
+      /* enough transfers for any journey that visits a station once */
+      RaptorRouter router = new RaptorRouter(services, dictionary, transferTimes, stations);
+
+      int origin = random.nextInt(stations);
+      int time = 280 + random.nextInt(200);
+      List<List<Leg>> arrivals = scanner.earliestArrivals(origin, time);
+      equal(stations, arrivals.size(), "stations of the earliest arrivals");
+      check(arrivals.get(origin).isEmpty(), "a journey to the origin");
+      for(int st = 0; st < stations; st++) {
+        if(st == origin)
+          continue;
+        int expected = earliest(router.search(origin, st, time));
+        List<Leg> journey = arrivals.get(st);
+        equal(expected, journey.isEmpty() ? NONE : arrival(journey),
+              "earliest arrival of timetable " + t + " from " + origin + " to " + st + " at " + time);
+        if(!journey.isEmpty())
+          checkLegs(journey, origin, st, time, transfers);
+      }
+
+      int from = time;
+      int until = from + random.nextInt(180);
+      List<List<List<Leg>>> profiles = scanner.profile(origin, from, until);
+      for(int st = 0; st < stations; st++) {
+        List<List<Leg>> profile = profiles.get(st);
+        /* later departures arrive later, or they would make the earlier ones useless */
+        for(int i = 0; i < profile.size(); i++) {
+          checkLegs(profile.get(i), origin, st, from, transfers);
+          check(departure(profile.get(i)) <= until, "a journey leaving after " + until);
+          if(i > 0)
+            check(departure(profile.get(i - 1)) < departure(profile.get(i)) &&
+                  arrival(profile.get(i - 1)) < arrival(profile.get(i)),
+                  "profile of timetable " + t + " to " + st + " is not Pareto-optimal");
+        }
+      }
+      for(int minute = from; minute <= until; minute++) {
+        arrivals = scanner.earliestArrivals(origin, minute);
+        for(int st = 0; st < stations; st++) {
+          int best = NONE;
+          for(List<Leg> journey: profiles.get(st))
+            if(departure(journey) >= minute)
+              best = Math.min(best, arrival(journey));
+          List<Leg> journey = arrivals.get(st);
+          if(journey.isEmpty())
+            equal(NONE, best, "profile of timetable " + t + " to " + st + " at " + minute);
+          else if(departure(journey) <= until)
+            equal(arrival(journey), best, "profile of timetable " + t + " to " + st + " at " + minute);
+          else
+            check(best >= arrival(journey), "profile of timetable " + t + " arrives too early");
+        }
+      }
+    }
+  }
+
+  private static List<String> stations(TicketOffice office) {
+    TreeSet<String> names = new TreeSet<String>();
+    for(Service s: office.getServices())
+      for(int i = 0; i < s.getNumberOfStations(); i++)
+        names.add(s.getStationName(i));
+    return new ArrayList<String>(names);
+  }
+
+  /* the earliest arrival of the itineraries quoted for the day */
+  private static int earliest(Quote quote) {
+    int earliest = NONE;
+    for(Itinerary itinerary: quote.getItineraries())
+      if(itinerary.getArrivalMinute() < DAY)
+        earliest = Math.min(earliest, itinerary.getArrivalMinute());
+    return earliest;
+  }
+
+  static void sampleAgainstQuotes() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    List<String> stations = stations(office);
+    for(String origin: stations)
+      for(String time: new String[] { "05:00", "09:00", "11:00" }) {
+        Map<String, Journey> arrivals = office.earliestArrivals(origin, time);
+        check(!arrivals.containsKey(origin), "a journey to the origin");
+        for(String station: stations) {
+          if(station.equals(origin))
+            continue;
+          Journey journey = arrivals.get(station);
+          equal(earliest(office.quote(0, origin, station, "2017-12-01", time)),
+                journey == null ? NONE : journey.getArrivalMinute(),
+                "earliest arrival from " + origin + " to " + station + " at " + time);
+          if(journey == null)
+            continue;
+          List<Segment> segments = journey.getSegments();
+          equal(origin, segments.get(0).getFirstStation().getName(), "first station of the journey");
+          equal(station, segments.get(segments.size() - 1).getLastStation().getName(),
+                "last station of the journey");
+        }
+
+        /* the first journey of a profile starting at the time is as early as the earliest arrival */
+        Map<String, List<Journey>> profile = office.profile(origin, time, "23:59");
+        equal(arrivals.keySet(), profile.keySet(), "stations of the profile from " + origin);
+        for(Map.Entry<String, List<Journey>> entry: profile.entrySet())
+          equal(arrivals.get(entry.getKey()).getArrivalMinute(), entry.getValue().get(0).getArrivalMinute(),
+                "first arrival of the profile from " + origin + " to " + entry.getKey());
+      }
+  }
+
+  static void rejectsBadQueries() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    try {
+      office.earliestArrivals("Atlantis", "08:00");
+      check(false, "earliest arrivals from a station that does not exist");
+    } catch(NoSuchStationNameException e) {
+      /* expected */
+    }
+    try {
+      office.profile("Faro", "08:00", "8h");
+      check(false, "a profile until a bad time");
+    } catch(BadTimeSpecificationException e) {
+      /* expected */
+    }
+
+    /* a range past midnight ends on the next day, on the services that run past it */
+    office.addService(952, 6);
+    office.addStationToService(952, "Faro", LocalTime.of(23, 50));
+    office.addStationToService(952, "Tunes", LocalTime.of(0, 10));
+    office.addStationToService(952, "Silves", LocalTime.of(0, 40));
+    List<Journey> silves = office.profile("Tunes", "23:00", "01:00").get("Silves");
+    check(silves != null && silves.size() == 1, "no journey past midnight");
+    equal(DAY + 10, silves.get(0).getDepartureMinute(), "departure past midnight");
+    equal(DAY + 40, silves.get(0).getArrivalMinute(), "arrival past midnight");
+    check(!office.profile("Tunes", "23:00", "00:05").containsKey("Silves"), "a journey leaving after the range");
+  }
+
+}
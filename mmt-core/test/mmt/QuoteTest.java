@@ -0,0 +1,159 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import mmt.exceptions.NoSuchItineraryChoiceException;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+
+/**
+ * Tests of the quotes returned by searches and of purchases made by several
+ * sessions at once.
+ */
+public class QuoteTest {
+
+  public static void main(String[] args) throws Exception {
+    quotesAreIndependent();
+    rejectsForeignQuotes();
+    lastSearchIsBought();
+    concurrentPurchases();
+    System.out.println("QuoteTest: ok");
+  }
+
+  private static TicketOffice office() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    return office;
+  }
+
+  static void quotesAreIndependent() throws Exception {
+    TicketOffice office = office();
+    Quote porto = office.quote(2, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-01", "06:00");
+    Quote evora = office.quote(2, "Évora", "Faro", "2017-12-24", "05:00");
+    check(porto.size() > 0 && evora.size() > 0, "no itineraries quoted");
+    String first = porto.getItinerary(1).toString();
+
+    int bought = office.getPassenger(2).getTotalIt();
+    office.commitItinerary(evora, 1);
+    office.commitItinerary(porto, 1);
+    /* a quote can be bought from again, and keeps its numbers */
+    office.commitItinerary(porto, 1);
+    equal(bought + 3, office.getPassenger(2).getTotalIt(), "itineraries bought");
+    equal(first, porto.getItinerary(1).toString(), "first itinerary of the quote");
+    check(porto.getItinerary(porto.size() + 1) == null, "an itinerary past the end of the quote");
+
+    /* choosing none buys nothing */
+    office.commitItinerary(porto, 0);
+    equal(bought + 3, office.getPassenger(2).getTotalIt(), "itineraries after choosing none");
+  }
+
+  static void rejectsForeignQuotes() throws Exception {
+    TicketOffice office = office();
+    Quote quote = office.quote(0, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-01", "06:00");
+    String before = listing(office);
+    try {
+      office.commitItinerary(quote, quote.size() + 1);
+      check(false, "an itinerary past the end of the quote was bought");
+    } catch(NoSuchItineraryChoiceException e) {
+      /* expected */
+    }
+    try {
+      office.commitItinerary(1, 1);
+      check(false, "an itinerary with no search was bought");
+    } catch(NoSuchItineraryChoiceException e) {
+      /* expected */
+    }
+    try {
+      office().commitItinerary(quote, 1);
+      check(false, "an itinerary quoted by another office was bought");
+    } catch(NoSuchItineraryChoiceException e) {
+      /* expected */
+    }
+    equal(before, listing(office), "listing after the rejected purchases");
+  }
+
+  /* the single-session pair buys from the last search made with search */
+  static void lastSearchIsBought() throws Exception {
+    TicketOffice office = office();
+    List<Itinerary> itineraries = new ArrayList<Itinerary>(
+      office.search(1, "Évora", "Faro", "2017-12-24", "05:00"));
+    check(!itineraries.isEmpty(), "no itinerary from Évora to Faro");
+    office.quote(0, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-01", "06:00");
+    int bought = office.getPassenger(1).getTotalIt();
+    office.commitItinerary(1, 1);
+    equal(bought + 1, office.getPassenger(1).getTotalIt(), "itineraries of passenger 1");
+    try {
+      office.commitItinerary(0, 1);
+      check(false, "passenger 0 bought an itinerary of passenger 1");
+    } catch(NoSuchItineraryChoiceException e) {
+      /* expected */
+    }
+  }
+
+  /* sessions buying at once while services change: no purchase or change is lost */
+  static void concurrentPurchases() throws Exception {
+    final TicketOffice office = office();
+    final int sessions = 8;
+    final int purchases = 50;
+    for(int i = 0; i < sessions; i++)
+      office.registerPassenger("Session " + i);
+    final int firstId = office.getPassengers().size() - sessions;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for(int i = 0; i < sessions; i++) {
+      final int passengerId = firstId + i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for(int j = 0; j < purchases; j++) {
+              Quote quote = office.quote(passengerId, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-01",
+                                         "06:00");
+              office.commitItinerary(quote, 1 + j % quote.size());
+            }
+          } catch(Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+    threads.add(new Thread() {
+      @Override
+      public void run() {
+        try {
+          start.await();
+          for(int j = 0; j < purchases; j++) {
+            office.addService(10000 + j, 5);
+            office.addStationToService(10000 + j, "Aveiro", LocalTime.of(12, j % 60));
+            office.addStationToService(10000 + j, "Coimbra-B", LocalTime.of(13, j % 60));
+          }
+        } catch(Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+      }
+    });
+    for(Thread t: threads)
+      t.start();
+    start.countDown();
+    for(Thread t: threads)
+      t.join();
+    if(failure.get() != null)
+      throw new AssertionError("a session failed", failure.get());
+
+    for(int i = 0; i < sessions; i++)
+      equal(purchases, office.getPassenger(firstId + i).getTotalIt(), "itineraries of session " + i);
+    equal(7 + purchases, office.getServices().size(), "services after the changes");
+    for(int j = 0; j < purchases; j++)
+      equal(2, office.getService(10000 + j).getNumberOfStations(), "stations of service " + (10000 + j));
+  }
+
+}
@@ -0,0 +1,207 @@
+package mmt;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static mmt.Checks.check;
+import static mmt.Checks.equal;
+
+/**
+ * Tests of the multi-criteria router against an exhaustive search of the
+ * journeys of small timetables.
+ */
+public class RaptorRouterTest {
+
+  private static final int DAY = Service.MINUTES_PER_DAY;
+
+  public static void main(String[] args) {
+    reboardingTheSameService();
+    randomTimetablesAgainstBruteForce();
+    System.out.println("RaptorRouterTest: ok");
+  }
+
+  /* a shortcut between two stops of a service is cheaper than staying on it,
+     so the cheapest journey leaves the service and boards it again */
+  static void reboardingTheSameService() {
+    StationDictionary dictionary = new StationDictionary();
+    for(String name: new String[] { "A", "B", "C", "D" })
+      dictionary.intern(name);
+    List<Service> services = new ArrayList<Service>();
+    services.add(service(1, 40, dictionary, 0, 8 * 60, 1, 8 * 60 + 10, 2, 8 * 60 + 50, 3, 9 * 60));
+    services.add(service(2, 1, dictionary, 1, 8 * 60 + 15, 2, 8 * 60 + 20));
+    RaptorRouter router = new RaptorRouter(services, dictionary, TransferTimes.NONE, 4);
+
+    List<List<Leg>> journeys = router.search(0, 3, 7 * 60);
+    boolean reboarding = false;
+    for(List<Leg> journey: journeys)
+      reboarding |= reboards(journey);
+    check(reboarding, "no journey boards service 1 again");
+    equal(bruteForce(services, dictionary.size(), new int[dictionary.size()], 0, 3, 7 * 60), criteriaOf(journeys),
+          "journeys from A to D");
+
+    /* the itinerary of every journey holds all of its segments and fares */
+    TrainCompany company = new TrainCompany();
+    Passenger passenger = new Passenger(0, "Obi-Wan");
+    for(List<Leg> journey: journeys) {
+      Itinerary itinerary = company.buildItinerary(passenger, LocalDate.of(2017, 10, 18), journey);
+      equal(journey.size(), itinerary.getSegments().size(), "segments of the itinerary");
+      double price = 0;
+      for(Segment segment: itinerary.getSegments())
+        price += segment.getPrice();
+      check(Math.abs(itinerary.getPrice() - price(journey)) < 1e-9, "price of the itinerary");
+      check(Math.abs(itinerary.getPrice() - price) < 1e-9, "price of the segments");
+      equal(departure(journey), itinerary.getDepartureMinute(), "departure of the itinerary");
+      equal(arrival(journey), itinerary.getArrivalMinute(), "arrival of the itinerary");
+    }
+  }
+
+  static void randomTimetablesAgainstBruteForce() {
+    Random random = new Random(20171018);
+    for(int t = 0; t < 300; t++) {
+      int stations = 4 + random.nextInt(4);
+      StationDictionary dictionary = new StationDictionary();
+      for(int st = 0; st < stations; st++)
+        dictionary.intern("S" + st);
+      List<Service> services = new ArrayList<Service>();
+      int count = 4 + random.nextInt(10);
+      for(int id = 0; id < count; id++) {
+        int stops = 2 + random.nextInt(Math.min(4, stations - 1));
+        List<Integer> order = new ArrayList<Integer>();
+        for(int st = 0; st < stations; st++)
+          order.add(st);
+        Collections.shuffle(order, random);
+        Service service = new Service(id, 1 + random.nextInt(20), dictionary);
+        int minute = 300 + random.nextInt(240);
+        for(int i = 0; i < stops; i++) {
+          service.addStop(order.get(i), minute * 60, 0);
+          minute += 1 + random.nextInt(40);
+        }
+        services.add(service);
+      }
+      int[] transfers = new int[stations];
+      TransferTimes transferTimes = TransferTimes.NONE;
+      if(random.nextBoolean()) {
+        transferTimes = transferTimes.withDefaultMinutes(random.nextInt(5));
+        transfers = transferTimes.toArray(stations);
+      }
+      RaptorRouter router = new RaptorRouter(services, dictionary, transferTimes, 4);
+      for(int q = 0; q < 10; q++) {
+        int origin = random.nextInt(stations);
+        int destination = random.nextInt(stations);
+        int time = 280 + random.nextInt(200);
+        if(origin == destination)
+          continue;
+        List<List<Leg>> journeys = router.search(origin, destination, time);
+        List<List<Leg>> sameDay = new ArrayList<List<Leg>>();
+        for(List<Leg> journey: journeys)
+          if(arrival(journey) < DAY)
+            sameDay.add(journey);
+        equal(bruteForce(services, stations, transfers, origin, destination, time), criteriaOf(sameDay),
+              "journeys of timetable " + t + " from " + origin + " to " + destination + " at " + time);
+      }
+    }
+  }
+
+  static Service service(int id, double price, StationDictionary dictionary, int... stops) {
+    Service service = new Service(id, price, dictionary);
+    for(int i = 0; i < stops.length; i += 2)
+      service.addStop(stops[i], stops[i + 1] * 60, 0);
+    return service;
+  }
+
+  static boolean reboards(List<Leg> journey) {
+    Set<Service> services = new HashSet<Service>();
+    for(Leg leg: journey)
+      if(!services.add(leg.getService()))
+        return true;
+    return false;
+  }
+
+  static int departure(List<Leg> journey) {
+    Leg leg = journey.get(0);
+    return leg.getService().getMinute(leg.getDepartureIndex()) + leg.getDay() * DAY;
+  }
+
+  static int arrival(List<Leg> journey) {
+    Leg leg = journey.get(journey.size() - 1);
+    return leg.getService().getMinute(leg.getArrivalIndex()) + leg.getDay() * DAY;
+  }
+
+  static double fare(Service service, int from, int to) {
+    int duration = service.getMinute(service.getNumberOfStations() - 1) - service.getMinute(0);
+    return duration == 0 ? 0 : service.getPrice() * (service.getMinute(to) - service.getMinute(from)) / duration;
+  }
+
+  static double price(List<Leg> journey) {
+    double price = 0;
+    for(Leg leg: journey)
+      price += fare(leg.getService(), leg.getDepartureIndex(), leg.getArrivalIndex());
+    return price;
+  }
+
+  /* departure, arrival, price and number of services of each journey */
+  static Set<String> criteriaOf(List<List<Leg>> journeys) {
+    Set<String> criteria = new TreeSet<String>();
+    for(List<Leg> journey: journeys)
+      criteria.add(criteria(journey));
+    return criteria;
+  }
+
+  static String criteria(List<Leg> journey) {
+    return criteria(departure(journey), arrival(journey), price(journey), journey.size());
+  }
+
+  static String criteria(int departure, int arrival, double price, int services) {
+    return String.format("%d-%d %.6f x%d", departure, arrival, price, services);
+  }
+
+  /* the Pareto-optimal journeys of the day of the search, found by trying
+     every sequence of at most five services */
+  static Set<String> bruteForce(List<Service> services, int stations, int[] transfers, int origin,
+                                int destination, int time) {
+    List<double[]> found = new ArrayList<double[]>();
+    explore(services, transfers, origin, destination, origin, time, -1, 0, 0, found);
+    Set<String> criteria = new TreeSet<String>();
+    for(double[] j: found) {
+      boolean dominated = false;
+      for(double[] k: found)
+        if(k != j && k[0] >= j[0] && k[1] <= j[1] && k[2] <= j[2] + 1e-9 && k[3] <= j[3] &&
+           (k[0] > j[0] || k[1] < j[1] || k[2] < j[2] - 1e-9 || k[3] < j[3]))
+          dominated = true;
+      if(!dominated)
+        criteria.add(criteria((int) j[0], (int) j[1], j[2], (int) j[3]));
+    }
+    return criteria;
+  }
+
+  private static void explore(List<Service> services, int[] transfers, int origin, int destination, int station,
+                              int ready, int departure, double price, int legs, List<double[]> found) {
+    if(legs == 5)
+      return;
+    for(Service service: services) {
+      for(int i = 0; i < service.getNumberOfStations(); i++) {
+        int minute = service.getMinute(i);
+        if(service.getStationId(i) != station || minute < ready + (legs == 0 ? 0 : transfers[station]))
+          continue;
+        for(int j = i + 1; j < service.getNumberOfStations(); j++) {
+          int st = service.getStationId(j);
+          if(st == origin)
+            continue;
+          double total = price + fare(service, i, j);
+          int left = legs == 0 ? minute : departure;
+          if(st == destination)
+            found.add(new double[] { left, service.getMinute(j), total, legs + 1 });
+          else
+            explore(services, transfers, origin, destination, st, service.getMinute(j), left, total, legs + 1, found);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+
+/**
+ * Tests of the search cache: a repeated search is answered by the cache with
+ * the itineraries a search of the timetable gives, the least recently used
+ * entry is evicted, and a change to the timetable makes the entries stale.
+ */
+public class SearchCacheTest {
+
+  private static final String PORTO = "Porto - Campanhã";
+  private static final String LISBOA = "Lisboa - Oriente";
+
+  public static void main(String[] args) throws Exception {
+    repeatedSearchIsHit();
+    leastRecentlyUsedIsEvicted();
+    sizeZeroKeepsNothing();
+    changeInvalidatesEntries();
+    olderVersionIsIgnored();
+    System.out.println("SearchCacheTest: ok");
+  }
+
+  private static TicketOffice office(int cacheSize) throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.setSearchCacheSize(cacheSize);
+    office.importFile(data("sample.import").toString());
+    return office;
+  }
+
+  /* the itineraries offered, as listed */
+  private static List<String> offered(TicketOffice office, int passengerId, String from, String to, String time)
+    throws Exception {
+
+    List<String> itineraries = new ArrayList<String>();
+    for(Itinerary i: office.quote(passengerId, from, to, "2017-12-01", time).getItineraries())
+      itineraries.add(i.toString());
+    return itineraries;
+  }
+
+  static void repeatedSearchIsHit() throws Exception {
+    TicketOffice office = office(SearchCache.DEFAULT_SIZE);
+    TicketOffice uncached = office(0);
+    SearchCache cache = office.getSearchCache();
+
+    List<String> first = offered(office, 0, PORTO, LISBOA, "06:00");
+    check(!first.isEmpty(), "no itinerary from Porto to Lisboa");
+    equal(0L, cache.getHits(), "hits of the first search");
+    equal(1L, cache.getMisses(), "misses of the first search");
+    equal(1, cache.size(), "entries after the first search");
+
+    equal(first, offered(office, 0, PORTO, LISBOA, "06:00"), "itineraries of the repeated search");
+    equal(1L, cache.getHits(), "hits of the repeated search");
+
+    /* the entry is shared by passengers, each getting the itineraries at their own price */
+    equal(offered(uncached, 1, PORTO, LISBOA, "06:00"), offered(office, 1, PORTO, LISBOA, "06:00"),
+          "itineraries of another passenger");
+    equal(2L, cache.getHits(), "hits of another passenger");
+
+    /* another minute is another entry */
+    offered(office, 0, PORTO, LISBOA, "06:01");
+    equal(2L, cache.getMisses(), "misses of another minute");
+    equal(2, cache.size(), "entries after another minute");
+  }
+
+  static void leastRecentlyUsedIsEvicted() throws Exception {
+    TicketOffice office = office(2);
+    SearchCache cache = office.getSearchCache();
+    offered(office, 0, PORTO, LISBOA, "06:00");
+    offered(office, 0, "Évora", "Faro", "05:00");
+    /* the first entry is used again, so the second is the least recently used */
+    offered(office, 0, PORTO, LISBOA, "06:00");
+    offered(office, 0, LISBOA, "Silves", "08:00");
+    equal(2, cache.size(), "entries of a full cache");
+    equal(1L, cache.getEvictions(), "evictions of a full cache");
+
+    long hits = cache.getHits();
+    offered(office, 0, PORTO, LISBOA, "06:00");
+    equal(hits + 1, cache.getHits(), "hits of the entry used again");
+    offered(office, 0, "Évora", "Faro", "05:00");
+    equal(hits + 1, cache.getHits(), "hits of the evicted entry");
+
+    office.setSearchCacheSize(1);
+    equal(1, cache.size(), "entries after shrinking the cache");
+    try {
+      office.setSearchCacheSize(-1);
+      check(false, "a cache of negative size");
+    } catch(IllegalArgumentException e) {
+      /* expected */
+    }
+  }
+
+  static void sizeZeroKeepsNothing() throws Exception {
+    TicketOffice office = office(0);
+    TicketOffice cached = office(SearchCache.DEFAULT_SIZE);
+    SearchCache cache = office.getSearchCache();
+    for(int i = 0; i < 3; i++)
+      equal(offered(cached, 2, "Évora", "Faro", "05:00"), offered(office, 2, "Évora", "Faro", "05:00"),
+            "itineraries with no cache");
+    equal(0, cache.size(), "entries of a cache of size 0");
+    equal(0L, cache.getHits(), "hits of a cache of size 0");
+    equal(3L, cache.getMisses(), "misses of a cache of size 0");
+  }
+
+  /* a search after a change to the timetable is not answered by the entries of the old one */
+  static void changeInvalidatesEntries() throws Exception {
+    TicketOffice office = office(SearchCache.DEFAULT_SIZE);
+    SearchCache cache = office.getSearchCache();
+    List<String> before = offered(office, 0, PORTO, LISBOA, "06:00");
+    offered(office, 0, "Évora", "Faro", "05:00");
+    equal(2, cache.size(), "entries before the change");
+
+    office.addService(122, 25);
+    office.addStationToService(122, PORTO, LocalTime.of(6, 30));
+    office.addStationToService(122, LISBOA, LocalTime.of(8, 0));
+    long hits = cache.getHits();
+    List<String> after = offered(office, 0, PORTO, LISBOA, "06:00");
+    equal(hits, cache.getHits(), "hits after the change");
+    equal(1, cache.size(), "entries after the change");
+    check(!after.equals(before), "the new service is not offered");
+
+    TicketOffice uncached = office(0);
+    uncached.addService(122, 25);
+    uncached.addStationToService(122, PORTO, LocalTime.of(6, 30));
+    uncached.addStationToService(122, LISBOA, LocalTime.of(8, 0));
+    equal(offered(uncached, 0, PORTO, LISBOA, "06:00"), after, "itineraries after the change");
+  }
+
+  static void olderVersionIsIgnored() {
+    SearchCache cache = new SearchCache(4);
+    List<List<Leg>> none = Collections.emptyList();
+    cache.put(2, 0, 1, 60, none);
+    cache.put(1, 0, 2, 60, none);
+    equal(1, cache.size(), "entries after an older version");
+    check(cache.get(1, 0, 2, 60) == null, "an entry of an older version");
+    check(cache.get(2, 0, 1, 60) != null, "the entry of the current version");
+    cache.put(3, 0, 2, 60, none);
+    equal(1, cache.size(), "entries after a newer version");
+    check(cache.get(2, 0, 1, 60) == null, "an entry of a replaced version");
+  }
+
+}
@@ -0,0 +1,108 @@
+package mmt;
+
+import java.time.LocalTime;
+import java.util.Collection;
+
+import static mmt.Checks.check;
+import static mmt.Checks.data;
+import static mmt.Checks.equal;
+import static mmt.Checks.listing;
+import static mmt.Checks.temporaryFile;
+
+/**
+ * Tests of the binary snapshots written by TicketOffice.save: a company read
+ * back from its snapshot has the same services, transfer times, passengers
+ * and itineraries as the one saved.
+ */
+public class SnapshotTest {
+
+  public static void main(String[] args) throws Exception {
+    savesAndLoadsCompany();
+    savesAndLoadsReboardedItinerary();
+    System.out.println("SnapshotTest: ok");
+  }
+
+  static void savesAndLoadsCompany() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.importFile(data("sample.import").toString());
+    office.setTransferTime("Coimbra-B", 7);
+    office.setDefaultTransferTime(3);
+    office.registerPassenger("Han");
+    office.changePassengerName(1, "Leia Organa");
+    check(!office.search(3, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-01", "06:00").isEmpty(),
+          "no itinerary from Porto - Campanhã to Lisboa - Oriente");
+    office.commitItinerary(3, 1);
+    check(!office.search(0, "Évora", "Faro", "2017-12-24", "05:00").isEmpty(), "no itinerary from Évora to Faro");
+    office.commitItinerary(0, 1);
+
+    String snapshot = temporaryFile(".dat");
+    office.save(snapshot);
+    check(SnapshotReader.isSnapshot(snapshot), "the company was not saved as a snapshot");
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+
+    equal(listing(office), listing(loaded), "listing of the company read back");
+    equal(3, loaded.getTransferTimes().getDefaultMinutes(), "default transfer time read back");
+    equal(office.getTransferTimes().getStationMinutes(), loaded.getTransferTimes().getStationMinutes(),
+          "transfer times of the stations read back");
+    for(Passenger p: office.getPassengers()) {
+      Passenger read = loaded.getPassenger(p.getId());
+      equal(p.getCategory().getTier(), read.getCategory().getTier(), "tier of passenger " + p.getId());
+      check(read.getCategory().getPassenger() == read, "category of another passenger");
+    }
+
+    /* the next passenger gets the same id in both companies */
+    office.registerPassenger("Chewbacca");
+    loaded.registerPassenger("Chewbacca");
+    equal(office.getPassenger("Chewbacca").getId(), loaded.getPassenger("Chewbacca").getId(),
+          "id of the next passenger");
+    equal(searchListing(office), searchListing(loaded), "search in the company read back");
+  }
+
+  /* an itinerary that boards the same service twice keeps all of its segments */
+  static void savesAndLoadsReboardedItinerary() throws Exception {
+    TicketOffice office = new TicketOffice();
+    office.addService(1, 40);
+    office.addStationToService(1, "Alfa", LocalTime.of(8, 0));
+    office.addStationToService(1, "Beta", LocalTime.of(8, 10));
+    office.addStationToService(1, "Gama", LocalTime.of(8, 50));
+    office.addStationToService(1, "Delta", LocalTime.of(9, 0));
+    office.addService(2, 1);
+    office.addStationToService(2, "Beta", LocalTime.of(8, 15));
+    office.addStationToService(2, "Gama", LocalTime.of(8, 20));
+    office.registerPassenger("Luke");
+
+    int number = 0;
+    int position = 0;
+    for(Itinerary i: office.search(0, "Alfa", "Delta", "2017-12-01", "07:00")) {
+      position++;
+      if(i.getSegments().size() == 3)
+        number = position;
+    }
+    check(number > 0, "no itinerary boards service 1 again");
+    office.commitItinerary(0, number);
+    Itinerary bought = office.getPassenger(0).getItineraries().iterator().next();
+    equal(3, bought.getSegments().size(), "segments of the itinerary bought");
+
+    String snapshot = temporaryFile(".dat");
+    office.save(snapshot);
+    TicketOffice loaded = new TicketOffice();
+    loaded.load(snapshot);
+
+    equal(listing(office), listing(loaded), "listing of the company read back");
+    Itinerary read = loaded.getPassenger(0).getItineraries().iterator().next();
+    equal(3, read.getSegments().size(), "segments of the itinerary read back");
+    equal(bought.getDepartureMinute(), read.getDepartureMinute(), "departure of the itinerary read back");
+    equal(bought.getArrivalMinute(), read.getArrivalMinute(), "arrival of the itinerary read back");
+    check(Math.abs(bought.getPrice() - read.getPrice()) < 1e-9, "price of the itinerary read back");
+  }
+
+  private static String searchListing(TicketOffice office) throws Exception {
+    Collection<Itinerary> itineraries = office.search(0, "Porto - Campanhã", "Lisboa - Oriente", "2017-12-02", "09:00");
+    StringBuilder text = new StringBuilder();
+    for(Itinerary i: itineraries)
+      text.append(i);
+    return text.toString();
+  }
+
+}
@@ -0,0 +1,370 @@
+package mmt;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic timetables and passengers, for load tests and
+ * benchmarks. The network has a few hub stations and many regional ones;
+ * every line starts at a hub, runs through regional stations and possibly
+ * other hubs, and is served a given number of times a day in each direction,
+ * always with the same running times. Passengers book journeys on one service
+ * or on two services that meet at a hub.
+ *
+ * The same seed and settings always give the same data. The data can be
+ * written as an import file or as the binary snapshot that importing that file
+ * and saving would give; passengers are generated one at a time in both cases,
+ * so that files much larger than the memory can be written.
+ */
+public class DatasetGenerator {
+
+  /* the day's services run between these times */
+  private static final int FIRST_MINUTE = 5 * 60;
+  private static final int LAST_MINUTE = 24 * 60 - 1;
+  private static final LocalDate FIRST_DATE = LocalDate.of(2017, 1, 1);
+  private static final int DAYS = 365;
+  /* share of bookings that change trains at a hub, when possible */
+  private static final double TRANSFERS = 0.25;
+
+  private long _seed = 1;
+  private int _stations = 2000;
+  private int _hubs = 20;
+  private int _lines = 400;
+  private int _minStops = 4;
+  private int _maxStops = 16;
+  private int _servicesPerLine = 16;
+  private int _passengers = 100000;
+  private int _itinerariesPerPassenger = 10;
+
+  /* the network, built once for the current settings */
+  private StationDictionary _dictionary;
+  private List<Service> _services;
+  /* the hub of each station, by station id, or -1 */
+  private List<Integer> _hubOfStation;
+  /* for each hub, the services that leave it and the position of the hub in each */
+  private List<List<Service>> _hubServices;
+  private List<List<Integer>> _hubPositions;
+
+  public void setSeed(long seed) {
+    _seed = seed;
+    _services = null;
+  }
+
+  public void setStations(int stations) {
+    _stations = stations;
+    _services = null;
+  }
+
+  public void setHubs(int hubs) {
+    _hubs = hubs;
+    _services = null;
+  }
+
+  public void setLines(int lines) {
+    _lines = lines;
+    _services = null;
+  }
+
+  public void setStopsPerLine(int minStops, int maxStops) {
+    _minStops = minStops;
+    _maxStops = maxStops;
+    _services = null;
+  }
+
+  /**
+   * @param servicesPerLine
+   *        numero de servicos de cada linha por dia, em cada sentido.
+   */
+  public void setServicesPerLine(int servicesPerLine) {
+    _servicesPerLine = servicesPerLine;
+    _services = null;
+  }
+
+  public void setPassengers(int passengers) {
+    _passengers = passengers;
+  }
+
+  /**
+   * @param itinerariesPerPassenger
+   *        numero medio de itinerarios de cada passageiro; cada um tem entre
+   *        zero e o dobro deste numero.
+   */
+  public void setItinerariesPerPassenger(int itinerariesPerPassenger) {
+    _itinerariesPerPassenger = itinerariesPerPassenger;
+  }
+
+  /**
+   * @return o numero de servicos gerados com as definicoes atuais.
+   */
+  public int getNumberOfServices() {
+    buildNetwork();
+    return _services.size();
+  }
+
+  /**
+   * Escreve os dados num ficheiro de importacao, com as linhas SERVICE
+   * primeiro e cada linha PASSENGER seguida dos itinerarios do passageiro.
+   *
+   * @param filename
+   *        ficheiro de output.
+   * @throws IOException
+   */
+  public void writeImportFile(String filename) throws IOException {
+    buildNetwork();
+    try(Writer out = new BufferedWriter(Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8),
+                                        1 << 16)) {
+      StringBuilder line = new StringBuilder();
+      for(Service s: _services) {
+        line.setLength(0);
+        line.append("SERVICE|").append(s.getId()).append('|').append(s.getPrice());
+        for(Station st: s.getStations()) {
+          LocalTime time = st.getDeparture();
+          line.append('|').append(time.getHour() / 10).append(time.getHour() % 10).append(':');
+          line.append(time.getMinute() / 10).append(time.getMinute() % 10).append('|').append(st.getName());
+        }
+        out.append(line).append('\n');
+      }
+      generatePassengers(new Bookings() {
+        @Override
+        public void passenger(int id, String name) throws IOException {
+          out.append("PASSENGER|").append(name).append('\n');
+        }
+
+        @Override
+        public void itinerary(int passengerId, LocalDate date, Service[] services, int[] firsts, int[] lasts)
+          throws IOException {
+          line.setLength(0);
+          line.append("ITINERARY|").append(passengerId).append('|').append(date);
+          for(int i = 0; i < services.length; i++) {
+            line.append('|').append(services[i].getId());
+            line.append('/').append(services[i].getStationByIndex(firsts[i]).getName());
+            line.append('/').append(services[i].getStationByIndex(lasts[i]).getName());
+          }
+          out.append(line).append('\n');
+        }
+      });
+    }
+  }
+
+  /**
+   * Escreve os dados num instantaneo binario, sem journal, igual ao que se
+   * obteria importando o ficheiro de writeImportFile e guardando a companhia.
+   *
+   * @param filename
+   *        ficheiro de output.
+   * @throws IOException
+   */
+  public void writeSnapshot(String filename) throws IOException {
+    buildNetwork();
+    SnapshotWriter writer = new SnapshotWriter(0);
+    writer.begin(filename);
+    try {
+      writer.writeHeader(false, _passengers);
+      writer.writeStations(_dictionary);
+      writer.writeTransferTimes(TransferTimes.NONE);
+      for(Service s: _services)
+        writer.addService(s);
+      writer.writeServices(_services.size());
+      writer.writePassengerCount(_passengers);
+      generatePassengers(new Bookings() {
+        private Passenger _passenger;
+
+        @Override
+        public void passenger(int id, String name) throws IOException {
+          if(_passenger != null)
+            writer.writePassenger(_passenger);
+          _passenger = new Passenger(id, name);
+        }
+
+        /* as TrainCompany.importItinerary does */
+        @Override
+        public void itinerary(int passengerId, LocalDate date, Service[] services, int[] firsts, int[] lasts) {
+          Itinerary itinerary = new Itinerary(date, _passenger);
+          _passenger.addItinerary(itinerary);
+          for(int i = 0; i < services.length; i++) {
+            Segment segment = new Segment(services[i], 0.0);
+            segment.addStationsByIndex(firsts[i], lasts[i]);
+            segment.setDay(itinerary.connectingDay(segment));
+            itinerary.addSegment(segment);
+          }
+          _passenger.checkCategoryChanges();
+          _passenger.getCategory().setAcumulatedMinutes(itinerary);
+        }
+
+        @Override
+        public void end() throws IOException {
+          if(_passenger != null)
+            writer.writePassenger(_passenger);
+        }
+      });
+      writer.commit();
+    } finally {
+      writer.abort();
+    }
+  }
+
+  /* receives the passengers and their bookings, in the order they are generated */
+  private interface Bookings {
+    void passenger(int id, String name) throws IOException;
+    void itinerary(int passengerId, LocalDate date, Service[] services, int[] firsts, int[] lasts)
+      throws IOException;
+    default void end() throws IOException {
+    }
+  }
+
+  private void buildNetwork() {
+    if(_services != null)
+      return;
+    if(_stations < 2)
+      throw new IllegalArgumentException("a line needs at least two stations");
+    Random random = new Random(_seed);
+    int hubs = Math.max(1, Math.min(_hubs, _stations));
+    _dictionary = new StationDictionary();
+    _services = new ArrayList<Service>();
+    _hubOfStation = new ArrayList<Integer>();
+    _hubServices = new ArrayList<List<Service>>();
+    _hubPositions = new ArrayList<List<Integer>>();
+    for(int h = 0; h < hubs; h++) {
+      _hubServices.add(new ArrayList<Service>());
+      _hubPositions.add(new ArrayList<Integer>());
+    }
+
+    for(int line = 0; line < _lines; line++) {
+      int[] stops = lineStops(random, line, hubs);
+      int[] minutes = new int[stops.length];
+      int length = 1;
+      /* a line ends early rather than run past midnight */
+      while(length < stops.length) {
+        minutes[length] = minutes[length - 1] + 3 + random.nextInt(18);
+        if(minutes[length] > LAST_MINUTE - FIRST_MINUTE)
+          break;
+        length++;
+      }
+      int duration = minutes[length - 1];
+      double rate = 0.08 + 0.12 * random.nextDouble();
+      double price = Math.max(10, Math.round(duration * rate * 10)) / 10.0;
+      int window = LAST_MINUTE - duration - FIRST_MINUTE;
+      int headway = Math.max(window / Math.max(_servicesPerLine, 1), 1);
+      for(int direction = 0; direction < 2; direction++)
+        for(int n = 0; n < _servicesPerLine; n++) {
+          int start = FIRST_MINUTE + Math.min(n * headway + random.nextInt(Math.max(headway / 4, 1)), window);
+          Service service = new Service(_services.size(), price);
+          for(int i = 0; i < length; i++) {
+            /* the way back runs the same stretches in reverse */
+            int stop = direction == 0 ? stops[i] : stops[length - 1 - i];
+            int minute = start + (direction == 0 ? minutes[i] : duration - minutes[length - 1 - i]);
+            int id = _dictionary.intern(stationName(stop, hubs));
+            while(_hubOfStation.size() <= id)
+              _hubOfStation.add(stop < hubs ? stop : -1);
+            service.addStation(new Station(id, LocalTime.of(minute / 60, minute % 60), _dictionary));
+            if(stop < hubs && i < length - 1) {
+              _hubServices.get(stop).add(service);
+              _hubPositions.get(stop).add(i);
+            }
+          }
+          _services.add(service);
+        }
+    }
+  }
+
+  /* a hub, then regional stations, and another hub at the end of about half of the lines */
+  private int[] lineStops(Random random, int line, int hubs) {
+    int regional = _stations - hubs;
+    boolean hubAtEnd = hubs > 1 && random.nextBoolean();
+    int count = _minStops + random.nextInt(Math.max(_maxStops - _minStops + 1, 1));
+    /* never more stops than distinct stations to choose from */
+    count = Math.min(count, regional == 0 ? hubs : 1 + regional + (hubAtEnd ? 1 : 0));
+    count = Math.max(count, 2);
+    int[] stops = new int[count];
+    stops[0] = line % hubs;
+    for(int i = 1; i < count; i++) {
+      boolean hub = regional == 0 || (hubAtEnd && i == count - 1);
+      int stop;
+      do
+        stop = hub ? random.nextInt(hubs) : hubs + random.nextInt(regional);
+      while(contains(stops, i, stop));
+      stops[i] = stop;
+    }
+    return stops;
+  }
+
+  private static boolean contains(int[] values, int length, int value) {
+    for(int i = 0; i < length; i++)
+      if(values[i] == value)
+        return true;
+    return false;
+  }
+
+  private static String stationName(int station, int hubs) {
+    return station < hubs ? "Central " + (station + 1) : "Station " + (station - hubs + 1);
+  }
+
+  private void generatePassengers(Bookings bookings) throws IOException {
+    Random random = new Random(_seed * 31 + 17);
+    Service[] one = new Service[1];
+    int[] oneFirst = new int[1];
+    int[] oneLast = new int[1];
+    Service[] two = new Service[2];
+    int[] twoFirst = new int[2];
+    int[] twoLast = new int[2];
+    for(int id = 0; id < _passengers; id++) {
+      bookings.passenger(id, "Passenger " + (id + 1));
+      if(_services.isEmpty())
+        continue;
+      int itineraries = random.nextInt(2 * _itinerariesPerPassenger + 1);
+      for(int n = 0; n < itineraries; n++) {
+        LocalDate date = FIRST_DATE.plusDays(random.nextInt(DAYS));
+        Service first = _services.get(random.nextInt(_services.size()));
+        int stops = first.getNumberOfStations();
+        int from = random.nextInt(stops - 1);
+        int to = from + 1 + random.nextInt(stops - from - 1);
+        if(random.nextDouble() < TRANSFERS && transfer(random, first, from, two, twoFirst, twoLast)) {
+          bookings.itinerary(id, date, two, twoFirst, twoLast);
+          continue;
+        }
+        one[0] = first;
+        oneFirst[0] = from;
+        oneLast[0] = to;
+        bookings.itinerary(id, date, one, oneFirst, oneLast);
+      }
+    }
+    bookings.end();
+  }
+
+  /* a journey on the service to its next hub, and on another service leaving that hub afterwards */
+  private boolean transfer(Random random, Service first, int from, Service[] services, int[] firsts, int[] lasts) {
+    for(int i = from + 1; i < first.getNumberOfStations(); i++) {
+      Station station = first.getStationByIndex(i);
+      int hub = _hubOfStation.get(station.getId());
+      if(hub < 0)
+        continue;
+      List<Service> leaving = _hubServices.get(hub);
+      for(int attempt = 0; attempt < 8 && !leaving.isEmpty(); attempt++) {
+        int k = random.nextInt(leaving.size());
+        Service second = leaving.get(k);
+        int position = _hubPositions.get(hub).get(k);
+        if(second == first || second.getStationByIndex(position).getDeparture().isBefore(station.getDeparture()))
+          continue;
+        services[0] = first;
+        firsts[0] = from;
+        lasts[0] = i;
+        services[1] = second;
+        firsts[1] = position;
+        lasts[1] = position + 1 + random.nextInt(second.getNumberOfStations() - position - 1);
+        return true;
+      }
+      return false;
+    }
+    return false;
+  }
+
+}